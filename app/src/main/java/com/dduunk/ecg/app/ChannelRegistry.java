@@ -0,0 +1,116 @@
+package com.dduunk.ecg.app;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.dduunk.ecg.signal.MinMaxDecimator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Gives each plotted channel (a column of the values received from a peripheral) a dense integer id the first time it is seen, and keeps the state of each channel in arrays indexed by that id.
+// Peripheral identifiers are only hashed to get the peripheral id (once for each packet received). Channel ids are resolved with array lookups. Not thread safe
+class ChannelRegistry {
+
+    // Data
+    private final Map<String, Integer> mPeripheralIds = new HashMap<>();
+    private String[] mPeripheralIdentifiers = new String[4];
+    private int[][] mChannelIdsForPeripheral = new int[4][];            // Channel id for each column (-1 if not registered)
+    private int mPeripheralsCount = 0;
+
+    private int[] mPeripheralIdForChannel = new int[8];
+    private int[] mColumnForChannel = new int[8];
+    private RingLineDataSet[] mDataSets = new RingLineDataSet[8];
+    private MinMaxDecimator[] mDecimators = new MinMaxDecimator[8];
+    private int mChannelsCount = 0;
+
+    // Peripherals
+    int peripheralId(@NonNull String peripheralIdentifier) {
+        Integer peripheralId = mPeripheralIds.get(peripheralIdentifier);
+        if (peripheralId == null) {
+            if (mPeripheralsCount == mPeripheralIdentifiers.length) {
+                mPeripheralIdentifiers = Arrays.copyOf(mPeripheralIdentifiers, mPeripheralsCount * 2);
+                mChannelIdsForPeripheral = Arrays.copyOf(mChannelIdsForPeripheral, mPeripheralsCount * 2);
+            }
+            peripheralId = mPeripheralsCount++;
+            mPeripheralIdentifiers[peripheralId] = peripheralIdentifier;
+            mChannelIdsForPeripheral[peripheralId] = new int[0];
+            mPeripheralIds.put(peripheralIdentifier, peripheralId);
+        }
+        return peripheralId;
+    }
+
+    @NonNull
+    String getPeripheralIdentifier(int peripheralId) {
+        return mPeripheralIdentifiers[peripheralId];
+    }
+
+    int getPeripheralsCount() {
+        return mPeripheralsCount;
+    }
+
+    // Channels
+    // Returns -1 if the channel is not registered
+    int findChannelId(int peripheralId, int column) {
+        final int[] channelIds = mChannelIdsForPeripheral[peripheralId];
+        return column < channelIds.length ? channelIds[column] : -1;
+    }
+
+    int addChannel(int peripheralId, int column) {
+        int[] channelIds = mChannelIdsForPeripheral[peripheralId];
+        if (column >= channelIds.length) {
+            final int previousLength = channelIds.length;
+            channelIds = Arrays.copyOf(channelIds, Math.max(column + 1, previousLength * 2));
+            Arrays.fill(channelIds, previousLength, channelIds.length, -1);
+            mChannelIdsForPeripheral[peripheralId] = channelIds;
+        }
+        if (channelIds[column] >= 0) {
+            return channelIds[column];
+        }
+
+        if (mChannelsCount == mDataSets.length) {
+            final int capacity = mChannelsCount * 2;
+            mPeripheralIdForChannel = Arrays.copyOf(mPeripheralIdForChannel, capacity);
+            mColumnForChannel = Arrays.copyOf(mColumnForChannel, capacity);
+            mDataSets = Arrays.copyOf(mDataSets, capacity);
+            mDecimators = Arrays.copyOf(mDecimators, capacity);
+        }
+        final int channelId = mChannelsCount++;
+        mPeripheralIdForChannel[channelId] = peripheralId;
+        mColumnForChannel[channelId] = column;
+        channelIds[column] = channelId;
+        return channelId;
+    }
+
+    int getChannelsCount() {
+        return mChannelsCount;
+    }
+
+    int getPeripheralId(int channelId) {
+        return mPeripheralIdForChannel[channelId];
+    }
+
+    int getColumn(int channelId) {
+        return mColumnForChannel[channelId];
+    }
+
+    // Channel state
+    @Nullable
+    RingLineDataSet getDataSet(int channelId) {
+        return mDataSets[channelId];
+    }
+
+    void setDataSet(int channelId, @Nullable RingLineDataSet dataSet) {
+        mDataSets[channelId] = dataSet;
+    }
+
+    @Nullable
+    MinMaxDecimator getDecimator(int channelId) {
+        return mDecimators[channelId];
+    }
+
+    void setDecimator(int channelId, @Nullable MinMaxDecimator decimator) {
+        mDecimators[channelId] = decimator;
+    }
+}
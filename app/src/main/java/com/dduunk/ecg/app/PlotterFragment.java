@@ -19,30 +19,50 @@ import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.SeekBar;
+import android.widget.TextView;
 
+import com.dduunk.ecg.BuildConfig;
 import com.dduunk.ecg.R;
+import com.dduunk.ecg.ble.AsciiValuesParser;
+import com.dduunk.ecg.ble.ByteRingBuffer;
+import com.dduunk.ecg.ble.PackedSampleDecoder;
+import com.dduunk.ecg.ble.SampleFormat;
+import com.dduunk.ecg.ble.UartFramer;
 import com.dduunk.ecg.ble.central.BlePeripheral;
 import com.dduunk.ecg.ble.central.BlePeripheralUart;
 import com.dduunk.ecg.ble.central.BleScanner;
 import com.dduunk.ecg.ble.central.UartDataManager;
+import com.dduunk.ecg.signal.BiquadChain;
+import com.dduunk.ecg.signal.HrvMetrics;
+import com.dduunk.ecg.signal.HrvTracker;
+import com.dduunk.ecg.signal.MinMaxDecimator;
+import com.dduunk.ecg.signal.MinMaxPyramid;
+import com.dduunk.ecg.signal.QrsDetector;
+import com.dduunk.ecg.signal.SampleRingBuffer;
 import com.dduunk.ecg.style.UartStyle;
 import com.dduunk.ecg.utils.DialogUtils;
+import com.dduunk.ecg.utils.EcgSweepView;
+import com.dduunk.ecg.utils.FrameCoalescer;
+import com.dduunk.ecg.utils.LatencyTracer;
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.data.Entry;
 import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
 
-import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PlotterFragment extends ConnectedPeripheralFragment implements UartDataManager.UartDataManagerListener {
 
@@ -52,21 +72,61 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
     // Config
     private final static int xMaxEntriesMin = 6;
     private final static int xMaxEntriesMax = 100;
+    private final static int kDefaultDataSetCapacity = 3 * 2048;           // Used if the chart width is not known yet
+    private final static int kHistoryOverviewBuckets = 256;                 // Resolution of the session overview shown around the visible range when autoscroll is disabled
+
+    private final static boolean kShowLatencyOverlay = BuildConfig.DEBUG;
+    private final static int kLatencyOverlayRefreshInterval = 500;        // in millis
+
+    private final static boolean kIsSampleFilterEnabled = true;            // Filters packed samples (if their sample rate is known)
+    private final static float kFilterHighPassCutoff = 0.5f;                // in Hz. Baseline wander removal
+    private final static float kFilterNotchFrequency = 50;                  // in Hz. Power line frequency (50 or 60). 0 to disable
+    private final static float kFilterLowPassCutoff = 40;                   // in Hz
+    private final static int kQrsDetectionChannel = 0;                      // Channel of packed samples used to detect beats
 
     // UI
     private SeekBar xMaxEntriesSeekBar;
     private LineChart mChart;
+    private TextView mLatencyTextView;
+    private TextView mHeartRateTextView;
+    private EcgSweepView mSweepView;
 
     // Data
     private UartDataManager mUartDataManager;
     private long mOriginTimestamp;
     private List<BlePeripheralUart> mBlePeripheralsUart = new ArrayList<>();
     private boolean mIsAutoScrollEnabled = true;
+    private volatile boolean mIsSweepModeEnabled = false;
+    private volatile List<SampleRingBuffer> mSweepBuffers = new ArrayList<>();               // Buffers of all the datasets (for the sweep view). Replaced when a dataset is attached
+    private volatile List<Integer> mSweepColors = new ArrayList<>();
     private int mVisibleInterval = 20;        // in seconds
     private Map<String, DashPathEffect> mLineDashPathEffectForPeripheral = new HashMap<>();
-    private Map<String, List<LineDataSet>> mDataSetsForPeripheral = new HashMap<>();
-    private LineDataSet mLastDataSetModified;
+    private final ChannelRegistry mChannelRegistry = new ChannelRegistry();                // Dataset and decimator of each channel. Only accessed from onUartRx
+    private volatile float mDecimationBucketWidth = 0;                                       // in seconds. x range of a chart pixel. 0 if unknown. Set from the main thread
+    private volatile int mChartWidth = 0;                                                    // in pixels. Set from the main thread
+    private Map<String, UartFramer> mLineFramersForPeripheral = new HashMap<>();         // Only accessed from onUartRx (calls are serialized by UartDataManager)
+    private final AsciiValuesParser mValuesParser = new AsciiValuesParser();               // Only accessed from onUartRx
+    private Map<String, PackedSampleDecoder> mSampleDecodersForPeripheral = new HashMap<>();  // Peripherals that send packed binary samples. Only accessed from onUartRx
+    private Map<String, Integer> mProbedBytesForPeripheral = new HashMap<>();              // Bytes at the start of the rx data already checked for format frames. Only accessed from onUartRx
+    private Map<String, Float> mLastSampleTimestampForPeripheral = new HashMap<>();        // x of the last packed sample added. Only accessed from onUartRx
+    private Map<String, BiquadChain> mSampleFiltersForPeripheral = new HashMap<>();         // Only accessed from onUartRx
+    private Map<String, SampleFormat> mSampleFilterFormatForPeripheral = new HashMap<>();   // Format used to create the filter. Only accessed from onUartRx
+    private float[] mSampleValues = new float[0];                                           // Only accessed from onUartRx
+    private Map<String, QrsDetector> mQrsDetectorsForPeripheral = new HashMap<>();          // Only accessed from onUartRx
+    private Map<String, HrvTracker> mHrvTrackersForPeripheral = new HashMap<>();            // Only accessed from onUartRx
+    private Map<String, Double> mHeartRateForPeripheral = new HashMap<>();                   // Only accessed from the main thread
+    private Map<String, HrvMetrics> mHrvMetricsForPeripheral = new HashMap<>();              // Only accessed from the main thread
+    private RingLineDataSet mLastDataSetModified;
     private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final FrameCoalescer mChartRefreshCoalescer = new FrameCoalescer(this::refreshChart);     // Refreshes the chart at most once per frame
+    private final AtomicLong mPendingRenderTimestamp = new AtomicLong();                    // Oldest rx timestamp not rendered yet. 0 if none
+    private LineData mLiveLineData;                                                         // Chart data with the latest points of all the datasets. Only accessed from the main thread
+    private boolean mIsHistoryShown = false;                                                // The chart shows mHistoryLineData instead of mLiveLineData (autoscroll disabled)
+    private LineData mHistoryLineData;                                                      // Only accessed from the main thread
+    private List<ArrayList<Entry>> mHistoryValues = new ArrayList<>();                       // Values of each mHistoryLineData dataset (entries are reused). Only accessed from the main thread
+    private List<MinMaxPyramid> mHistoryPyramids = new ArrayList<>();                        // Only accessed from the main thread
+    private float mHistoryFirstX, mHistoryLastX;                                             // Range of the history snapshot. Only accessed from the main thread
+    private final FrameCoalescer mHistoryRefreshCoalescer = new FrameCoalescer(this::refreshHistory);
 
     public static PlotterFragment newInstance(@Nullable String singlePeripheralIdentifier) {
         PlotterFragment fragment = new PlotterFragment();
@@ -99,6 +159,11 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
 
         // UI
         mChart = view.findViewById(R.id.chart);
+        mChart.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> updateDecimationBucketWidth());
+        mLatencyTextView = view.findViewById(R.id.latencyTextView);
+        mLatencyTextView.setVisibility(kShowLatencyOverlay ? View.VISIBLE : View.GONE);
+        mHeartRateTextView = view.findViewById(R.id.heartRateTextView);
+        mSweepView = view.findViewById(R.id.sweepView);
         WeakReference<PlotterFragment> weakThis = new WeakReference<>(this);
         SwitchCompat autoscrollSwitch = view.findViewById(R.id.autoscrollSwitch);
         autoscrollSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
@@ -107,7 +172,8 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
                 if (fragment != null) {
                     fragment.mIsAutoScrollEnabled = isChecked;
                     fragment.mChart.setDragEnabled(!isChecked);
-                    fragment.notifyDataSetChanged();
+                    fragment.setHistoryShown(!isChecked);
+                    fragment.scheduleChartRefresh(0);
                 }
             }
         });
@@ -118,7 +184,9 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
                 if (fromUser) {
                     final float factor = progress / 100.f;
                     mVisibleInterval = Math.round((xMaxEntriesMax - xMaxEntriesMin) * factor + xMaxEntriesMin);
-                    notifyDataSetChanged();
+                    updateDecimationBucketWidth();
+                    mSweepView.setSweepDuration(mVisibleInterval);
+                    scheduleChartRefresh(0);
                 }
             }
 
@@ -133,7 +201,11 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
 
         autoscrollSwitch.setChecked(mIsAutoScrollEnabled);
         mChart.setDragEnabled(!mIsAutoScrollEnabled);
+        mChart.setOnChartGestureListener(mChartGestureListener);
         setXMaxEntriesValue(mVisibleInterval);
+        if (mIsSweepModeEnabled) {
+            setSweepModeEnabled(true);          // Restore the display mode (the fragment is retained)
+        }
 
         // Setup
         Context context = getContext();
@@ -145,8 +217,24 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
         }
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (kShowLatencyOverlay) {
+            mMainHandler.post(mLatencyOverlayRunnable);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        mMainHandler.removeCallbacks(mLatencyOverlayRunnable);
+        super.onPause();
+    }
+
     @Override
     public void onDestroy() {
+        mChartRefreshCoalescer.cancel();
+        mHistoryRefreshCoalescer.cancel();
         if (mUartDataManager != null) {
             Context context = getContext();
             if (context != null) {
@@ -167,7 +255,16 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
-        inflater.inflate(R.menu.menu_help, menu);
+        inflater.inflate(R.menu.menu_plotter, menu);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        MenuItem sweepModeMenuItem = menu.findItem(R.id.action_sweepmode);
+        if (sweepModeMenuItem != null) {
+            sweepModeMenuItem.setChecked(mIsSweepModeEnabled);
+        }
     }
 
     @Override
@@ -187,6 +284,12 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
                     }
                 }
                 return true;
+            case R.id.action_sweepmode:
+                setSweepModeEnabled(!mIsSweepModeEnabled);
+                if (activity != null) {
+                    activity.invalidateOptionsMenu();
+                }
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -270,6 +373,17 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
         }
     }
 
+    private Runnable mLatencyOverlayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mLatencyTextView != null) {
+                final String chartSummary = String.format(Locale.ENGLISH, "chart  req:%d runs:%d coalesced:%d", mChartRefreshCoalescer.getRequestCount(), mChartRefreshCoalescer.getRunCount(), mChartRefreshCoalescer.getCoalescedCount());
+                mLatencyTextView.setText(LatencyTracer.getInstance().getSummary() + "\n" + chartSummary);
+            }
+            mMainHandler.postDelayed(mLatencyOverlayRunnable, kLatencyOverlayRefreshInterval);
+        }
+    };
+
     private void setupChart() {
         mChart.getDescription().setEnabled(false);
         mChart.getXAxis().setGranularityEnabled(true);
@@ -288,37 +402,99 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
         xMaxEntriesSeekBar.setProgress(progress);
     }
 
-    private void addEntry(@NonNull String peripheralIdentifier, int index, float value, float timestamp) {
-        Entry entry = new Entry(timestamp, value);
+    // Values are decimated to the chart resolution before being added to the chart
+    private void addEntry(int channelId, float value, float timestamp) {
+        final MinMaxDecimator decimator = mChannelRegistry.getDecimator(channelId);
+        decimator.setBucketWidth(mDecimationBucketWidth);
+        decimator.add(timestamp, value);
+    }
 
-        boolean dataSetExists = false;
-        List<LineDataSet> dataSets = mDataSetsForPeripheral.get(peripheralIdentifier);
-        if (dataSets != null) {
-            if (index < dataSets.size()) {
-                // Add entry to existing dataset
-                LineDataSet dataSet = dataSets.get(index);
-                dataSet.addEntry(entry);
-                dataSetExists = true;
-            }
+    // Returns the id of the channel for a column of the peripheral values. The first time a channel is seen, its dataset is created and attached to the chart
+    private int channelId(int peripheralId, int column) {
+        int channelId = mChannelRegistry.findChannelId(peripheralId, column);
+        if (channelId < 0) {
+            channelId = mChannelRegistry.addChannel(peripheralId, column);
+            final int newChannelId = channelId;
+            mChannelRegistry.setDecimator(channelId, new MinMaxDecimator(mDecimationBucketWidth, (x, y) -> addChartEntry(newChannelId, y, x)));
+            final RingLineDataSet dataSet = createDataSet(mChannelRegistry.getPeripheralIdentifier(peripheralId), column);
+            mChannelRegistry.setDataSet(channelId, dataSet);
+            mMainHandler.post(() -> attachDataSet(dataSet));
         }
+        return channelId;
+    }
+
+    // The chart only needs ~2 points (min and max) for each pixel column of the visible interval
+    private void updateDecimationBucketWidth() {
+        final int width = mChart != null ? mChart.getWidth() : 0;
+        mChartWidth = width;
+        mDecimationBucketWidth = width > 0 ? (float) mVisibleInterval / width : 0;          // Read by the decimators from onUartRx
+    }
 
-        if (!dataSetExists) {
-            appendDataset(peripheralIdentifier, entry, index);
-            List<ILineDataSet> allDataSets = new ArrayList<>();
-            for (List<LineDataSet> dataSetLists : mDataSetsForPeripheral.values()) {
-                allDataSets.addAll(dataSetLists);
+    private void addChartEntry(int channelId, float value, float timestamp) {
+        final RingLineDataSet dataSet = mChannelRegistry.getDataSet(channelId);
+        dataSet.add(timestamp, value);
+        mLastDataSetModified = dataSet;
+    }
+
+    // Main thread. The dataset is added to the current chart data (without creating it again)
+    private void attachDataSet(@NonNull RingLineDataSet dataSet) {
+        if (mLiveLineData == null) {
+            mLiveLineData = new LineData(dataSet);
+            if (!mIsHistoryShown && mChart != null) {
+                mChart.setData(mLiveLineData);
             }
-            final LineData lineData = new LineData(allDataSets);
-            mChart.setData(lineData);
+        } else {
+            mLiveLineData.addDataSet(dataSet);
+        }
+
+        List<SampleRingBuffer> sweepBuffers = new ArrayList<>(mSweepBuffers);
+        sweepBuffers.add(dataSet.getBuffer());
+        List<Integer> sweepColors = new ArrayList<>(mSweepColors);
+        sweepColors.add(dataSet.getColor());
+        mSweepBuffers = sweepBuffers;
+        mSweepColors = sweepColors;
+        if (mIsSweepModeEnabled && mSweepView != null) {
+            mSweepView.setChannels(sweepBuffers, sweepColors);
+        }
+        scheduleChartRefresh(0);
+    }
+
+    // Can be called from any thread. timestamp: when the data was received (to trace the render latency) or 0
+    private void scheduleChartRefresh(long timestamp) {
+        if (timestamp > 0) {
+            mPendingRenderTimestamp.compareAndSet(0, timestamp);
+        }
+        mChartRefreshCoalescer.schedule();
+    }
+
+    private void refreshChart() {
+        if (mChart == null) {
+            return;
+        }
+        notifyDataSetChanged();
+        final long timestamp = mPendingRenderTimestamp.getAndSet(0);
+        if (timestamp > 0) {
+            LatencyTracer.getInstance().record(LatencyTracer.STAGE_RENDER, timestamp);
         }
+    }
 
-        List<LineDataSet> dataSets2 = mDataSetsForPeripheral.get(peripheralIdentifier);
-        if (dataSets2 != null && index < dataSets2.size()) {
-            mLastDataSetModified = dataSets2.get(index);
+    private void setSweepModeEnabled(boolean enabled) {
+        mIsSweepModeEnabled = enabled;
+        mChart.setVisibility(enabled ? View.GONE : View.VISIBLE);
+        mSweepView.setVisibility(enabled ? View.VISIBLE : View.GONE);
+        if (enabled) {
+            mSweepView.setSweepDuration(mVisibleInterval);
+            mSweepView.setChannels(mSweepBuffers, mSweepColors);
+        } else {
+            notifyDataSetChanged();
         }
     }
 
     private void notifyDataSetChanged() {
+        if (mIsSweepModeEnabled || mIsHistoryShown) {
+            return;         // The sweep view reads the data by itself, and the history is only updated when it is navigated
+        }
+
         if (mChart.getData() != null) {
             mChart.getData().notifyDataChanged();
         }
@@ -334,10 +510,179 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
         }
     }
 
-    private void appendDataset(@NonNull String peripheralIdentifier, @NonNull Entry entry, int index) {
-        LineDataSet dataSet = new LineDataSet(null, "Values[" + peripheralIdentifier + ":" + index + "]");
-        dataSet.addEntry(entry);
-        dataSet.addEntry(entry);
+    // History
+    // When autoscroll is disabled the chart shows the whole session: the visible range is read from the finest pyramid level that has ~1 bucket per pixel, and the rest of the session from a coarse level, so the user can pan to it.
+    // The history is a snapshot taken when autoscroll is disabled (received points are still added to the live datasets)
+    private final OnChartGestureListener mChartGestureListener = new OnChartGestureListener() {
+        @Override
+        public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+        }
+
+        @Override
+        public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+            scheduleHistoryRefresh();
+        }
+
+        @Override
+        public void onChartLongPressed(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartDoubleTapped(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartSingleTapped(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
+        }
+
+        @Override
+        public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+            scheduleHistoryRefresh();
+        }
+
+        @Override
+        public void onChartTranslate(MotionEvent me, float dX, float dY) {
+            scheduleHistoryRefresh();
+        }
+    };
+
+    private void setHistoryShown(boolean shown) {
+        if (shown == mIsHistoryShown) {
+            return;
+        }
+
+        if (shown) {
+            final LineData liveLineData = mLiveLineData;
+            if (liveLineData == null) {
+                return;
+            }
+            final float fromX = mChart.getLowestVisibleX();
+            final float toX = mChart.getHighestVisibleX();
+
+            // Datasets with the same style as the live ones
+            List<ILineDataSet> dataSets = new ArrayList<>();
+            mHistoryValues = new ArrayList<>();
+            mHistoryPyramids = new ArrayList<>();
+            float firstX = Float.MAX_VALUE, lastX = -Float.MAX_VALUE;
+            for (ILineDataSet liveDataSet : liveLineData.getDataSets()) {
+                final MinMaxPyramid pyramid = ((RingLineDataSet) liveDataSet).getHistory();
+                final float pyramidFirstX = pyramid.getFirstX();
+                if (!Float.isNaN(pyramidFirstX)) {
+                    firstX = Math.min(firstX, pyramidFirstX);
+                    lastX = Math.max(lastX, pyramid.getLastX());
+                }
+
+                ArrayList<Entry> values = new ArrayList<>();
+                LineDataSet dataSet = new LineDataSet(values, liveDataSet.getLabel());
+                dataSet.setDrawCircles(false);
+                dataSet.setDrawValues(false);
+                dataSet.setLineWidth(2);
+                dataSet.setColor(liveDataSet.getColor());
+                dataSet.setFormLineDashEffect(liveDataSet.getFormLineDashEffect());
+                dataSets.add(dataSet);
+                mHistoryValues.add(values);
+                mHistoryPyramids.add(pyramid);
+            }
+            if (firstX > lastX) {
+                return;
+            }
+
+            mIsHistoryShown = true;
+            mHistoryLineData = new LineData(dataSets);
+            mHistoryFirstX = firstX;
+            mHistoryLastX = lastX;
+            mChart.getXAxis().setAxisMinimum(firstX);          // Fixed, so the view doesn't move when the values are replaced
+            mChart.getXAxis().setAxisMaximum(lastX);
+            mChart.setDragDecelerationEnabled(false);          // Decelerations don't notify the gesture listener
+            fillHistoryValues(fromX, toX);
+            mChart.setData(mHistoryLineData);
+            mChart.setVisibleXRangeMaximum(Math.max(lastX - firstX, xMaxEntriesMin));
+            mChart.setVisibleXRangeMinimum(xMaxEntriesMin);
+            mChart.zoom(Math.max(1, (lastX - firstX) / Math.max(toX - fromX, xMaxEntriesMin)) / mChart.getScaleX(), 1, 0, 0);
+            mChart.moveViewToX(fromX);
+        } else {
+            mIsHistoryShown = false;
+            mHistoryRefreshCoalescer.cancel();
+            mHistoryLineData = null;
+            mHistoryValues = new ArrayList<>();
+            mHistoryPyramids = new ArrayList<>();
+            mChart.getXAxis().resetAxisMinimum();
+            mChart.getXAxis().resetAxisMaximum();
+            mChart.setDragDecelerationEnabled(true);
+            mChart.setData(mLiveLineData);
+        }
+    }
+
+    private void scheduleHistoryRefresh() {
+        if (mIsHistoryShown) {
+            mHistoryRefreshCoalescer.schedule();
+        }
+    }
+
+    private void refreshHistory() {
+        if (mChart == null || !mIsHistoryShown || mHistoryLineData == null) {
+            return;
+        }
+        fillHistoryValues(mChart.getLowestVisibleX(), mChart.getHighestVisibleX());
+        mHistoryLineData.notifyDataChanged();
+        mChart.notifyDataSetChanged();
+        mChart.invalidate();
+    }
+
+    // Replaces the values of the history datasets with the points of the visible range [fromX, toX] and an overview of the rest of the session
+    private void fillHistoryValues(float fromX, float toX) {
+        final int visibleBuckets = Math.max(mChart.getWidth(), kHistoryOverviewBuckets);
+        for (int i = 0; i < mHistoryValues.size(); i++) {
+            final ArrayList<Entry> values = mHistoryValues.get(i);
+            final MinMaxPyramid pyramid = mHistoryPyramids.get(i);
+            final int[] count = {0};
+
+            pyramid.query(mHistoryFirstX, mHistoryLastX, kHistoryOverviewBuckets, (x, y) -> {
+                if (x < fromX) {
+                    setHistoryValue(values, count[0]++, x, y);
+                }
+            });
+            pyramid.query(fromX, toX, visibleBuckets, (x, y) -> {
+                if (x <= mHistoryLastX && (count[0] == 0 || x >= values.get(count[0] - 1).getX())) {
+                    setHistoryValue(values, count[0]++, x, y);
+                }
+            });
+            pyramid.query(mHistoryFirstX, mHistoryLastX, kHistoryOverviewBuckets, (x, y) -> {
+                if (x > toX && (count[0] == 0 || x >= values.get(count[0] - 1).getX())) {
+                    setHistoryValue(values, count[0]++, x, y);
+                }
+            });
+
+            if (values.size() > count[0]) {
+                values.subList(count[0], values.size()).clear();
+            }
+            ((LineDataSet) mHistoryLineData.getDataSetByIndex(i)).notifyDataSetChanged();
+        }
+    }
+
+    private static void setHistoryValue(@NonNull ArrayList<Entry> values, int index, float x, float y) {
+        if (index < values.size()) {
+            final Entry entry = values.get(index);
+            entry.setX(x);
+            entry.setY(y);
+        } else {
+            values.add(new Entry(x, y));
+        }
+    }
+
+    // The points kept for each dataset are enough to fill the visible interval: decimation adds at most 3 points for each pixel column. Older points are in the history pyramid
+    private int dataSetCapacity() {
+        final int chartWidth = mChartWidth;
+        return chartWidth > 0 ? 3 * chartWidth : kDefaultDataSetCapacity;
+    }
+
+    private @NonNull
+    RingLineDataSet createDataSet(@NonNull String peripheralIdentifier, int index) {
+        RingLineDataSet dataSet = new RingLineDataSet(dataSetCapacity(), "Values[" + peripheralIdentifier + ":" + index + "]");
 
         dataSet.setDrawCircles(false);
         dataSet.setDrawValues(false);
@@ -347,65 +692,173 @@ public class PlotterFragment extends ConnectedPeripheralFragment implements Uart
         dataSet.setColor(color);
         final DashPathEffect dashPatternEffect = mLineDashPathEffectForPeripheral.get(peripheralIdentifier);
         dataSet.setFormLineDashEffect(dashPatternEffect);
+        return dataSet;
+    }
+
+    private static final byte kLineSeparator = 10;
 
-        List<LineDataSet> previousDataSets = mDataSetsForPeripheral.get(peripheralIdentifier);
-        if (previousDataSets != null) {
-            previousDataSets.add(dataSet);
+    @Override
+    public void onUartRx(@NonNull ByteRingBuffer rxData, @NonNull String peripheralIdentifier, long timestamp) {
+        // Packed binary streams are detected by a valid format frame (a single 0 byte in a text stream is not enough)
+        PackedSampleDecoder sampleDecoder = mSampleDecodersForPeripheral.get(peripheralIdentifier);
+        if (sampleDecoder == null) {
+            final Integer probedBytes = mProbedBytesForPeripheral.get(peripheralIdentifier);        // Only the frames that end in the new bytes are checked
+            if (PackedSampleDecoder.containsFormatFrame(rxData, probedBytes != null ? Math.min(probedBytes, rxData.size()) : 0)) {
+                Log.d(TAG, "Packed sample stream detected for: " + peripheralIdentifier);
+                sampleDecoder = new PackedSampleDecoder(null);          // The peripheral sends its format
+                mSampleDecodersForPeripheral.put(peripheralIdentifier, sampleDecoder);
+                mLineFramersForPeripheral.remove(peripheralIdentifier);
+                mProbedBytesForPeripheral.remove(peripheralIdentifier);
+            }
+        }
+
+        if (sampleDecoder != null) {
+            onUartRxSamples(sampleDecoder, rxData, peripheralIdentifier, timestamp);
         } else {
-            List<LineDataSet> dataSets = new ArrayList<>();
-            dataSets.add(dataSet);
-            mDataSetsForPeripheral.put(peripheralIdentifier, dataSets);
+            onUartRxLines(rxData, peripheralIdentifier, timestamp);
+            mProbedBytesForPeripheral.put(peripheralIdentifier, rxData.size());         // The bytes left (an incomplete line) have been checked
         }
     }
 
-    private static final byte kLineSeparator = 10;
+    private void onUartRxLines(@NonNull ByteRingBuffer rxData, @NonNull String peripheralIdentifier, long timestamp) {
+        UartFramer lineFramer = mLineFramersForPeripheral.get(peripheralIdentifier);
+        if (lineFramer == null) {
+            lineFramer = new UartFramer.DelimiterFramer(kLineSeparator, true);
+            mLineFramersForPeripheral.put(peripheralIdentifier, lineFramer);
+        }
 
-    @Override
-    public void onUartRx(@NonNull byte[] data, @NonNull String peripheralIdentifier) {
-        // Find last separator
-        boolean found = false;
-        int i = data.length - 1;
-        while (i >= 0 && !found) {
-            if (data[i] == kLineSeparator) {
-                found = true;
-            } else {
-                i--;
+        // Only complete lines are processed (and consumed from rxData). The rest is kept until more data arrives
+        final float currentTimestamp = (System.currentTimeMillis() - mOriginTimestamp) / 1000.f;
+        final int peripheralId = mChannelRegistry.peripheralId(peripheralIdentifier);
+        final int linesCount = lineFramer.process(rxData, (frame, length) -> {
+            final int valuesCount = mValuesParser.parse(frame, 0, length);        // Values separated by [,; \t]. Invalid values are skipped
+            final float[] values = mValuesParser.getValues();
+            for (int j = 0; j < valuesCount; j++) {
+                addEntry(channelId(peripheralId, j), values[j], currentTimestamp);
             }
+            scheduleChartRefresh(timestamp);
+        });
+
+        if (linesCount > 0) {
+            LatencyTracer.getInstance().record(LatencyTracer.STAGE_PARSE, timestamp);
         }
-        final int lastSeparator = i + 1;
-
-        if (found) {
-            final byte[] subData = Arrays.copyOfRange(data, 0, lastSeparator);
-            try {
-                final float currentTimestamp = (System.currentTimeMillis() - mOriginTimestamp) / 1000.f;
-                final String dataString = new String(subData, "UTF-8");
-                final String[] lineStrings = dataString.replace("\r", "").split("\n");
-                for (String lineString : lineStrings) {
-                    final String[] valuesStrings = lineString.split("[,; \t]");
-                    int j = 0;
-                    for (String valueString : valuesStrings) {
-                        boolean isValid = true;
-                        float value = 0;
-                        if (valueString != null) {
-                            try {
-                                value = Float.parseFloat(valueString);
-                            } catch (NumberFormatException ignored) {
-                                isValid = false;
-                            }
-                        } else {
-                            isValid = false;
+    }
+
+    private void onUartRxSamples(@NonNull PackedSampleDecoder sampleDecoder, @NonNull ByteRingBuffer rxData, @NonNull String peripheralIdentifier, long timestamp) {
+        final float currentTimestamp = (System.currentTimeMillis() - mOriginTimestamp) / 1000.f;
+        final int peripheralId = mChannelRegistry.peripheralId(peripheralIdentifier);
+        final int blocksCount = sampleDecoder.process(rxData, block -> {
+            // The last sample is the most recent one. If the sample rate is known, the previous ones are spaced accordingly
+            final int samplesCount = block.getSamplesCount();
+            final int sampleRate = block.getFormat().getSampleRate();
+            final float sampleInterval = sampleRate > 0 ? 1.f / sampleRate : 0;
+            float firstSampleTimestamp = currentTimestamp - (samplesCount - 1) * sampleInterval;
+            final Float lastSampleTimestamp = mLastSampleTimestampForPeripheral.get(peripheralIdentifier);
+            if (lastSampleTimestamp != null) {
+                firstSampleTimestamp = Math.max(firstSampleTimestamp, lastSampleTimestamp + sampleInterval);     // Blocks received close together would overlap the previous one: x values have to be sorted
+            }
+            final BiquadChain filter = sampleFilter(peripheralIdentifier, block.getFormat());
+            if (mSampleValues.length < samplesCount) {
+                mSampleValues = new float[samplesCount];
+            }
+            for (int channel = 0; channel < block.getChannelsCount(); channel++) {
+                for (int i = 0; i < samplesCount; i++) {
+                    mSampleValues[i] = block.getValue(channel, i);
+                }
+                if (filter != null) {
+                    filter.process(channel, mSampleValues, 0, samplesCount);
+                }
+                if (channel == kQrsDetectionChannel && sampleRate > 0) {
+                    final QrsDetector detector = qrsDetector(peripheralIdentifier, sampleRate);
+                    final HrvTracker hrvTracker = mHrvTrackersForPeripheral.get(peripheralIdentifier);
+                    detector.process(mSampleValues, 0, samplesCount, (sampleIndex, rrInterval, heartRate, latency) -> {
+                        if (hrvTracker != null) {
+                            hrvTracker.onBeat(sampleIndex / detector.getSampleRate(), rrInterval);
+                        }
+                        if (heartRate > 0) {
+                            mMainHandler.post(() -> updateHeartRate(peripheralIdentifier, heartRate));
                         }
+                    });
+                }
+                final int channelId = channelId(peripheralId, channel);
+                for (int i = 0; i < samplesCount; i++) {
+                    addEntry(channelId, mSampleValues[i], firstSampleTimestamp + i * sampleInterval);
+                }
+            }
+            if (samplesCount > 0) {
+                mLastSampleTimestampForPeripheral.put(peripheralIdentifier, firstSampleTimestamp + (samplesCount - 1) * sampleInterval);
+            }
+        });
+
+        if (blocksCount > 0) {
+            LatencyTracer.getInstance().record(LatencyTracer.STAGE_PARSE, timestamp);
+            scheduleChartRefresh(timestamp);
+        }
+    }
+
+    // Returns the filter for the peripheral samples (created again if the format changes), or null if they should not be filtered
+    private @Nullable
+    BiquadChain sampleFilter(@NonNull String peripheralIdentifier, @NonNull SampleFormat format) {
+        if (!kIsSampleFilterEnabled || format.getSampleRate() <= 0) {
+            return null;
+        }
 
-                        if (isValid) {
-                            addEntry(peripheralIdentifier, j, value, currentTimestamp);
-                            j++;
+        BiquadChain filter = mSampleFiltersForPeripheral.get(peripheralIdentifier);
+        if (filter == null || !format.equals(mSampleFilterFormatForPeripheral.get(peripheralIdentifier))) {
+            filter = BiquadChain.createEcgFilter(format.getChannelsCount(), format.getSampleRate(), kFilterHighPassCutoff, kFilterNotchFrequency, kFilterLowPassCutoff);
+            mSampleFiltersForPeripheral.put(peripheralIdentifier, filter);
+            mSampleFilterFormatForPeripheral.put(peripheralIdentifier, format);
+        }
+        return filter;
+    }
+
+    private @NonNull
+    QrsDetector qrsDetector(@NonNull String peripheralIdentifier, int sampleRate) {
+        QrsDetector detector = mQrsDetectorsForPeripheral.get(peripheralIdentifier);
+        if (detector == null || detector.getSampleRate() != sampleRate) {
+            detector = new QrsDetector(sampleRate);
+            mQrsDetectorsForPeripheral.put(peripheralIdentifier, detector);
+
+            // Beat times are relative to the detector, so hrv is tracked again from the start
+            HrvTracker hrvTracker = new HrvTracker();
+            mHrvTrackersForPeripheral.put(peripheralIdentifier, hrvTracker);
+            mMainHandler.post(() -> {
+                if (isAdded()) {
+                    hrvTracker.getMetrics(hrvTracker.getWindowsCount() - 1).observe(this, metrics -> {       // Longest window
+                        if (metrics != null) {
+                            mHrvMetricsForPeripheral.put(peripheralIdentifier, metrics);
+                            updateHeartRateUI();
                         }
-                    }
-                    mMainHandler.post(this::notifyDataSetChanged);
+                    });
                 }
-            } catch (UnsupportedEncodingException ignored) {
+            });
+        }
+        return detector;
+    }
+
+    private void updateHeartRate(@NonNull String peripheralIdentifier, double heartRate) {
+        mHeartRateForPeripheral.put(peripheralIdentifier, heartRate);
+        updateHeartRateUI();
+    }
+
+    private void updateHeartRateUI() {
+        if (mHeartRateTextView == null || !isAdded()) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Double> entry : mHeartRateForPeripheral.entrySet()) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(String.format(getString(R.string.plotter_heartrate_format), entry.getValue()));
+
+            final HrvMetrics metrics = mHrvMetricsForPeripheral.get(entry.getKey());
+            if (metrics != null && metrics.getBeatsCount() > 1) {
+                text.append("  ").append(String.format(getString(R.string.plotter_hrv_format), metrics.getRmssd(), metrics.getSdnn(), metrics.getPnn50()));
             }
         }
-        mUartDataManager.removeRxCacheFirst(lastSeparator, peripheralIdentifier);
+        mHeartRateTextView.setText(text);
+        mHeartRateTextView.setVisibility(text.length() > 0 ? View.VISIBLE : View.GONE);
     }
 }
@@ -0,0 +1,114 @@
+package com.dduunk.ecg.app;
+
+import android.support.annotation.NonNull;
+
+import com.dduunk.ecg.signal.MinMaxPyramid;
+import com.dduunk.ecg.signal.SampleRingBuffer;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineDataSet;
+
+import java.util.AbstractList;
+
+// LineDataSet backed by a fixed capacity SampleRingBuffer: only the latest points are kept, so memory and the cost of each frame don't grow with the session length.
+// The chart reads the points through a list view that reuses one Entry for each position of the buffer (created the first time it is used). Min and max are tracked by the buffer instead of being recalculated
+// The points are also added to a MinMaxPyramid, that keeps the history of the whole session (at lower resolutions for older points) to navigate it when autoscroll is disabled
+class RingLineDataSet extends LineDataSet {
+
+    // Data
+    private final SampleRingBuffer mBuffer;
+    private final MinMaxPyramid mHistory = new MinMaxPyramid();
+
+    RingLineDataSet(int capacity, String label) {
+        this(new SampleRingBuffer(capacity), label);
+    }
+
+    private RingLineDataSet(@NonNull SampleRingBuffer buffer, String label) {
+        super(new EntryList(buffer), label);
+        mBuffer = buffer;
+    }
+
+    public void add(float x, float y) {
+        mBuffer.add(x, y);
+        mHistory.add(x, y);
+    }
+
+    public @NonNull
+    SampleRingBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public @NonNull
+    MinMaxPyramid getHistory() {
+        return mHistory;
+    }
+
+    @Override
+    public boolean addEntry(Entry e) {
+        if (e == null) {
+            return false;
+        }
+        add(e.getX(), e.getY());
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        mBuffer.clear();
+        mHistory.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void calcMinMax() {
+        // Tracked by the buffer
+    }
+
+    @Override
+    public float getYMin() {
+        return mBuffer != null && mBuffer.size() > 0 ? mBuffer.getMinY() : Float.MAX_VALUE;
+    }
+
+    @Override
+    public float getYMax() {
+        return mBuffer != null && mBuffer.size() > 0 ? mBuffer.getMaxY() : -Float.MAX_VALUE;
+    }
+
+    @Override
+    public float getXMin() {
+        return mBuffer != null && mBuffer.size() > 0 ? mBuffer.getX(0) : Float.MAX_VALUE;
+    }
+
+    @Override
+    public float getXMax() {
+        return mBuffer != null && mBuffer.size() > 0 ? mBuffer.getX(mBuffer.size() - 1) : -Float.MAX_VALUE;
+    }
+
+    // Read only view of the buffer points as entries
+    private static class EntryList extends AbstractList<Entry> {
+        private final SampleRingBuffer mBuffer;
+        private final Entry[] mEntries;
+
+        EntryList(@NonNull SampleRingBuffer buffer) {
+            mBuffer = buffer;
+            mEntries = new Entry[buffer.capacity()];
+        }
+
+        @Override
+        public Entry get(int index) {
+            final int physicalIndex = mBuffer.physicalIndex(index);
+            Entry entry = mEntries[physicalIndex];
+            if (entry == null) {
+                entry = new Entry();
+                mEntries[physicalIndex] = entry;
+            }
+            entry.setX(mBuffer.getXAt(physicalIndex));
+            entry.setY(mBuffer.getYAt(physicalIndex));
+            return entry;
+        }
+
+        @Override
+        public int size() {
+            return mBuffer.size();
+        }
+    }
+}
@@ -19,7 +19,6 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SimpleItemAnimator;
 import android.text.Spannable;
-import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StyleSpan;
@@ -39,18 +38,19 @@ import android.widget.TextView;
 
 import com.dduunk.ecg.R;
 import com.dduunk.ecg.ble.BleUtils;
+import com.dduunk.ecg.ble.UartMetrics;
 import com.dduunk.ecg.ble.UartPacket;
 import com.dduunk.ecg.ble.UartPacketManagerBase;
+import com.dduunk.ecg.ble.UartPacketStore;
 import com.dduunk.ecg.ble.central.BlePeripheralUart;
 import com.dduunk.ecg.mqtt.MqttManager;
 import com.dduunk.ecg.mqtt.MqttSettings;
+import com.dduunk.ecg.utils.ConsoleBuffer;
 import com.dduunk.ecg.utils.KeyboardUtils;
+import com.dduunk.ecg.utils.LatencyTracer;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 // TODO: register
 public abstract class UartBaseFragment extends ConnectedPeripheralFragment implements UartPacketManagerBase.Listener, MqttManager.MqttManagerListener {
@@ -60,6 +60,7 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
 
     // Configuration
     public final static int kDefaultMaxPacketsToPaintAsText = 500;
+    private final static int kMaxTextLines = 5000;                  // Older lines are dropped from the text console
     private final static int kInfoColor = Color.parseColor("#F21625");
 
     // Constants
@@ -71,7 +72,8 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
     private final static String kPreferences_timestampDisplayMode = "timestampdisplaymode";
 
     // UI
-    private EditText mBufferTextView;
+    private RecyclerView mBufferTextRecyclerView;
+    private TextConsoleAdapter mBufferTextAdapter;
     private RecyclerView mBufferRecylerView;
     protected TimestampItemAdapter mBufferItemAdapter;
     private EditText mSendEditText;
@@ -106,12 +108,16 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
     private boolean mIsEolEnabled;
     private int mEolCharactersId;
 
-    private volatile SpannableStringBuilder mTextSpanBuffer = new SpannableStringBuilder();
+    private final ConsoleBuffer mTextBuffer = new ConsoleBuffer(kMaxTextLines);        // Only accessed from the main thread
+    private final StringBuilder mTextFormatBuilder = new StringBuilder();                  // Reused to format the packets added to mTextBuffer
+    private final char[] mTextFormatHexBuffer = new char[UartPacketRowCache.kHexBufferLength];
+    private final BleUtils.NewLineNormalizer mTextNewLineNormalizer = new BleUtils.NewLineNormalizer();        // Line breaks can be split between packets
+    private UartPacketRowCache mPacketRowCache;                                             // Formatted rows of the timestamp display mode
 
     protected MqttManager mMqttManager;
 
     private int maxPacketsToPaintAsText;
-    private int mPacketsCacheLastSize = 0;
+    private long mPacketsCacheLastSequence = 0;     // Cursor: sequence of the next packet to be painted
 
     public UartBaseFragment() {
         // Required empty public constructor
@@ -141,15 +147,32 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
 
             LinearLayoutManager layoutManager = new LinearLayoutManager(context);
             mBufferRecylerView.setLayoutManager(layoutManager);
+            if (mPacketRowCache == null) {
+                mPacketRowCache = new UartPacketRowCache(context, new UartPacketRowCache.Style() {
+                    @Override
+                    public int colorForPeripheral(@Nullable String peripheralId) {
+                        return UartBaseFragment.this.colorForPeripheral(peripheralId);
+                    }
+
+                    @Override
+                    public boolean isFontBoldForMode(int mode) {
+                        return UartBaseFragment.this.isFontBoldForMode(mode);
+                    }
+                });
+            }
 
             ((SimpleItemAnimator) mBufferRecylerView.getItemAnimator()).setSupportsChangeAnimations(false);         // Disable update animation
             mBufferItemAdapter = new TimestampItemAdapter(context);            // Adapter
             mBufferRecylerView.setAdapter(mBufferItemAdapter);
-        }
-        // Buffer
-        mBufferTextView = view.findViewById(R.id.bufferTextView);
-        if (mBufferTextView != null) {
-            mBufferTextView.setKeyListener(null);     // make it not editable
+
+            // Text console: only the visible lines are laid out
+            mBufferTextRecyclerView = view.findViewById(R.id.bufferTextRecyclerView);
+            LinearLayoutManager textLayoutManager = new LinearLayoutManager(context);
+            textLayoutManager.setStackFromEnd(true);
+            mBufferTextRecyclerView.setLayoutManager(textLayoutManager);
+            mBufferTextRecyclerView.setItemAnimator(null);
+            mBufferTextAdapter = new TextConsoleAdapter(mTextBuffer);
+            mBufferTextRecyclerView.setAdapter(mBufferTextAdapter);
         }
 
         // Send Text
@@ -257,6 +280,14 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
 
     @Override
     public void onDestroy() {
+        if (mPacketRowCache != null) {
+            mPacketRowCache.release();
+            mPacketRowCache = null;
+        }
+
+        if (mUartData != null) {
+            mUartData.release();
+        }
         mUartData = null;
 
         // Disconnect mqtt
@@ -477,66 +508,82 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
         }
     }
 
-    private void addTextToSpanBuffer(SpannableStringBuilder spanBuffer, String text, int color, boolean isBold) {
-        final int from = spanBuffer.length();
-        spanBuffer.append(text);
-        spanBuffer.setSpan(new ForegroundColorSpan(color), from, from + text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        if (isBold) {
-            spanBuffer.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), from, from + text.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-    }
-
     @MainThread
     private void updateBytesUI() {
         if (mUartData != null) {
-            mSentBytesTextView.setText(String.format(getString(R.string.uart_sentbytes_format), mUartData.getSentBytes()));
-            mReceivedBytesTextView.setText(String.format(getString(R.string.uart_receivedbytes_format), mUartData.getReceivedBytes()));
+            final UartMetrics metrics = mUartData.getTotalMetrics();
+            metrics.sample();
+            mSentBytesTextView.setText(String.format(getString(R.string.uart_sentbytes_format), metrics.getTxBytes(), metrics.getTxBytesPerSecond()));
+            mReceivedBytesTextView.setText(String.format(getString(R.string.uart_receivedbytes_format), metrics.getRxBytes(), metrics.getRxBytesPerSecond()));
         }
     }
 
     private void setDisplayFormatToTimestamp(boolean enabled) {
         mIsTimestampDisplayMode = enabled;
-        mBufferTextView.setVisibility(enabled ? View.GONE : View.VISIBLE);
+        mBufferTextRecyclerView.setVisibility(enabled ? View.GONE : View.VISIBLE);
         mBufferRecylerView.setVisibility(enabled ? View.VISIBLE : View.GONE);
     }
 
-    abstract protected int colorForPacket(UartPacket packet);
+    abstract protected int colorForPeripheral(@Nullable String peripheralId);
 
-    private boolean isFontBoldForPacket(UartPacket packet) {
-        return packet.getMode() == UartPacket.TRANSFERMODE_TX;
+    private boolean isFontBoldForMode(int mode) {
+        return mode == UartPacket.TRANSFERMODE_TX;
     }
 
     private void invalidateTextView() {
         if (!mIsTimestampDisplayMode) {
-            mPacketsCacheLastSize = 0;
-            mTextSpanBuffer.clear();
-            mBufferTextView.setText("");
+            mPacketsCacheLastSequence = 0;
+            mTextBuffer.clear();
+            mTextNewLineNormalizer.reset();
+            mBufferTextAdapter.update();
         }
     }
 
     private void reloadData() {
-        List<UartPacket> packetsCache = mUartData.getPacketsCache();
-        final int packetsCacheSize = packetsCache.size();
-        if (mPacketsCacheLastSize != packetsCacheSize) {        // Only if the buffer has changed
+        final UartPacketStore packetsStore = mUartData.getPacketsStore();
+        final long packetsCacheEndSequence = packetsStore.getTailSequence();
+        if (mPacketsCacheLastSequence != packetsCacheEndSequence) {        // Only if the buffer has changed
             if (mIsTimestampDisplayMode) {
-                mBufferItemAdapter.notifyDataSetChanged();
-                final int bufferSize = mBufferItemAdapter.getCachedDataBufferSize();
-                mBufferRecylerView.smoothScrollToPosition(Math.max(bufferSize - 1, 0));
+                // Format the new rows on the worker thread, and show them when done (so binding them is a cache hit)
+                mPacketRowCache.prefetch(packetsStore, mIsEchoEnabled, mShowDataInHexFormat, () -> {
+                    if (mBufferItemAdapter == null || !isAdded() || getView() == null) {        // The view could have been destroyed while formatting
+                        return;
+                    }
+                    mBufferItemAdapter.update();
+                    final int bufferSize = mBufferItemAdapter.getItemCount();
+                    mBufferRecylerView.smoothScrollToPosition(Math.max(bufferSize - 1, 0));
+                });
             } else {
-                if (packetsCacheSize > maxPacketsToPaintAsText) {
-                    mPacketsCacheLastSize = packetsCacheSize - maxPacketsToPaintAsText;
-                    mTextSpanBuffer.clear();
-                    addTextToSpanBuffer(mTextSpanBuffer, getString(R.string.uart_text_dataomitted) + "\n", kInfoColor, false);
+                final long packetsCacheStartSequence = Math.min(packetsStore.getHeadSequence(), packetsCacheEndSequence);
+                long fromSequence = Math.max(mPacketsCacheLastSequence, packetsCacheStartSequence);
+                if (packetsCacheEndSequence - fromSequence > maxPacketsToPaintAsText) {
+                    fromSequence = packetsCacheEndSequence - maxPacketsToPaintAsText;
+                    mTextBuffer.clear();
+                    mTextBuffer.append(getString(R.string.uart_text_dataomitted) + "\n", kInfoColor, false);
                 }
 
-                for (int i = mPacketsCacheLastSize; i < packetsCacheSize; i++) {
-                    final UartPacket packet = packetsCache.get(i);
-                    onUartPacketText(packet);
+                final UartPacketStore.Cursor cursor = packetsStore.new Cursor();        // Reads the packets in place, without creating a UartPacket for each one
+                for (long sequence = fromSequence; sequence < packetsCacheEndSequence; sequence++) {
+                    if (cursor.moveTo(sequence)) {       // false if recycled while painting
+                        onUartPacketText(cursor);
+                    }
+                }
+                final boolean isScrolledToEnd = !mBufferTextRecyclerView.canScrollVertically(1);
+                mBufferTextAdapter.update();
+                if (isScrolledToEnd) {          // Keep following the new text unless the user has scrolled back
+                    mBufferTextRecyclerView.scrollToPosition(Math.max(mTextBuffer.getLinesCount() - 1, 0));
+                }
+            }
+            mPacketsCacheLastSequence = packetsCacheEndSequence;
+
+            // Trace the latency of the newest packet displayed
+            final LatencyTracer latencyTracer = LatencyTracer.getInstance();
+            if (latencyTracer.isEnabled()) {
+                final UartPacketStore.Cursor cursor = packetsStore.new Cursor();
+                if (cursor.moveTo(packetsCacheEndSequence - 1) && cursor.getMode() == UartPacket.TRANSFERMODE_RX) {
+                    latencyTracer.record(LatencyTracer.STAGE_RENDER, cursor.getTimestamp());
                 }
-                mBufferTextView.setText(mTextSpanBuffer);
-                mBufferTextView.setSelection(0, mTextSpanBuffer.length());        // to automatically scroll to the end
             }
-            mPacketsCacheLastSize = packetsCacheSize;
         }
         updateBytesUI();
     }
@@ -598,29 +645,20 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
         }
     }
 
-    private void onUartPacketText(UartPacket packet) {
-        if (mIsEchoEnabled || packet.getMode() == UartPacket.TRANSFERMODE_RX) {
-            final int color = colorForPacket(packet);
-            final boolean isBold = isFontBoldForPacket(packet);
-            final byte[] bytes = packet.getData();
-            final String formattedData = mShowDataInHexFormat ? BleUtils.bytesToHex2(bytes) : BleUtils.bytesToText(bytes, true);
-            addTextToSpanBuffer(mTextSpanBuffer, formattedData, color, isBold);
+    private void onUartPacketText(@NonNull UartPacketStore.Cursor packet) {
+        final int mode = packet.getMode();
+        if (mIsEchoEnabled || mode == UartPacket.TRANSFERMODE_RX) {
+            final int color = colorForPeripheral(packet.getPeripheralId());
+            final boolean isBold = isFontBoldForMode(mode);
+            mTextFormatBuilder.setLength(0);
+            UartPacketRowCache.appendData(packet, mShowDataInHexFormat, mTextNewLineNormalizer, mTextFormatHexBuffer, mTextFormatBuilder);
+            mTextBuffer.append(mTextFormatBuilder.toString(), color, isBold);
         }
     }
 
-    private static SpannableString stringFromPacket(UartPacket packet, boolean useHexMode, int color, boolean isBold) {
-        final byte[] bytes = packet.getData();
-        final String formattedData = useHexMode ? BleUtils.bytesToHex2(bytes) : BleUtils.bytesToText(bytes, true);
-        final SpannableString formattedString = new SpannableString(formattedData);
-        formattedString.setSpan(new ForegroundColorSpan(color), 0, formattedString.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        if (isBold) {
-            formattedString.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, formattedString.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-        return formattedString;
-    }
-
+    @MainThread
     @Override
-    public void onUartPacket(UartPacket packet) {
+    public void onUartPackets(int count, long tailSequence) {
         updateBytesUI();
     }
 
@@ -636,6 +674,89 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
         updateMqttStatus();
     }
 
+    // Shows the lines of a ConsoleBuffer. Only the lines that are added, removed or modified since the last update are notified
+    static class TextConsoleAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        // ViewHolder
+        class LineViewHolder extends RecyclerView.ViewHolder {
+            TextView lineTextView;
+
+            LineViewHolder(View view) {
+                super(view);
+                lineTextView = view.findViewById(R.id.lineTextView);
+            }
+        }
+
+        // Data
+        private final ConsoleBuffer mBuffer;
+        private long mFirstLine;                // Lines notified: [mFirstLine, mEndLine)
+        private long mEndLine;
+        private long mEndSegment;
+
+        TextConsoleAdapter(@NonNull ConsoleBuffer buffer) {
+            super();
+            mBuffer = buffer;
+            mFirstLine = buffer.getFirstLineSequence();
+            mEndLine = buffer.getEndLineSequence();
+            mEndSegment = buffer.getEndSegmentSequence();
+        }
+
+        // Notifies the changes in the buffer since the last update
+        void update() {
+            final long firstLine = mBuffer.getFirstLineSequence();
+            final long endLine = mBuffer.getEndLineSequence();
+            final long endSegment = mBuffer.getEndSegmentSequence();
+
+            // Removed from the start
+            final int removedCount = (int) (Math.min(firstLine, mEndLine) - mFirstLine);
+            if (removedCount > 0) {
+                notifyItemRangeRemoved(0, removedCount);
+            }
+            // Text can also be added to the last line already notified
+            if (endSegment != mEndSegment && mEndLine > firstLine) {
+                notifyItemChanged((int) (mEndLine - 1 - firstLine));
+            }
+            // Added to the end
+            final long insertedFirst = Math.max(mEndLine, firstLine);
+            if (endLine > insertedFirst) {
+                notifyItemRangeInserted((int) (insertedFirst - firstLine), (int) (endLine - insertedFirst));
+            }
+
+            mFirstLine = firstLine;
+            mEndLine = endLine;
+            mEndSegment = endSegment;
+        }
+
+        @NonNull
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.layout_uart_textline, parent, false);
+            return new LineViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+            LineViewHolder lineViewHolder = (LineViewHolder) holder;
+
+            SpannableStringBuilder text = new SpannableStringBuilder();
+            final long endSegment = mBuffer.getLineEndSegment(position);
+            for (long segment = mBuffer.getLineFirstSegment(position); segment < endSegment; segment++) {
+                final String segmentText = mBuffer.getSegmentText(segment);
+                final int from = text.length();
+                text.append(segmentText);
+                text.setSpan(new ForegroundColorSpan(mBuffer.getSegmentColor(segment)), from, from + segmentText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                if (mBuffer.isSegmentBold(segment)) {
+                    text.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), from, from + segmentText.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+            }
+            lineViewHolder.lineTextView.setText(text);
+        }
+
+        @Override
+        public int getItemCount() {
+            return (int) (mEndLine - mFirstLine);
+        }
+    }
+
     class TimestampItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         // ViewHolder
         class ItemViewHolder extends RecyclerView.ViewHolder {
@@ -656,8 +777,7 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
         private boolean mIsEchoEnabled;
         private boolean mShowDataInHexFormat;
         private UartPacketManagerBase mUartData;
-        private List<UartPacket> mTableCachedDataBuffer;
-        private SimpleDateFormat mDateFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+        private long mStartPosition, mEndPosition;          // Items notified. Positions are sequences if echo is enabled, or rx index positions if not
 
         TimestampItemAdapter(@NonNull Context context) {
             super();
@@ -666,16 +786,12 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
 
         void setUartData(@Nullable UartPacketManagerBase uartData) {
             mUartData = uartData;
-            notifyDataSetChanged();
-        }
-
-        int getCachedDataBufferSize() {
-            return mTableCachedDataBuffer != null ? mTableCachedDataBuffer.size() : 0;
+            reset();
         }
 
         void setEchoEnabled(boolean isEchoEnabled) {
             mIsEchoEnabled = isEchoEnabled;
-            notifyDataSetChanged();
+            reset();
         }
 
         void setShowDataInHexFormat(boolean showDataInHexFormat) {
@@ -683,6 +799,50 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
             notifyDataSetChanged();
         }
 
+        // Notifies the packets removed and added since the last update
+        void update() {
+            final long startPosition = getStartPosition();
+            final long endPosition = getEndPosition();
+            if (startPosition < mStartPosition || endPosition < mEndPosition) {
+                reset();
+                return;
+            }
+
+            final int removedCount = (int) (Math.min(startPosition, mEndPosition) - mStartPosition);
+            if (removedCount > 0) {
+                notifyItemRangeRemoved(0, removedCount);
+            }
+            final long insertedFirst = Math.max(mEndPosition, startPosition);
+            if (endPosition > insertedFirst) {
+                notifyItemRangeInserted((int) (insertedFirst - startPosition), (int) (endPosition - insertedFirst));
+            }
+            mStartPosition = startPosition;
+            mEndPosition = endPosition;
+        }
+
+        private void reset() {
+            mStartPosition = getStartPosition();
+            mEndPosition = getEndPosition();
+            notifyDataSetChanged();
+        }
+
+        private long getStartPosition() {
+            if (mUartData == null) {
+                return 0;
+            }
+            final UartPacketStore packetsStore = mUartData.getPacketsStore();
+            // Only packets in memory: reading spilled packets here would hit the disk on every layout
+            return mIsEchoEnabled ? Math.min(packetsStore.getMemoryHeadSequence(), packetsStore.getTailSequence()) : packetsStore.getRxIndex().getMemoryStartPosition();
+        }
+
+        private long getEndPosition() {
+            if (mUartData == null) {
+                return 0;
+            }
+            final UartPacketStore packetsStore = mUartData.getPacketsStore();
+            return mIsEchoEnabled ? packetsStore.getTailSequence() : packetsStore.getRxIndex().getEndPosition();
+        }
+
         @NonNull
         @Override
         public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -694,44 +854,27 @@ public abstract class UartBaseFragment extends ConnectedPeripheralFragment imple
         public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
             ItemViewHolder itemViewHolder = (ItemViewHolder) holder;
 
-            UartPacket packet = mTableCachedDataBuffer.get(position);
-            final String currentDateTimeString = mDateFormat.format(new Date(packet.getTimestamp()));//DateFormat.getTimeInstance().format(new Date(packet.getTimestamp()));
-            final String modeString = mContext.getString(packet.getMode() == UartPacket.TRANSFERMODE_RX ? R.string.uart_timestamp_direction_rx : R.string.uart_timestamp_direction_tx);
-            final int color = colorForPacket(packet);
-            final boolean isBold = isFontBoldForPacket(packet);
-
-            itemViewHolder.timestampTextView.setText(String.format("%s %s", currentDateTimeString, modeString));
-
-            SpannableString text = stringFromPacket(packet, mShowDataInHexFormat, color, isBold);
-            itemViewHolder.dataTextView.setText(text);
+            UartPacketRowCache.Row row = null;
+            if (mUartData != null && mPacketRowCache != null) {
+                final UartPacketStore packetsStore = mUartData.getPacketsStore();
+                final long itemPosition = mStartPosition + position;
+                final long sequence = mIsEchoEnabled ? itemPosition : packetsStore.getRxIndex().getSequence(itemPosition);
+                row = sequence >= 0 ? mPacketRowCache.get(packetsStore, sequence, mIsEchoEnabled, mShowDataInHexFormat) : null;      // Usually formatted in advance by reloadData
+            }
+            if (row == null) {       // Recycled by the packets store since the last update
+                itemViewHolder.timestampTextView.setText(null);
+                itemViewHolder.dataTextView.setText(null);
+                return;
+            }
+            itemViewHolder.timestampTextView.setText(row.timestamp);
+            itemViewHolder.dataTextView.setText(row.data);
 
-            itemViewHolder.mainViewGroup.setBackgroundColor(position % 2 == 0 ? Color.WHITE : 0xeeeeee);
+            itemViewHolder.mainViewGroup.setBackgroundColor((mStartPosition + position) % 2 == 0 ? Color.WHITE : 0xeeeeee);       // Stable when the oldest items are removed
         }
 
         @Override
         public int getItemCount() {
-            if (mUartData == null) {
-                return 0;
-            }
-
-            if (mIsEchoEnabled) {
-                mTableCachedDataBuffer = mUartData.getPacketsCache();
-            } else {
-                if (mTableCachedDataBuffer == null) {
-                    mTableCachedDataBuffer = new ArrayList<>();
-                } else {
-                    mTableCachedDataBuffer.clear();
-                }
-
-                List<UartPacket> packets = mUartData.getPacketsCache();
-                for (int i = 0; i < packets.size(); i++) {
-                    UartPacket packet = packets.get(i);
-                    if (packet != null && packet.getMode() == UartPacket.TRANSFERMODE_RX) {     // packet != null because crash found in google logs
-                        mTableCachedDataBuffer.add(packet);
-                    }
-                }
-            }
-            return mTableCachedDataBuffer.size();
+            return (int) (mEndPosition - mStartPosition);
         }
     }
 }
\ No newline at end of file
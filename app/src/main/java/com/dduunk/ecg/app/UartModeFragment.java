@@ -18,7 +18,7 @@ import android.widget.SpinnerAdapter;
 import android.widget.TextView;
 
 import com.dduunk.ecg.R;
-import com.dduunk.ecg.ble.UartPacket;
+import com.dduunk.ecg.ble.UartPacketManagerBase;
 import com.dduunk.ecg.ble.central.BlePeripheral;
 import com.dduunk.ecg.ble.central.BlePeripheralUart;
 import com.dduunk.ecg.ble.central.BleScanner;
@@ -29,9 +29,9 @@ import com.dduunk.ecg.utils.DialogUtils;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UartModeFragment extends UartBaseFragment {
 
@@ -39,7 +39,7 @@ public class UartModeFragment extends UartBaseFragment {
     private final static String TAG = UartModeFragment.class.getSimpleName();
 
     // Data
-    private Map<String, Integer> mColorForPeripheral = new HashMap<>();
+    private Map<String, Integer> mColorForPeripheral = new ConcurrentHashMap<>();        // Also read by the uart rows formatter thread
     private String mMultiUartSendToPeripheralIdentifier = null;     // null = all peripherals
 
     public static UartModeFragment newInstance(@Nullable String singlePeripheralIdentifier) {
@@ -185,7 +185,10 @@ public class UartModeFragment extends UartBaseFragment {
         if (context == null) {
             return;
         }
-        mUartData = new UartPacketManager(context, this, true, mMqttManager);           // Note: mqttmanager should have been initialized previously
+        if (mUartData != null) {
+            mUartData.release();
+        }
+        mUartData = new UartPacketManager(context, this, true, mMqttManager, UartPacketManagerBase.kPacketsCacheDefaultMaxBytes, true);           // Note: mqttmanager should have been initialized previously. Spill to disk packets that don't fit in memory for long sessions
         mBufferItemAdapter.setUartData(mUartData);
 
         // Colors assigned to peripherals
@@ -295,9 +298,8 @@ public class UartModeFragment extends UartBaseFragment {
     }
 
     @Override
-    protected int colorForPacket(UartPacket packet) {
+    protected int colorForPeripheral(@Nullable String peripheralId) {
         int color = Color.BLACK;
-        final String peripheralId = packet.getPeripheralId();
         if (peripheralId != null) {
             Integer peripheralColor = mColorForPeripheral.get(peripheralId);
             if (peripheralColor != null) {
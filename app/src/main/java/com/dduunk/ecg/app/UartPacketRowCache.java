@@ -0,0 +1,178 @@
+package com.dduunk.ecg.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.util.LruCache;
+
+import com.dduunk.ecg.R;
+import com.dduunk.ecg.ble.BleUtils;
+import com.dduunk.ecg.ble.UartPacket;
+import com.dduunk.ecg.ble.UartPacketStore;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Formatted rows of the uart timestamp console (the timestamp and data texts of a packet), cached by packet sequence and display mode.
+// Rows are formatted on a worker thread as packets arrive (prefetch), so binding a row is usually a cache hit. Rows that are not in the cache are formatted on the calling thread.
+// Only packets in memory are formatted: reading spilled packets would hit the disk on the main thread
+class UartPacketRowCache {
+
+    // Config
+    private final static int kMaxRows = 2048;                    // Rows kept in the cache
+    private final static int kMaxPrefetchedRows = kMaxRows / 2;  // Only the latest rows are formatted in advance
+    final static int kHexBufferLength = 3 * 256;                 // Chars of the buffers used to format hex data (3 for each byte)
+
+    // Listener
+    interface Style {                   // Called also from the worker thread
+        int colorForPeripheral(@Nullable String peripheralId);
+
+        boolean isFontBoldForMode(int mode);
+    }
+
+    static class Row {
+        final String timestamp;
+        final CharSequence data;
+
+        Row(@NonNull String timestamp, @NonNull CharSequence data) {
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+    }
+
+    // Data
+    private final LruCache<Long, Row> mCache = new LruCache<>(kMaxRows);
+    private final Style mStyle;
+    private final String mRxString;
+    private final String mTxString;
+    private final RowFormatter mFormatter = new RowFormatter();          // Only used from the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
+
+    // Worker thread only
+    private final RowFormatter mWorkerFormatter = new RowFormatter();
+    private int mPrefetchMode = -1;
+    private long mPrefetchEndPosition = 0;
+
+    UartPacketRowCache(@NonNull Context context, @NonNull Style style) {
+        mStyle = style;
+        mRxString = context.getString(R.string.uart_timestamp_direction_rx);
+        mTxString = context.getString(R.string.uart_timestamp_direction_tx);
+
+        mWorkerThread = new HandlerThread("UartRowFormatter");
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+    }
+
+    @MainThread
+    void release() {
+        if (mWorkerThread != null) {
+            mWorkerThread.quitSafely();
+            mWorkerThread = null;
+            mWorkerHandler = null;
+        }
+        mCache.evictAll();
+    }
+
+    // Formats on the worker thread the rows added since the last prefetch, and then runs completion on the main thread. Positions are sequences if echo is enabled, or rx index positions if not
+    @MainThread
+    void prefetch(@NonNull UartPacketStore store, boolean isEchoEnabled, boolean isHexMode, @NonNull Runnable completion) {
+        if (mWorkerHandler == null) {
+            return;
+        }
+        mWorkerHandler.post(() -> {
+            final int mode = mode(isEchoEnabled, isHexMode);
+            if (mode != mPrefetchMode) {
+                mPrefetchMode = mode;
+                mPrefetchEndPosition = 0;
+            }
+
+            final UartPacketStore.Index rxIndex = store.getRxIndex();
+            final long startPosition = isEchoEnabled ? store.getMemoryHeadSequence() : rxIndex.getMemoryStartPosition();
+            final long endPosition = isEchoEnabled ? store.getTailSequence() : rxIndex.getEndPosition();
+            final UartPacketStore.Cursor cursor = store.new Cursor();
+            for (long position = Math.max(mPrefetchEndPosition, Math.max(startPosition, endPosition - kMaxPrefetchedRows)); position < endPosition; position++) {
+                final long sequence = isEchoEnabled ? position : rxIndex.getSequence(position);
+                if (sequence >= 0) {
+                    final long key = key(sequence, mode);
+                    if (mCache.get(key) == null && cursor.moveToMemory(sequence)) {
+                        mCache.put(key, mWorkerFormatter.format(cursor, isHexMode));
+                    }
+                }
+            }
+            mPrefetchEndPosition = endPosition;
+            mMainHandler.post(completion);
+        });
+    }
+
+    // Returns null if the packet is no longer in memory
+    @MainThread
+    @Nullable
+    Row get(@NonNull UartPacketStore store, long sequence, boolean isEchoEnabled, boolean isHexMode) {
+        final long key = key(sequence, mode(isEchoEnabled, isHexMode));
+        Row row = mCache.get(key);
+        if (row == null) {
+            final UartPacketStore.Cursor cursor = store.new Cursor();
+            if (cursor.moveToMemory(sequence)) {
+                row = mFormatter.format(cursor, isHexMode);
+                mCache.put(key, row);
+            }
+        }
+        return row;
+    }
+
+    // Appends the packet data as hex or as text. Shared with the text console, which keeps normalizer between packets (line breaks can be split between them). hexBuffer: reused by the caller, kHexBufferLength chars
+    static void appendData(@NonNull UartPacketStore.Cursor packet, boolean isHexMode, @NonNull BleUtils.NewLineNormalizer normalizer, @NonNull char[] hexBuffer, @NonNull StringBuilder builder) {
+        if (isHexMode) {
+            BleUtils.appendHex2(packet.getDataArray(), packet.getDataOffset(), packet.getDataLength(), hexBuffer, builder);
+        } else {
+            BleUtils.appendText(packet.getDataArray(), packet.getDataOffset(), packet.getDataLength(), normalizer, builder);
+        }
+    }
+
+    private static int mode(boolean isEchoEnabled, boolean isHexMode) {
+        return (isEchoEnabled ? 2 : 0) | (isHexMode ? 1 : 0);
+    }
+
+    private static long key(long sequence, int mode) {
+        return (sequence << 2) | mode;
+    }
+
+    // Not thread safe: one for each thread
+    private class RowFormatter {
+        private final SimpleDateFormat mDateFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+        private final Date mDate = new Date();
+        private final StringBuilder mDataBuilder = new StringBuilder();
+        private final char[] mHexBuffer = new char[kHexBufferLength];
+        private final BleUtils.NewLineNormalizer mNewLineNormalizer = new BleUtils.NewLineNormalizer();
+
+        @NonNull
+        Row format(@NonNull UartPacketStore.Cursor packet, boolean isHexMode) {
+            final int mode = packet.getMode();
+            final long timestampMillis = System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - packet.getTimestamp()) / 1000000;        // Packet timestamps are elapsedRealtimeNanos
+            mDate.setTime(timestampMillis);
+            final String timestamp = mDateFormat.format(mDate) + " " + (mode == UartPacket.TRANSFERMODE_RX ? mRxString : mTxString);
+
+            mDataBuilder.setLength(0);
+            mNewLineNormalizer.reset();         // Each row is formatted on its own
+            appendData(packet, isHexMode, mNewLineNormalizer, mHexBuffer, mDataBuilder);
+            SpannableString data = new SpannableString(mDataBuilder);
+            data.setSpan(new ForegroundColorSpan(mStyle.colorForPeripheral(packet.getPeripheralId())), 0, data.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            if (mStyle.isFontBoldForMode(mode)) {
+                data.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, data.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            return new Row(timestamp, data);
+        }
+    }
+}
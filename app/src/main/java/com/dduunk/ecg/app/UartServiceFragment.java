@@ -4,6 +4,7 @@ import android.bluetooth.BluetoothGatt;
 import android.content.Context;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -13,7 +14,6 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.dduunk.ecg.R;
-import com.dduunk.ecg.ble.UartPacket;
 import com.dduunk.ecg.ble.peripheral.UartPeripheralModePacketManager;
 import com.dduunk.ecg.ble.peripheral.UartPeripheralService;
 import com.dduunk.ecg.models.PeripheralModeManager;
@@ -70,10 +70,13 @@ public class UartServiceFragment extends UartBaseFragment {
             return;
         }
 
+        if (mUartData != null) {
+            mUartData.release();
+        }
         mUartData = new UartPeripheralModePacketManager(context, this, true, mMqttManager);
         mBufferItemAdapter.setUartData(mUartData);
         mUartPeripheralService = PeripheralModeManager.getInstance().getUartPeripheralService();
-        mUartPeripheralService.uartEnable(data -> mUartData.onRxDataReceived(data, null, BluetoothGatt.GATT_SUCCESS));
+        mUartPeripheralService.uartEnable(data -> mUartData.onRxDataReceived(data, data.length, null, BluetoothGatt.GATT_SUCCESS, SystemClock.elapsedRealtimeNanos()));
 
         updateUartReadyUI(mUartPeripheralService != null);
     }
@@ -94,7 +97,7 @@ public class UartServiceFragment extends UartBaseFragment {
     }
 
     @Override
-    protected int colorForPacket(UartPacket packet) {
+    protected int colorForPeripheral(@Nullable String peripheralId) {
         return Color.BLACK;
     }
 
@@ -0,0 +1,174 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Parses a line of numeric values separated by ',' ';' ' ' or '\t' (i.e. "1.5,-2;3e-2") directly from the bytes received, without creating Strings.
+// Accepts the decimal formats accepted by Float.parseFloat (sign, exponent, NaN, Infinity, f/d suffix). Tokens that are not numbers are skipped, as if they were not there.
+// Values with up to 7 significant digits and small exponents (the usual ones) are computed with a single float operation, that is exact. Other values fall back to Float.parseFloat, so the results are always the same as Float.parseFloat.
+// The values are stored in a reusable buffer. Not thread safe
+public class AsciiValuesParser {
+
+    // Config
+    private final static int kInitialCapacity = 16;
+    private final static int kMaxMantissaDigits = 18;          // Digits that fit in a long without overflow
+
+    // Constants
+    private final static float[] kPowersOfTen = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};      // Exactly representable as floats
+    private final static long kMaxExactMantissa = 1 << 24;          // Integers up to 2^24 are exactly representable as floats
+    private final static Charset kAsciiCharset = Charset.forName("US-ASCII");
+    private final static byte[] kNaN = {'N', 'a', 'N'};
+    private final static byte[] kInfinity = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    // Data
+    private float[] mValues = new float[kInitialCapacity];
+    private float mParsedValue;           // Result of the last parseFloat
+
+    // Returns the number of values parsed. Get them with getValues()
+    public int parse(@NonNull byte[] data, int offset, int length) {
+        final int end = offset + length;
+        int count = 0;
+        int tokenStart = offset;
+        for (int i = offset; i <= end; i++) {
+            if (i == end || isSeparator(data[i])) {
+                if (i > tokenStart && parseFloat(data, tokenStart, i)) {
+                    if (count == mValues.length) {
+                        mValues = Arrays.copyOf(mValues, count * 2);
+                    }
+                    mValues[count++] = mParsedValue;
+                }
+                tokenStart = i + 1;
+            }
+        }
+        return count;
+    }
+
+    // Values parsed by the last call to parse. The array is reused
+    public @NonNull
+    float[] getValues() {
+        return mValues;
+    }
+
+    private static boolean isSeparator(byte value) {
+        return value == ',' || value == ';' || value == ' ' || value == '\t';
+    }
+
+    // Parses data[start, end) into mParsedValue. Returns false if it is not a valid number
+    private boolean parseFloat(@NonNull byte[] data, int start, int end) {
+        // Trim control characters (as Float.parseFloat does)
+        while (start < end && (data[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (data[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return false;
+        }
+
+        int i = start;
+        boolean isNegative = false;
+        if (data[i] == '-' || data[i] == '+') {
+            isNegative = data[i] == '-';
+            i++;
+        }
+
+        if (matches(data, i, end, kNaN)) {
+            mParsedValue = Float.NaN;
+            return true;
+        }
+        if (matches(data, i, end, kInfinity)) {
+            mParsedValue = isNegative ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+            return true;
+        }
+
+        // Mantissa
+        long mantissa = 0;
+        int mantissaDigits = 0;
+        int decimalExponent = 0;
+        int digits = 0;
+        boolean isDecimalPointFound = false;
+        for (; i < end; i++) {
+            final byte c = data[i];
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (mantissaDigits < kMaxMantissaDigits) {
+                    if (mantissa != 0 || c != '0') {
+                        mantissaDigits++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (isDecimalPointFound) {
+                        decimalExponent--;
+                    }
+                } else if (!isDecimalPointFound) {
+                    decimalExponent++;          // Digits that don't fit are dropped
+                }
+            } else if (c == '.' && !isDecimalPointFound) {
+                isDecimalPointFound = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        // Exponent
+        if (i < end && (data[i] == 'e' || data[i] == 'E')) {
+            i++;
+            boolean isExponentNegative = false;
+            if (i < end && (data[i] == '-' || data[i] == '+')) {
+                isExponentNegative = data[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentDigits = 0;
+            for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + (data[i] - '0');
+                }
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+            decimalExponent += isExponentNegative ? -exponent : exponent;
+        }
+
+        // Type suffix
+        if (i < end && (data[i] == 'f' || data[i] == 'F' || data[i] == 'd' || data[i] == 'D')) {
+            i++;
+        }
+        if (i != end) {
+            return false;
+        }
+
+        if (mantissa <= kMaxExactMantissa && decimalExponent >= -(kPowersOfTen.length - 1) && decimalExponent < kPowersOfTen.length) {
+            // Both operands are exact floats, so the result is correctly rounded (as Float.parseFloat does)
+            final float value = decimalExponent < 0 ? mantissa / kPowersOfTen[-decimalExponent] : mantissa * kPowersOfTen[decimalExponent];
+            mParsedValue = isNegative ? -value : value;
+        } else {
+            // Would need more than one rounding: let Float.parseFloat round it (only creates a String for these values)
+            try {
+                mParsedValue = Float.parseFloat(new String(data, start, end - start, kAsciiCharset));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(@NonNull byte[] data, int start, int end, @NonNull byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
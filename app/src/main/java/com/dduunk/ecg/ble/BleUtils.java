@@ -48,6 +48,19 @@ public class BleUtils {
     }
 
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
+    private final static char[] kHexPairs = new char[256 * 2];                 // Uppercase hex digits of each byte value
+    private final static char[] kLowercaseHexPairs = new char[256 * 2];
+    private final static Charset kUtf8Charset = Charset.forName("UTF-8");
+
+    static {
+        final char[] lowercaseHexArray = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            kHexPairs[i * 2] = hexArray[i >>> 4];
+            kHexPairs[i * 2 + 1] = hexArray[i & 0x0F];
+            kLowercaseHexPairs[i * 2] = lowercaseHexArray[i >>> 4];
+            kLowercaseHexPairs[i * 2 + 1] = lowercaseHexArray[i & 0x0F];
+        }
+    }
 
     public static String bytesToHex(byte[] bytes) {
         if (bytes != null) {
@@ -64,38 +77,106 @@ public class BleUtils {
     // TODO: merge all these byteToXXX functions and remove unused ones
 
     public static String bytesToHex2(byte[] bytes) {
-        StringBuilder stringBuffer = new StringBuilder();
-        for (byte aByte : bytes) {
-            String charString = String.format("%02X", (byte) aByte);
-            stringBuffer.append(charString).append(" ");
+        return bytesToHex2(bytes, 0, bytes.length);
+    }
+
+    public static String bytesToHex2(byte[] bytes, int offset, int length) {
+        final char[] chars = new char[length * 3];
+        bytesToHex2(bytes, offset, length, chars, 0);
+        return new String(chars);
+    }
+
+    // Writes each byte as "XX " into out, from outOffset (3 chars for each byte). Returns the number of chars written
+    public static int bytesToHex2(@NonNull byte[] bytes, int offset, int length, @NonNull char[] out, int outOffset) {
+        int j = outOffset;
+        for (int i = offset; i < offset + length; i++) {
+            final int pair = (bytes[i] & 0xFF) << 1;
+            out[j++] = kHexPairs[pair];
+            out[j++] = kHexPairs[pair + 1];
+            out[j++] = ' ';
+        }
+        return j - outOffset;
+    }
+
+    // Appends each byte as "XX " to out. The chars are written to buffer (reused by the caller, at least 3 chars long) and appended to out in blocks, instead of appending them one by one
+    public static void appendHex2(@NonNull byte[] bytes, int offset, int length, @NonNull char[] buffer, @NonNull StringBuilder out) {
+        out.ensureCapacity(out.length() + length * 3);
+        final int blockLength = buffer.length / 3;
+        for (int i = offset; i < offset + length; i += blockLength) {
+            final int charsCount = bytesToHex2(bytes, i, Math.min(blockLength, offset + length - i), buffer, 0);
+            out.append(buffer, 0, charsCount);
         }
-        return stringBuffer.toString();
     }
 
     public static @NonNull String bytesToText(byte[] bytes, boolean simplifyNewLine) {
-        String text = new String(bytes, Charset.forName("UTF-8"));
-        if (simplifyNewLine) {
-            text = text.replaceAll("(\\r\\n|\\r)", "\n");
+        return bytesToText(bytes, 0, bytes.length, simplifyNewLine);
+    }
+
+    public static @NonNull String bytesToText(byte[] bytes, int offset, int length, boolean simplifyNewLine) {
+        StringBuilder text = new StringBuilder(length);
+        appendText(bytes, offset, length, simplifyNewLine ? new NewLineNormalizer() : null, text);
+        return text.toString();
+    }
+
+    // Appends the bytes decoded as utf-8 to out. If newLineNormalizer is not null, line breaks (\r\n or \r) are replaced by \n
+    public static void appendText(@NonNull byte[] bytes, int offset, int length, @Nullable NewLineNormalizer newLineNormalizer, @NonNull StringBuilder out) {
+        out.ensureCapacity(out.length() + length);
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final byte b = bytes[i];
+            if (b < 0) {
+                // Not ascii: decode the rest as utf-8
+                final String text = new String(bytes, i, end - i, kUtf8Charset);
+                for (int j = 0; j < text.length(); j++) {
+                    appendChar(text.charAt(j), newLineNormalizer, out);
+                }
+                return;
+            }
+            appendChar((char) b, newLineNormalizer, out);
         }
-        return text;
     }
 
-    public static String bytesToHexWithSpaces(byte[] bytes) {
-        StringBuilder newString = new StringBuilder();
-        for (byte aByte : bytes) {
-            String byteHex = String.format("%02X", (byte) aByte);
-            newString.append(byteHex).append(" ");
+    private static void appendChar(char c, @Nullable NewLineNormalizer newLineNormalizer, @NonNull StringBuilder out) {
+        if (newLineNormalizer == null) {
+            out.append(c);
+        } else if (newLineNormalizer.normalize(c)) {
+            out.append(c == '\r' ? '\n' : c);
+        }
+    }
+
+    // Replaces \r\n and \r by \n in text received in parts: keeps whether the last char processed was a \r, so a \r\n split between two parts is replaced by a single \n
+    public static class NewLineNormalizer {
+        private boolean mIsLastCharCarriageReturn = false;
 
+        // Returns false if c has to be skipped. A \r has to be replaced by \n
+        boolean normalize(char c) {
+            final boolean isSkipped = c == '\n' && mIsLastCharCarriageReturn;
+            mIsLastCharCarriageReturn = c == '\r';
+            return !isSkipped;
+        }
+
+        public void reset() {
+            mIsLastCharCarriageReturn = false;
+        }
+    }
+
+    public static String bytesToHexWithSpaces(byte[] bytes) {
+        if (bytes.length == 0) {
+            return "";
         }
-        return newString.toString().trim();
+        final char[] chars = new char[bytes.length * 3];
+        bytesToHex2(bytes, 0, bytes.length, chars, 0);
+        return new String(chars, 0, chars.length - 1);          // Without the last space
     }
 
     public static String getUuidStringFromByteArray(byte[] bytes) {
-        StringBuilder buffer = new StringBuilder();
-        for (byte aByte : bytes) {
-            buffer.append(String.format("%02x", aByte));
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int pair = (bytes[i] & 0xFF) << 1;
+            chars[i * 2] = kLowercaseHexPairs[pair];
+            chars[i * 2 + 1] = kLowercaseHexPairs[pair + 1];
         }
-        return buffer.toString();
+        return new String(chars);
     }
 
     public static String uuidToString(UUID uuid) {
@@ -0,0 +1,145 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+
+// Growable circular byte buffer. Append and consume are O(1) (amortized for append), so data can be accumulated and parsed incrementally without copying the whole backlog on every notification.
+// Not thread safe: the owner is responsible for synchronization
+public class ByteRingBuffer {
+
+    // Config
+    private final static int kDefaultCapacity = 256;
+
+    // Data
+    private byte[] mBuffer;
+    private int mMask;
+    private int mHead = 0;          // Index of the first byte
+    private int mSize = 0;
+
+    public ByteRingBuffer() {
+        this(kDefaultCapacity);
+    }
+
+    public ByteRingBuffer(int initialCapacity) {
+        allocate(powerOfTwoCapacity(Math.max(1, initialCapacity)));
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    public void append(@NonNull byte[] data) {
+        append(data, 0, data.length);
+    }
+
+    public void append(@NonNull byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + " length: " + length + " data length: " + data.length);
+        }
+        ensureCapacity(mSize + length);
+
+        final int tail = (mHead + mSize) & mMask;
+        final int firstChunkLength = Math.min(length, mBuffer.length - tail);
+        System.arraycopy(data, offset, mBuffer, tail, firstChunkLength);
+        if (firstChunkLength < length) {
+            System.arraycopy(data, offset + firstChunkLength, mBuffer, 0, length - firstChunkLength);
+        }
+        mSize += length;
+    }
+
+    public byte get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        return mBuffer[(mHead + index) & mMask];
+    }
+
+    // Returns the index of the first occurrence of value at or after fromIndex, or -1
+    public int indexOf(byte value, int fromIndex) {
+        for (int i = Math.max(0, fromIndex); i < mSize; i++) {
+            if (mBuffer[(mHead + i) & mMask] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the index of the last occurrence of value, or -1
+    public int lastIndexOf(byte value) {
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (mBuffer[(mHead + i) & mMask] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Copies length bytes starting at index into destination without consuming them
+    public void peek(int index, @NonNull byte[] destination, int destinationOffset, int length) {
+        if (index < 0 || length < 0 || index + length > mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + " length: " + length + " size: " + mSize);
+        }
+        final int start = (mHead + index) & mMask;
+        final int firstChunkLength = Math.min(length, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, destination, destinationOffset, firstChunkLength);
+        if (firstChunkLength < length) {
+            System.arraycopy(mBuffer, 0, destination, destinationOffset + firstChunkLength, length - firstChunkLength);
+        }
+    }
+
+    // Removes the first n bytes (or all of them if n >= size)
+    public void consume(int n) {
+        if (n >= mSize) {
+            clear();
+        } else if (n > 0) {
+            mHead = (mHead + n) & mMask;
+            mSize -= n;
+        }
+    }
+
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    public @NonNull
+    byte[] toByteArray() {
+        byte[] result = new byte[mSize];
+        peek(0, result, 0, mSize);
+        return result;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > mBuffer.length) {
+            final byte[] previousBuffer = mBuffer;
+            final int previousHead = mHead;
+            allocate(powerOfTwoCapacity(minCapacity));
+
+            // Linearize contents into the new buffer
+            final int firstChunkLength = Math.min(mSize, previousBuffer.length - previousHead);
+            System.arraycopy(previousBuffer, previousHead, mBuffer, 0, firstChunkLength);
+            System.arraycopy(previousBuffer, 0, mBuffer, firstChunkLength, mSize - firstChunkLength);
+            mHead = 0;
+        }
+    }
+
+    private void allocate(int capacity) {
+        mBuffer = new byte[capacity];
+        mMask = capacity - 1;
+    }
+
+    private static int powerOfTwoCapacity(int capacity) {
+        int powerOfTwoCapacity = 1;
+        while (powerOfTwoCapacity < capacity) {
+            powerOfTwoCapacity <<= 1;
+        }
+        return powerOfTwoCapacity;
+    }
+}
@@ -0,0 +1,255 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+
+// Decodes the packed binary sample stream of a peripheral (accumulated by UartDataManager) into blocks of samples per channel.
+// The stream is a sequence of COBS encoded frames (so it can be resynchronized after any 0 byte). Each frame starts with a type byte:
+// - Format frame:  'F' + SampleFormat descriptor. Sent by the peripheral to announce its sample format (i.e. when the stream starts and periodically)
+// - Samples frame: 'S' + sequence (uint16, little endian) + sample sets (the samples of all channels for each instant, interleaved)
+// The format can also be configured if the peripheral doesn't send it. Samples frames received without a format are discarded.
+// Use one decoder per peripheral. Not thread safe
+public class PackedSampleDecoder {
+
+    // Log
+    private final static String TAG = PackedSampleDecoder.class.getSimpleName();
+
+    // Constants
+    public final static byte kFrameTypeFormat = 'F';
+    public final static byte kFrameTypeSamples = 'S';
+    public final static int kSamplesFrameHeaderLength = 1 + 2;       // type, sequence
+    private final static int kMaxFrameLength = 512;
+    private final static int kSequenceModulo = 0x10000;
+
+    // Listener
+    public interface Listener {
+        void onSampleBlock(@NonNull SampleBlock block);           // block is reused after the call returns
+    }
+
+    // Samples of one frame
+    public static class SampleBlock {
+        private SampleFormat mFormat;
+        private int mSequence;
+        private int mSamplesCount;
+        private int mLostFramesCount;
+        private int[][] mSamples = new int[0][0];
+
+        public @NonNull
+        SampleFormat getFormat() {
+            return mFormat;
+        }
+
+        public int getSequence() {
+            return mSequence;
+        }
+
+        // Samples per channel
+        public int getSamplesCount() {
+            return mSamplesCount;
+        }
+
+        public int getChannelsCount() {
+            return mFormat.getChannelsCount();
+        }
+
+        // Frames lost between the previous block and this one
+        public int getLostFramesCount() {
+            return mLostFramesCount;
+        }
+
+        // Raw samples of the channel. Only the first getSamplesCount() are valid. The array is reused
+        public @NonNull
+        int[] getSamples(int channel) {
+            return mSamples[channel];
+        }
+
+        // Sample multiplied by the format scale
+        public float getValue(int channel, int index) {
+            return mSamples[channel][index] * mFormat.getScale();
+        }
+
+        private void ensureCapacity(int channelsCount, int samplesCount) {
+            if (mSamples.length < channelsCount) {
+                mSamples = Arrays.copyOf(mSamples, channelsCount);
+                for (int i = 0; i < channelsCount; i++) {
+                    if (mSamples[i] == null) {
+                        mSamples[i] = new int[0];
+                    }
+                }
+            }
+            for (int i = 0; i < channelsCount; i++) {
+                if (mSamples[i].length < samplesCount) {
+                    mSamples[i] = new int[samplesCount];
+                }
+            }
+        }
+    }
+
+    // Data
+    private final UartFramer mFramer = new UartFramer.CobsFramer(kMaxFrameLength);
+    private final SampleBlock mBlock = new SampleBlock();
+    private SampleFormat mFormat;
+    private int mExpectedSequence = -1;
+    private Listener mListener;            // Only valid while process is running
+
+    private long mBlocksCount = 0;
+    private long mLostFramesCount = 0;
+    private long mDuplicatedFramesCount = 0;
+    private long mInvalidFramesCount = 0;
+
+    // format: null to wait until the peripheral sends it
+    public PackedSampleDecoder(@Nullable SampleFormat format) {
+        mFormat = format;
+    }
+
+    // Decodes the complete frames in buffer (they are consumed). Returns the number of sample blocks sent to the listener
+    public int process(@NonNull ByteRingBuffer buffer, @NonNull Listener listener) {
+        final long previousBlocksCount = mBlocksCount;
+        mListener = listener;
+        mFramer.process(buffer, this::onFrame);
+        mListener = null;
+        return (int) (mBlocksCount - previousBlocksCount);
+    }
+
+    public @Nullable
+    SampleFormat getFormat() {
+        return mFormat;
+    }
+
+    public void setFormat(@Nullable SampleFormat format) {
+        mFormat = format;
+    }
+
+    public void reset() {
+        mFramer.reset();
+        mExpectedSequence = -1;
+    }
+
+    // Returns true if buffer contains a valid format frame that ends after fromIndex (the bytes before it were already checked). Used to detect packed streams: a text stream could also contain a 0 byte
+    public static boolean containsFormatFrame(@NonNull ByteRingBuffer buffer, int fromIndex) {
+        int frameStart = 0;
+        int frameEnd = buffer.indexOf((byte) 0, 0);
+        while (frameEnd >= 0) {
+            if (frameEnd >= fromIndex && isFormatFrame(buffer, frameStart, frameEnd)) {
+                return true;
+            }
+            frameStart = frameEnd + 1;
+            frameEnd = buffer.indexOf((byte) 0, frameStart);
+        }
+        return false;
+    }
+
+    // Decodes the cobs frame in [start, end) of buffer
+    private static boolean isFormatFrame(@NonNull ByteRingBuffer buffer, int start, int end) {
+        final byte[] frame = new byte[1 + SampleFormat.kDescriptorLength];
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            final int code = buffer.get(i++) & 0xff;
+            if (i + code - 1 > end || length + code > kMaxFrameLength) {
+                return false;           // Truncated block or too long
+            }
+            for (int j = 1; j < code; j++, i++) {
+                if (length < frame.length) {
+                    frame[length] = buffer.get(i);
+                }
+                length++;
+            }
+            if (code < 0xff && i < end) {
+                if (length < frame.length) {
+                    frame[length] = 0;
+                }
+                length++;
+            }
+        }
+        return length > 0 && frame[0] == kFrameTypeFormat && SampleFormat.fromDescriptor(frame, 1, Math.min(length, frame.length) - 1) != null;
+    }
+
+    // Stats
+    public long getBlocksCount() {
+        return mBlocksCount;
+    }
+
+    public long getLostFramesCount() {
+        return mLostFramesCount;
+    }
+
+    public long getDuplicatedFramesCount() {
+        return mDuplicatedFramesCount;
+    }
+
+    // Frames with an invalid encoding, type or length
+    public long getInvalidFramesCount() {
+        return mInvalidFramesCount + mFramer.getErrorsCount();
+    }
+
+    private void onFrame(@NonNull byte[] frame, int length) {
+        switch (frame[0]) {
+            case kFrameTypeFormat: {
+                final SampleFormat format = SampleFormat.fromDescriptor(frame, 1, length - 1);
+                if (format == null) {
+                    Log.w(TAG, "Invalid sample format descriptor");
+                    mInvalidFramesCount++;
+                } else if (!format.equals(mFormat)) {
+                    Log.d(TAG, "Sample format: " + format.getChannelsCount() + " channels, " + format.getBytesPerSample() + " bytes per sample, " + format.getSampleRate() + " Hz");
+                    mFormat = format;
+                }
+                break;
+            }
+
+            case kFrameTypeSamples:
+                decodeSamples(frame, length);
+                break;
+
+            default:
+                mInvalidFramesCount++;
+                break;
+        }
+    }
+
+    private void decodeSamples(@NonNull byte[] frame, int length) {
+        final SampleFormat format = mFormat;
+        final int payloadLength = length - kSamplesFrameHeaderLength;
+        if (format == null || payloadLength < 0 || payloadLength % format.getBytesPerSampleSet() != 0) {
+            mInvalidFramesCount++;
+            return;
+        }
+
+        // Sequence
+        final int sequence = (frame[1] & 0xff) | ((frame[2] & 0xff) << 8);
+        int lostFramesCount = 0;
+        if (mExpectedSequence >= 0) {
+            final int gap = (sequence - mExpectedSequence + kSequenceModulo) % kSequenceModulo;
+            if (gap >= kSequenceModulo / 2) {          // Behind the expected sequence: repeated frame
+                mDuplicatedFramesCount++;
+                return;
+            }
+            lostFramesCount = gap;
+            mLostFramesCount += gap;
+        }
+        mExpectedSequence = (sequence + 1) % kSequenceModulo;
+
+        // Samples
+        final int channelsCount = format.getChannelsCount();
+        final int bytesPerSample = format.getBytesPerSample();
+        final int samplesCount = payloadLength / format.getBytesPerSampleSet();
+        mBlock.ensureCapacity(channelsCount, samplesCount);
+        int offset = kSamplesFrameHeaderLength;
+        for (int i = 0; i < samplesCount; i++) {
+            for (int channel = 0; channel < channelsCount; channel++) {
+                mBlock.mSamples[channel][i] = format.readSample(frame, offset);
+                offset += bytesPerSample;
+            }
+        }
+
+        mBlock.mFormat = format;
+        mBlock.mSequence = sequence;
+        mBlock.mSamplesCount = samplesCount;
+        mBlock.mLostFramesCount = lostFramesCount;
+        mBlocksCount++;
+        mListener.onSampleBlock(mBlock);
+    }
+}
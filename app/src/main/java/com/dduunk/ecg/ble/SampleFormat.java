@@ -0,0 +1,123 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Describes the samples sent in packed binary frames (see PackedSampleDecoder): number of channels, sample size (int16 or int24, signed), byte order, sample rate and scale.
+// It can be configured for a peripheral or received from it in a format frame (see toDescriptor / fromDescriptor)
+public class SampleFormat {
+
+    // Constants
+    private final static int kDescriptorVersion = 1;
+    public final static int kDescriptorLength = 1 + 1 + 1 + 1 + 2 + 4;         // version, channels, bytes per sample, flags, sample rate, scale
+    private final static int kFlagBigEndian = 1;
+    private final static int kMaxChannels = 16;
+
+    // Data
+    private final int mChannelsCount;
+    private final int mBytesPerSample;
+    private final boolean mIsBigEndian;
+    private final int mSampleRate;        // in Hz. 0 if unknown
+    private final float mScale;           // Units (i.e. mV) per sample step
+
+    public SampleFormat(int channelsCount, int bytesPerSample, boolean isBigEndian, int sampleRate, float scale) {
+        if (channelsCount < 1 || channelsCount > kMaxChannels) {
+            throw new IllegalArgumentException("Invalid channels count: " + channelsCount);
+        }
+        if (bytesPerSample != 2 && bytesPerSample != 3) {
+            throw new IllegalArgumentException("Invalid bytes per sample: " + bytesPerSample);
+        }
+        mChannelsCount = channelsCount;
+        mBytesPerSample = bytesPerSample;
+        mIsBigEndian = isBigEndian;
+        mSampleRate = Math.max(0, sampleRate);
+        mScale = scale;
+    }
+
+    public int getChannelsCount() {
+        return mChannelsCount;
+    }
+
+    public int getBytesPerSample() {
+        return mBytesPerSample;
+    }
+
+    public boolean isBigEndian() {
+        return mIsBigEndian;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    // Bytes used by one sample of each channel
+    public int getBytesPerSampleSet() {
+        return mChannelsCount * mBytesPerSample;
+    }
+
+    // Reads the signed sample at offset
+    public int readSample(@NonNull byte[] data, int offset) {
+        if (mBytesPerSample == 2) {
+            return mIsBigEndian ? (short) (((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff)) : (short) (((data[offset + 1] & 0xff) << 8) | (data[offset] & 0xff));
+        } else {
+            final int value = mIsBigEndian ? ((data[offset] & 0xff) << 16) | ((data[offset + 1] & 0xff) << 8) | (data[offset + 2] & 0xff) : ((data[offset + 2] & 0xff) << 16) | ((data[offset + 1] & 0xff) << 8) | (data[offset] & 0xff);
+            return (value << 8) >> 8;           // Sign extend 24 bits
+        }
+    }
+
+    public @NonNull
+    byte[] toDescriptor() {
+        ByteBuffer buffer = ByteBuffer.allocate(kDescriptorLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) kDescriptorVersion);
+        buffer.put((byte) mChannelsCount);
+        buffer.put((byte) mBytesPerSample);
+        buffer.put((byte) (mIsBigEndian ? kFlagBigEndian : 0));
+        buffer.putShort((short) mSampleRate);
+        buffer.putFloat(mScale);
+        return buffer.array();
+    }
+
+    // Returns null if the descriptor is not valid
+    public static @Nullable
+    SampleFormat fromDescriptor(@NonNull byte[] data, int offset, int length) {
+        if (length < kDescriptorLength || data[offset] != kDescriptorVersion) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.get();       // version
+        final int channelsCount = buffer.get() & 0xff;
+        final int bytesPerSample = buffer.get() & 0xff;
+        final int flags = buffer.get() & 0xff;
+        final int sampleRate = buffer.getShort() & 0xffff;
+        final float scale = buffer.getFloat();
+        if (channelsCount < 1 || channelsCount > kMaxChannels || (bytesPerSample != 2 && bytesPerSample != 3)) {
+            return null;
+        }
+        return new SampleFormat(channelsCount, bytesPerSample, (flags & kFlagBigEndian) != 0, sampleRate, scale);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SampleFormat)) return false;
+        SampleFormat that = (SampleFormat) o;
+        return mChannelsCount == that.mChannelsCount && mBytesPerSample == that.mBytesPerSample && mIsBigEndian == that.mIsBigEndian && mSampleRate == that.mSampleRate && Float.compare(that.mScale, mScale) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mChannelsCount;
+        result = 31 * result + mBytesPerSample;
+        result = 31 * result + (mIsBigEndian ? 1 : 0);
+        result = 31 * result + mSampleRate;
+        result = 31 * result + Float.floatToIntBits(mScale);
+        return result;
+    }
+}
@@ -0,0 +1,223 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+// Incremental frame decoder for uart streams accumulated in a ByteRingBuffer.
+// Call process() each time new data is appended: complete frames are sent to the listener exactly once and consumed from the buffer. The bytes of an incomplete frame already scanned are remembered, so the work done is proportional to the new data.
+// Use one framer per stream (i.e. per peripheral). Not thread safe
+public abstract class UartFramer {
+
+    // Listener
+    public interface FrameListener {
+        void onFrame(@NonNull byte[] frame, int length);        // frame is reused after the call returns. Only the first length bytes are valid
+    }
+
+    // Config
+    private final static int kInitialFrameCapacity = 64;
+
+    // Data
+    protected int mScanPosition = 0;              // Bytes of the current (incomplete) frame already scanned
+    protected byte[] mFrame = new byte[kInitialFrameCapacity];
+    private long mFramesCount = 0;
+    private long mErrorsCount = 0;
+
+    // Returns the number of frames sent to the listener
+    public int process(@NonNull ByteRingBuffer buffer, @NonNull FrameListener listener) {
+        if (mScanPosition > buffer.size()) {         // The buffer was cleared by someone else
+            reset();
+        }
+
+        int frames = 0;
+        while (!buffer.isEmpty()) {
+            final int frameLength = nextFrame(buffer);
+            if (frameLength < 0) {
+                break;      // Needs more data
+            }
+            mFramesCount++;
+            frames++;
+            listener.onFrame(mFrame, frameLength);
+        }
+        return frames;
+    }
+
+    public void reset() {
+        mScanPosition = 0;
+    }
+
+    public long getFramesCount() {
+        return mFramesCount;
+    }
+
+    // Invalid frames discarded
+    public long getErrorsCount() {
+        return mErrorsCount;
+    }
+
+    // Decodes the next frame into mFrame and consumes it from the buffer. Returns its length, or -1 if there is no complete frame
+    protected abstract int nextFrame(@NonNull ByteRingBuffer buffer);
+
+    protected void onError() {
+        mErrorsCount++;
+    }
+
+    protected void ensureFrameCapacity(int capacity) {
+        if (mFrame.length < capacity) {
+            mFrame = Arrays.copyOf(mFrame, Math.max(capacity, mFrame.length * 2));
+        }
+    }
+
+    // Frames delimited by a separator byte (i.e. lines of text). The separator (and a '\r' before it, if stripCarriageReturn is set) is not included in the frame
+    public static class DelimiterFramer extends UartFramer {
+        private final byte mDelimiter;
+        private final boolean mIsStripCarriageReturnEnabled;
+
+        public DelimiterFramer() {
+            this((byte) '\n', true);
+        }
+
+        public DelimiterFramer(byte delimiter, boolean stripCarriageReturn) {
+            mDelimiter = delimiter;
+            mIsStripCarriageReturnEnabled = stripCarriageReturn;
+        }
+
+        @Override
+        protected int nextFrame(@NonNull ByteRingBuffer buffer) {
+            final int delimiterIndex = buffer.indexOf(mDelimiter, mScanPosition);
+            if (delimiterIndex < 0) {
+                mScanPosition = buffer.size();
+                return -1;
+            }
+
+            int frameLength = delimiterIndex;
+            if (mIsStripCarriageReturnEnabled && frameLength > 0 && buffer.get(frameLength - 1) == '\r') {
+                frameLength--;
+            }
+            ensureFrameCapacity(frameLength);
+            buffer.peek(0, mFrame, 0, frameLength);
+            buffer.consume(delimiterIndex + 1);
+            mScanPosition = 0;
+            return frameLength;
+        }
+    }
+
+    // Binary frames preceded by their length (1, 2 or 4 bytes, unsigned). Lengths bigger than maxFrameLength are considered a framing error and the stream is resynchronized discarding one byte at a time
+    public static class LengthPrefixedFramer extends UartFramer {
+        private final int mHeaderLength;
+        private final boolean mIsBigEndian;
+        private final int mMaxFrameLength;
+
+        public LengthPrefixedFramer(int headerLength, boolean isBigEndian, int maxFrameLength) {
+            if (headerLength != 1 && headerLength != 2 && headerLength != 4) {
+                throw new IllegalArgumentException("Invalid header length: " + headerLength);
+            }
+            mHeaderLength = headerLength;
+            mIsBigEndian = isBigEndian;
+            mMaxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        protected int nextFrame(@NonNull ByteRingBuffer buffer) {
+            while (buffer.size() >= mHeaderLength) {
+                long frameLength = 0;
+                for (int i = 0; i < mHeaderLength; i++) {
+                    final int value = buffer.get(mIsBigEndian ? i : mHeaderLength - 1 - i) & 0xff;
+                    frameLength = (frameLength << 8) | value;
+                }
+
+                if (frameLength > mMaxFrameLength) {
+                    onError();
+                    buffer.consume(1);          // Resync
+                    continue;
+                }
+
+                final int totalLength = mHeaderLength + (int) frameLength;
+                if (buffer.size() < totalLength) {
+                    mScanPosition = buffer.size();
+                    return -1;
+                }
+
+                ensureFrameCapacity((int) frameLength);
+                buffer.peek(mHeaderLength, mFrame, 0, (int) frameLength);
+                buffer.consume(totalLength);
+                mScanPosition = 0;
+                return (int) frameLength;
+            }
+            mScanPosition = buffer.size();
+            return -1;
+        }
+    }
+
+    // COBS (Consistent Overhead Byte Stuffing) encoded frames, delimited by 0. Frames are decoded while they are scanned
+    public static class CobsFramer extends UartFramer {
+        private final int mMaxFrameLength;
+        private int mDecodedLength = 0;           // Bytes decoded for the current frame
+        private int mBlockRemaining = 0;          // Bytes left in the current cobs block (0: the next byte is a block code)
+        private boolean mIsBlockZeroPending = false;  // The current block is followed by a zero (code < 0xff)
+
+        public CobsFramer(int maxFrameLength) {
+            mMaxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetFrame();
+        }
+
+        @Override
+        protected int nextFrame(@NonNull ByteRingBuffer buffer) {
+            int size = buffer.size();
+            for (int i = mScanPosition; i < size; i++) {
+                final byte value = buffer.get(i);
+                if (value == 0) {       // End of frame
+                    final boolean isValid = mBlockRemaining == 0 && mDecodedLength <= mMaxFrameLength;
+                    final int frameLength = mDecodedLength;
+                    buffer.consume(i + 1);
+                    mScanPosition = 0;
+                    resetFrame();
+                    if (isValid && frameLength > 0) {
+                        return frameLength;
+                    }
+
+                    if (!isValid) {
+                        onError();
+                    }
+                    // Continue with the next frame (empty frames are skipped)
+                    size = buffer.size();
+                    i = -1;
+                    continue;
+                }
+
+                if (mBlockRemaining == 0) {         // Block code
+                    if (mIsBlockZeroPending) {
+                        appendDecoded((byte) 0);
+                    }
+                    final int code = value & 0xff;
+                    mBlockRemaining = code - 1;
+                    mIsBlockZeroPending = code < 0xff;
+                } else {
+                    appendDecoded(value);
+                    mBlockRemaining--;
+                }
+            }
+            mScanPosition = size;
+            return -1;
+        }
+
+        private void appendDecoded(byte value) {
+            if (mDecodedLength < mMaxFrameLength) {
+                ensureFrameCapacity(mDecodedLength + 1);
+                mFrame[mDecodedLength] = value;
+            }
+            mDecodedLength++;           // Keeps counting to detect frames that are too long
+        }
+
+        private void resetFrame() {
+            mDecodedLength = 0;
+            mBlockRemaining = 0;
+            mIsBlockZeroPending = false;
+        }
+    }
+}
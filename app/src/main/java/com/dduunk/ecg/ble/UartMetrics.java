@@ -0,0 +1,123 @@
+package com.dduunk.ecg.ble;
+
+import android.os.SystemClock;
+
+import com.dduunk.ecg.utils.RateMeter;
+import com.dduunk.ecg.utils.StripedCounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Throughput metrics for a uart peripheral (or the totals for all of them).
+// Counters are updated from the rx ingest, tx and ui threads without locking. Rates are exponentially decayed and computed when sample() is called, so polling them from the ui is cheap
+public class UartMetrics {
+
+    // Config
+    private final static long kRateTimeConstantMillis = 2000;
+    private final static long kConnectionEventGapNanos = 4 * 1000000L;         // Notifications closer than this are considered part of the same connection event (the min connection interval is 7.5ms)
+
+    // Data
+    private final StripedCounter mRxBytes = new StripedCounter();
+    private final StripedCounter mRxPackets = new StripedCounter();
+    private final StripedCounter mRxConnectionEvents = new StripedCounter();
+    private final StripedCounter mTxBytes = new StripedCounter();
+    private final StripedCounter mTxPackets = new StripedCounter();
+    private final AtomicLong mTxPendingBytes = new AtomicLong();
+    private volatile long mLastRxTimestamp = 0;          // Only updated by the rx ingest thread of the peripheral
+
+    private final RateMeter mRxBytesRate = new RateMeter(kRateTimeConstantMillis);
+    private final RateMeter mRxPacketsRate = new RateMeter(kRateTimeConstantMillis);
+    private final RateMeter mRxConnectionEventsRate = new RateMeter(kRateTimeConstantMillis);
+    private final RateMeter mTxBytesRate = new RateMeter(kRateTimeConstantMillis);
+    private final RateMeter mTxPacketsRate = new RateMeter(kRateTimeConstantMillis);
+
+    // timestamp: SystemClock.elapsedRealtimeNanos() when the notification was received
+    public void onRxNotification(int length, long timestamp) {
+        mRxBytes.add(length);
+        mRxPackets.increment();
+        if (timestamp - mLastRxTimestamp > kConnectionEventGapNanos) {
+            mRxConnectionEvents.increment();
+        }
+        mLastRxTimestamp = timestamp;
+    }
+
+    // Data sent (or queued to be sent if isPending is true. In that case, call onTxCompleted when the write finishes)
+    public void onTx(int length, boolean isPending) {
+        mTxBytes.add(length);
+        mTxPackets.increment();
+        if (isPending) {
+            mTxPendingBytes.addAndGet(length);
+        }
+    }
+
+    public void onTxCompleted(int length) {
+        mTxPendingBytes.addAndGet(-length);
+    }
+
+    // Updates the rates. Call it before reading them
+    public void sample() {
+        final long timestamp = SystemClock.elapsedRealtimeNanos();
+        mRxBytesRate.sample(mRxBytes.sum(), timestamp);
+        mRxPacketsRate.sample(mRxPackets.sum(), timestamp);
+        mRxConnectionEventsRate.sample(mRxConnectionEvents.sum(), timestamp);
+        mTxBytesRate.sample(mTxBytes.sum(), timestamp);
+        mTxPacketsRate.sample(mTxPackets.sum(), timestamp);
+    }
+
+    public void reset() {
+        mRxBytes.reset();
+        mRxPackets.reset();
+        mRxConnectionEvents.reset();
+        mTxBytes.reset();
+        mTxPackets.reset();
+        mRxBytesRate.reset();
+        mRxPacketsRate.reset();
+        mRxConnectionEventsRate.reset();
+        mTxBytesRate.reset();
+        mTxPacketsRate.reset();
+    }
+
+    // Totals
+    public long getRxBytes() {
+        return mRxBytes.sum();
+    }
+
+    public long getRxPackets() {
+        return mRxPackets.sum();
+    }
+
+    public long getTxBytes() {
+        return mTxBytes.sum();
+    }
+
+    public long getTxPackets() {
+        return mTxPackets.sum();
+    }
+
+    // Bytes queued for transmission that have not been written yet
+    public long getTxPendingBytes() {
+        return Math.max(0, mTxPendingBytes.get());
+    }
+
+    // Rates (updated by sample)
+    public double getRxBytesPerSecond() {
+        return mRxBytesRate.getRate();
+    }
+
+    public double getRxPacketsPerSecond() {
+        return mRxPacketsRate.getRate();
+    }
+
+    // Estimated from the bursts of notifications received. Not meaningful for aggregated metrics of several peripherals
+    public double getRxNotificationsPerConnectionEvent() {
+        final double connectionEventsRate = mRxConnectionEventsRate.getRate();
+        return connectionEventsRate > 0 ? mRxPacketsRate.getRate() / connectionEventsRate : 0;
+    }
+
+    public double getTxBytesPerSecond() {
+        return mTxBytesRate.getRate();
+    }
+
+    public double getTxPacketsPerSecond() {
+        return mTxPacketsRate.getRate();
+    }
+}
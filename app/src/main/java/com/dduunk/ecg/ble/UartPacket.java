@@ -1,17 +1,19 @@
 package com.dduunk.ecg.ble;
 
+import android.os.SystemClock;
+
 public class UartPacket {
 
     public static final int TRANSFERMODE_TX = 0;
     public static final int TRANSFERMODE_RX = 1;
 
     private String mPeripheralId;
-    private long mTimestamp;        // in millis
+    private long mTimestamp;        // SystemClock.elapsedRealtimeNanos() when the packet was received or sent
     private int mMode;
     private byte[] mData;
 
     public UartPacket(String peripheralId, int mode, byte[] data) {
-        this(peripheralId, 0, mode, data);
+        this(peripheralId, SystemClock.elapsedRealtimeNanos(), mode, data);
     }
 
     public UartPacket(String peripheralId, long timestamp, int mode, byte[] data) {
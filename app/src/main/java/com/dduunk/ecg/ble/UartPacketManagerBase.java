@@ -2,8 +2,6 @@ package com.dduunk.ecg.ble;
 
 import android.bluetooth.BluetoothGatt;
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -11,48 +9,81 @@ import android.util.Log;
 import com.dduunk.ecg.ble.central.BlePeripheralUart;
 import com.dduunk.ecg.mqtt.MqttManager;
 import com.dduunk.ecg.mqtt.MqttSettings;
+import com.dduunk.ecg.utils.FrameCoalescer;
+import com.dduunk.ecg.utils.LatencyTracer;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UartPacketManagerBase implements BlePeripheralUart.UartRxHandler {
 
     // Log
     private final static String TAG = UartPacketManagerBase.class.getSimpleName();
 
+    // Config
+    private final static int kPacketsCacheCapacity = 1 << 16;
+    public final static long kPacketsCacheDefaultMaxBytes = 4 * 1024 * 1024;
+
     // Listener
+    // Called on the main thread, at most once per display frame, with the number of packets received or sent since the last call. The packets are read from the packets store (if the cache is enabled), up to tailSequence
     public interface Listener {
-        void onUartPacket(UartPacket packet);
+        void onUartPackets(int count, long tailSequence);
     }
 
     // Data
-    protected final Handler mMainHandler = new Handler(Looper.getMainLooper());
     protected WeakReference<Listener> mWeakListener;
-    protected List<UartPacket> mPackets = new ArrayList<>();
-    protected Semaphore mPacketsSemaphore = new Semaphore(1, true);
+    private final AtomicInteger mPendingPacketsCount = new AtomicInteger();          // Packets waiting for the next frame
+    private final FrameCoalescer mBatchDeliveryCoalescer = new FrameCoalescer(this::deliverPendingPackets);
+    protected final UartPacketStore mPackets;
     private boolean mIsPacketCacheEnabled;
     protected Context mContext;
     protected MqttManager mMqttManager;
 
-    protected long mReceivedBytes = 0;
-    protected long mSentBytes = 0;
+    private final UartMetrics mTotalMetrics = new UartMetrics();
+    private final Map<String, UartMetrics> mPeripheralMetrics = new ConcurrentHashMap<>();
 
     public UartPacketManagerBase(@NonNull Context context, @Nullable Listener listener, boolean isPacketCacheEnabled, @Nullable MqttManager mqttManager) {
+        this(context, listener, isPacketCacheEnabled, mqttManager, kPacketsCacheDefaultMaxBytes, false);
+    }
+
+    public UartPacketManagerBase(@NonNull Context context, @Nullable Listener listener, boolean isPacketCacheEnabled, @Nullable MqttManager mqttManager, long packetsCacheMaxBytes, boolean isPacketsCacheSpillEnabled) {
         mContext = context.getApplicationContext();
         mIsPacketCacheEnabled = isPacketCacheEnabled;
         mMqttManager = mqttManager;
         mWeakListener = new WeakReference<>(listener);
+
+        // Packets evicted from memory are moved to a file in the cache dir if spill is enabled
+        UartPacketSpillFile spillFile = null;
+        if (isPacketCacheEnabled && isPacketsCacheSpillEnabled) {
+            final File file = new File(mContext.getCacheDir(), "uartpackets_" + System.currentTimeMillis() + ".spill");
+            try {
+                spillFile = new UartPacketSpillFile(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Error creating packets spill file: " + e.toString());
+            }
+        }
+        mPackets = new UartPacketStore(kPacketsCacheCapacity, packetsCacheMaxBytes, spillFile);
+    }
+
+    // Releases the resources used by the packets cache (i.e. the spill file). Call it when the manager is no longer needed
+    public void release() {
+        mBatchDeliveryCoalescer.cancel();
+        mPackets.release();
     }
 
     @Override
-    public void onRxDataReceived(@NonNull byte[] data, @Nullable String identifier, int status) {
+    public void onRxDataReceived(@NonNull byte[] data, int length, @Nullable String identifier, int status, long timestamp) {
         if (status != BluetoothGatt.GATT_SUCCESS) {
             Log.w(TAG, "onRxDataReceived error:" + status);
             return;
         }
-        UartPacket uartPacket = new UartPacket(identifier, UartPacket.TRANSFERMODE_RX, data);
+        final LatencyTracer latencyTracer = LatencyTracer.getInstance();
 
         // Mqtt publish to RX
         if (mMqttManager != null) {
@@ -60,47 +91,102 @@ public class UartPacketManagerBase implements BlePeripheralUart.UartRxHandler {
                 final String topic = MqttSettings.getPublishTopic(mContext, MqttSettings.kPublishFeed_RX);
                 if (topic != null) {
                     final int qos = MqttSettings.getPublishQos(mContext, MqttSettings.kPublishFeed_RX);
-                    mMqttManager.publish(topic, uartPacket.getData(), qos);
+                    mMqttManager.publish(topic, Arrays.copyOf(data, length), qos);         // The mqtt client keeps the payload until it is sent
+                    latencyTracer.record(LatencyTracer.STAGE_MQTT, timestamp);
                 }
             }
         }
 
-        try {
-            mPacketsSemaphore.acquire();
-        } catch (InterruptedException e) {
-            Log.w(TAG, "InterruptedException: " + e.toString());
-        }
-        mReceivedBytes += data.length;
+        mTotalMetrics.onRxNotification(length, timestamp);
+        getMetrics(identifier).onRxNotification(length, timestamp);
         if (mIsPacketCacheEnabled) {
-            mPackets.add(uartPacket);
+            mPackets.append(identifier, timestamp, UartPacket.TRANSFERMODE_RX, data, 0, length);        // Copied to the store arena
+            latencyTracer.record(LatencyTracer.STAGE_STORE, timestamp);
         }
 
         // Send data to delegate
+        notifyPacket();
+    }
+
+    // Call it after a packet is added to the store. The listener only gets the count: no copy of the packet is made
+    protected void notifyPacket() {
+        if (mWeakListener.get() != null) {
+            mPendingPacketsCount.incrementAndGet();
+            mBatchDeliveryCoalescer.schedule();
+        }
+    }
+
+    private void deliverPendingPackets() {
+        final int count = mPendingPacketsCount.getAndSet(0);
         Listener listener = mWeakListener.get();
-        if (listener != null) {
-            mMainHandler.post(() -> listener.onUartPacket(uartPacket));
+        if (listener != null && count > 0) {
+            listener.onUartPackets(count, mPackets.getTailSequence());
         }
-        mPacketsSemaphore.release();
     }
 
     public void clearPacketsCache() {
         mPackets.clear();
     }
 
-    public List<UartPacket> getPacketsCache() {
+    public @NonNull
+    UartPacketStore.Snapshot getPacketsCache() {
+        return mPackets.snapshot();
+    }
+
+    public @NonNull
+    UartPacketStore getPacketsStore() {
         return mPackets;
     }
 
+    // Call it for data sent (isPending: see UartMetrics.onTx)
+    protected void onTx(@Nullable String peripheralId, int length, boolean isPending) {
+        mTotalMetrics.onTx(length, isPending);
+        getMetrics(peripheralId).onTx(length, isPending);
+    }
+
+    protected void onTxCompleted(@Nullable String peripheralId, int length) {
+        mTotalMetrics.onTxCompleted(length);
+        getMetrics(peripheralId).onTxCompleted(length);
+    }
+
     public void resetCounters() {
-        mReceivedBytes = 0;
-        mSentBytes = 0;
+        mTotalMetrics.reset();
+        for (UartMetrics metrics : mPeripheralMetrics.values()) {
+            metrics.reset();
+        }
     }
 
     public long getReceivedBytes() {
-        return mReceivedBytes;
+        return mTotalMetrics.getRxBytes();
     }
 
     public long getSentBytes() {
-        return mSentBytes;
+        return mTotalMetrics.getTxBytes();
+    }
+
+    // Aggregated metrics for all peripherals
+    public @NonNull
+    UartMetrics getTotalMetrics() {
+        return mTotalMetrics;
+    }
+
+    // Metrics for a peripheral (peripheralId is null in peripheral mode)
+    public @NonNull
+    UartMetrics getMetrics(@Nullable String peripheralId) {
+        final String key = peripheralId != null ? peripheralId : "";
+        UartMetrics metrics = mPeripheralMetrics.get(key);
+        if (metrics == null) {
+            final UartMetrics newMetrics = new UartMetrics();
+            metrics = mPeripheralMetrics.putIfAbsent(key, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    public @NonNull
+    Map<String, UartMetrics> getAllMetrics() {
+        return Collections.unmodifiableMap(mPeripheralMetrics);
     }
 }
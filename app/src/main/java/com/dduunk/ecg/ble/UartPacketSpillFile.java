@@ -0,0 +1,191 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+// Append-only disk storage for packets evicted from UartPacketStore.
+// Records are written to a data file and their offsets to an index file (8 bytes per sequence), so memory usage does not depend on the number of packets spilled.
+// Appends are done by the store spill writer. Reads use positional io and can be done from any thread without locking
+public class UartPacketSpillFile implements Closeable {
+
+    // Log
+    private final static String TAG = UartPacketSpillFile.class.getSimpleName();
+
+    // Constants
+    private final static int kIndexEntrySize = 8;
+    private final static int kRecordHeaderSize = 8 + 8 + 1 + 2 + 4;          // sequence, timestamp, mode, peripheralId length, data length
+    private final static Charset kCharset = Charset.forName("UTF-8");
+
+    // Data
+    private final File mDataFile;
+    private final File mIndexFile;
+    private final RandomAccessFile mDataRandomAccessFile;
+    private final RandomAccessFile mIndexRandomAccessFile;
+    private final FileChannel mDataChannel;
+    private final FileChannel mIndexChannel;
+
+    private volatile long mFirstSequence = 0;           // First sequence stored
+    private volatile long mEndSequence = 0;             // Next sequence to be stored
+    private volatile int mResetsCount = 0;              // Readers check it did not change while reading a record
+    private long mDataLength = 0;                       // Only accessed by the spill writer
+    private ByteBuffer mWriteBuffer = ByteBuffer.allocate(256);
+    private final ByteBuffer mIndexWriteBuffer = ByteBuffer.allocate(kIndexEntrySize);
+
+    public UartPacketSpillFile(@NonNull File file) throws IOException {
+        mDataFile = file;
+        mIndexFile = new File(file.getPath() + ".idx");
+        mDataRandomAccessFile = new RandomAccessFile(mDataFile, "rw");
+        mIndexRandomAccessFile = new RandomAccessFile(mIndexFile, "rw");
+        mDataChannel = mDataRandomAccessFile.getChannel();
+        mIndexChannel = mIndexRandomAccessFile.getChannel();
+        mDataChannel.truncate(0);
+        mIndexChannel.truncate(0);
+    }
+
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    public long getEndSequence() {
+        return mEndSequence;
+    }
+
+    public boolean contains(long sequence) {
+        return sequence >= mFirstSequence && sequence < mEndSequence;
+    }
+
+    // Must be called by the spill writer with consecutive sequences
+    void append(long sequence, @Nullable String peripheralId, long timestamp, int mode, @NonNull byte[] data, int offset, int length) throws IOException {
+        if (mEndSequence == mFirstSequence) {       // Empty: start at the given sequence
+            mFirstSequence = sequence;
+        } else if (sequence != mEndSequence) {
+            throw new IOException("Non consecutive sequence: " + sequence + " expected: " + mEndSequence);
+        }
+
+        final byte[] peripheralIdBytes = peripheralId == null ? null : peripheralId.getBytes(kCharset);
+        final int peripheralIdLength = peripheralIdBytes == null ? 0 : peripheralIdBytes.length;
+        final int recordSize = kRecordHeaderSize + peripheralIdLength + length;
+
+        if (mWriteBuffer.capacity() < recordSize) {
+            mWriteBuffer = ByteBuffer.allocate(Math.max(recordSize, mWriteBuffer.capacity() * 2));
+        }
+        final ByteBuffer buffer = mWriteBuffer;
+        buffer.clear();
+        buffer.putLong(sequence);
+        buffer.putLong(timestamp);
+        buffer.put((byte) mode);
+        buffer.putShort(peripheralIdBytes == null ? -1 : (short) peripheralIdLength);
+        if (peripheralIdBytes != null) {
+            buffer.put(peripheralIdBytes);
+        }
+        buffer.putInt(length);
+        buffer.put(data, offset, length);
+        buffer.flip();
+
+        final long recordOffset = mDataLength;
+        writeFully(mDataChannel, buffer, recordOffset);
+        mDataLength += recordSize;
+
+        mIndexWriteBuffer.clear();
+        mIndexWriteBuffer.putLong(recordOffset);
+        mIndexWriteBuffer.flip();
+        writeFully(mIndexChannel, mIndexWriteBuffer, (sequence - mFirstSequence) * kIndexEntrySize);
+
+        mEndSequence = sequence + 1;        // Publish
+    }
+
+    public @Nullable
+    UartPacket read(long sequence) {
+        final int resetsCount = mResetsCount;
+        final long firstSequence = mFirstSequence;
+        if (sequence < firstSequence || sequence >= mEndSequence) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer indexBuffer = ByteBuffer.allocate(kIndexEntrySize);
+            readFully(mIndexChannel, indexBuffer, (sequence - firstSequence) * kIndexEntrySize);
+            final long recordOffset = indexBuffer.getLong(0);
+
+            final ByteBuffer headerBuffer = ByteBuffer.allocate(kRecordHeaderSize - 4);
+            readFully(mDataChannel, headerBuffer, recordOffset);
+            final long recordSequence = headerBuffer.getLong();
+            if (recordSequence != sequence) {       // Reset while reading
+                return null;
+            }
+            final long timestamp = headerBuffer.getLong();
+            final int mode = headerBuffer.get();
+            final short peripheralIdLength = headerBuffer.getShort();
+
+            final int peripheralIdBytesLength = Math.max(0, peripheralIdLength);
+            final ByteBuffer bodyBuffer = ByteBuffer.allocate(peripheralIdBytesLength + 4);
+            readFully(mDataChannel, bodyBuffer, recordOffset + headerBuffer.capacity());
+            String peripheralId = null;
+            if (peripheralIdLength >= 0) {
+                peripheralId = new String(bodyBuffer.array(), 0, peripheralIdBytesLength, kCharset);
+            }
+            final int dataLength = bodyBuffer.getInt(peripheralIdBytesLength);
+
+            final ByteBuffer dataBuffer = ByteBuffer.allocate(dataLength);
+            readFully(mDataChannel, dataBuffer, recordOffset + headerBuffer.capacity() + bodyBuffer.capacity());
+            if (mResetsCount != resetsCount) {      // Reset while reading: parts of the record could belong to packets written after it
+                return null;
+            }
+
+            return new UartPacket(peripheralId, timestamp, mode, dataBuffer.array());
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading spilled packet " + sequence + ": " + e.toString());
+            return null;
+        }
+    }
+
+    // Must be called by the spill writer (not while appending)
+    void reset(long firstSequence) throws IOException {
+        mResetsCount++;         // Before truncating, so readers that see the new contents also see the new count
+        mEndSequence = firstSequence;
+        mFirstSequence = firstSequence;
+        mDataLength = 0;
+        mDataChannel.truncate(0);
+        mIndexChannel.truncate(0);
+    }
+
+    @Override
+    public void close() {
+        mEndSequence = mFirstSequence;
+        try {
+            mDataRandomAccessFile.close();
+            mIndexRandomAccessFile.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing spill file: " + e.toString());
+        }
+        if (!mDataFile.delete() || !mIndexFile.delete()) {
+            Log.w(TAG, "Error deleting spill file: " + mDataFile.getPath());
+        }
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
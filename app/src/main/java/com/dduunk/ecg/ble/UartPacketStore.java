@@ -0,0 +1,655 @@
+package com.dduunk.ecg.ble;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Ring buffer of uart packets addressed by sequence number.
+// Appends are serialized (there is only one rx producer, tx packets are appended occasionally from the ui). Readers never lock: they keep the sequence of the last packet processed as a cursor and get null for packets that are no longer stored
+// Memory usage is also limited by a bytes budget. The oldest packets are evicted first and, if a spill file is set, moved to it so they can still be read.
+// Evicted chunks are written to the spill file by a writer thread, so the producer doesn't wait for the disk. Until they are written, readers find their packets in the chunks pending to be spilled.
+// Nothing waits for the disk holding the append lock: rx appends wait for the spill writer before taking it, and clear() leaves the spill file reset to the writer
+//
+// Packets are not kept as UartPacket objects but in columnar chunks of kPacketsPerChunk packets: timestamps, modes, interned peripheral ids and offsets into a data arena shared by the chunk.
+// A chunk is not modified once its packets have been published and is discarded as a whole when evicted, so readers holding a chunk always see consistent data. Use a Cursor to iterate packets without creating an object for each one
+// The sequences of rx packets, tx packets and the packets of each peripheral are also kept in indexes, updated as packets are appended, so filtered views don't have to scan the store
+public class UartPacketStore {
+
+    // Log
+    private final static String TAG = UartPacketStore.class.getSimpleName();
+
+    // Constants
+    private final static int kChunkShift = 10;
+    public final static int kPacketsPerChunk = 1 << kChunkShift;
+    private final static int kChunkMask = kPacketsPerChunk - 1;
+    private final static int kChunkInitialArenaBytes = kPacketsPerChunk * 32;
+    private final static int kNoPeripheralIndex = -1;
+    private final static int kIndexInitialCapacity = 64;
+
+    // Config
+    private final static int kMaxPendingSpillChunks = 4;           // If the spill writer falls behind, rx appends wait when this number of evicted chunks are pending
+
+    // Data
+    private final int mMaxChunks;
+    private final int mChunksMask;
+    private final AtomicReferenceArray<Chunk> mChunks;          // Indexed by chunk number (sequence >> kChunkShift)
+    private final Object mAppendLock = new Object();
+    private volatile long mHeadSequence = 0;        // First sequence still stored in memory
+    private volatile long mClearedSequence = 0;     // Sequences before it were removed by clear(), although the spill file could still have them
+    private volatile int mClearsCount = 0;
+    private volatile long mTailSequence = 0;        // Next sequence to be appended
+    private final long mMaxBytes;
+    private long mBytes = 0;                        // Only accessed by the producer
+    private Chunk mWriteChunk;                      // Only accessed by the producer
+    private volatile UartPacketSpillFile mSpillFile;            // Set to null when spill is disabled (after an error or release). Only the spill writer modifies the file
+
+    private final ConcurrentLinkedQueue<Chunk> mPendingSpillChunks = new ConcurrentLinkedQueue<>();        // Evicted chunks, in order. Removed once written
+    private final Semaphore mPendingSpillSignal = new Semaphore(0);                 // A permit for each chunk added to the pending queue, clear() and release()
+    private final Object mPendingSpillRemovedLock = new Object();                   // Notified when pending chunks are removed
+    private volatile boolean mIsReleased = false;
+
+    private final Map<String, Integer> mPeripheralIndices = new HashMap<>();        // Only accessed by the producer
+    private volatile String[] mPeripheralIds = new String[0];                       // Interned peripheral ids. Replaced (never modified) when a new one is added
+
+    private final Index mRxIndex;
+    private final Index mTxIndex;
+    private volatile Index[] mPeripheralIndexes = new Index[0];                    // Same order as mPeripheralIds. Replaced (never modified) when a new one is added
+
+    public UartPacketStore(int capacity) {
+        this(capacity, Long.MAX_VALUE, null);
+    }
+
+    public UartPacketStore(int capacity, long maxBytes, @Nullable UartPacketSpillFile spillFile) {
+        mMaxBytes = maxBytes;
+        mSpillFile = spillFile;
+        mMaxChunks = Math.max(2, (capacity + kPacketsPerChunk - 1) / kPacketsPerChunk);
+        int powerOfTwoChunks = 1;
+        while (powerOfTwoChunks < mMaxChunks) {
+            powerOfTwoChunks <<= 1;
+        }
+        mChunksMask = powerOfTwoChunks - 1;
+        mChunks = new AtomicReferenceArray<>(powerOfTwoChunks);
+        mRxIndex = new Index();
+        mTxIndex = new Index();
+
+        if (spillFile != null) {
+            final Thread spillThread = new Thread(() -> processPendingSpillChunks(spillFile), "UartPacketSpill");
+            spillThread.setDaemon(true);
+            spillThread.start();
+        }
+    }
+
+    public int getCapacity() {
+        return mMaxChunks * kPacketsPerChunk;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long append(@NonNull UartPacket packet) {
+        final byte[] data = packet.getData();
+        return append(packet.getPeripheralId(), packet.getTimestamp(), packet.getMode(), data, 0, data != null ? data.length : 0);
+    }
+
+    public long append(@Nullable String peripheralId, long timestamp, int mode, @Nullable byte[] data, int offset, int length) {
+        if (mode == UartPacket.TRANSFERMODE_RX) {
+            awaitPendingSpillChunks();          // Tx packets are appended from the ui: they never wait
+        }
+
+        synchronized (mAppendLock) {
+            final long sequence = mTailSequence;
+            final int index = (int) (sequence & kChunkMask);
+            if (index == 0 || mWriteChunk == null) {
+                mWriteChunk = createChunk(sequence);
+            }
+
+            final Chunk chunk = mWriteChunk;
+            final int peripheralIndex = peripheralIndex(peripheralId);
+            chunk.timestamps[index] = timestamp;
+            chunk.modes[index] = (byte) mode;
+            chunk.peripheralIndices[index] = peripheralIndex;
+            final int dataOffset = chunk.dataOffsets[index];
+            final int dataLength = data != null ? Math.max(0, length) : 0;
+            if (dataLength > 0) {
+                byte[] arena = chunk.arena;
+                if (dataOffset + dataLength > arena.length) {
+                    // Grow the arena. Readers holding the previous one still see the packets already published
+                    final byte[] grownArena = Arrays.copyOf(arena, Math.max(arena.length * 2, dataOffset + dataLength));
+                    mBytes += grownArena.length - arena.length;
+                    chunk.arena = grownArena;
+                    arena = grownArena;
+                }
+                System.arraycopy(data, offset, arena, dataOffset, dataLength);
+            }
+            chunk.dataOffsets[index + 1] = dataOffset + dataLength;
+
+            mTailSequence = sequence + 1;                        // Publish
+
+            // Indexes are updated after publishing, so the packets they point to can always be read
+            (mode == UartPacket.TRANSFERMODE_RX ? mRxIndex : mTxIndex).add(sequence);
+            if (peripheralIndex != kNoPeripheralIndex) {
+                mPeripheralIndexes[peripheralIndex].add(sequence);
+            }
+            return sequence;
+        }
+    }
+
+    private @NonNull
+    Chunk createChunk(long sequence) {
+        // Make room for the new chunk evicting the oldest ones
+        final long chunkBytes = Chunk.estimatedBytes(kChunkInitialArenaBytes);
+        while (mHeadSequence < sequence && (chunkNumber(sequence) - chunkNumber(mHeadSequence) >= mMaxChunks || mBytes + chunkBytes > mMaxBytes)) {
+            evictHeadChunk();
+        }
+
+        final Chunk chunk = new Chunk(sequence & ~kChunkMask, kChunkInitialArenaBytes);
+        mChunks.set(chunkSlot(sequence), chunk);
+        mBytes += chunk.getBytes();
+        return chunk;
+    }
+
+    private void evictHeadChunk() {
+        final long headSequence = mHeadSequence;
+        final int slot = chunkSlot(headSequence);
+        final Chunk chunk = chunkForSequence(headSequence);
+        final long endSequence = Math.min(mTailSequence, (headSequence & ~kChunkMask) + kPacketsPerChunk);
+        if (chunk != null) {
+            mBytes -= chunk.getBytes();
+
+            // Queue it to be spilled before moving the head, so readers always find the packets in memory, pending or in the file. It doesn't wait for the spill writer: rx appends have already waited before taking the append lock
+            if (mSpillFile != null) {
+                chunk.spillStartSequence = headSequence;
+                chunk.spillEndSequence = endSequence;
+                chunk.spillClearsCount = mClearsCount;
+                mPendingSpillChunks.add(chunk);
+                mPendingSpillSignal.release();
+            }
+        }
+        mHeadSequence = endSequence;      // Move the head before discarding the chunk, so readers can detect it
+        if (chunk != null) {
+            mChunks.compareAndSet(slot, chunk, null);
+        }
+        if (chunk == mWriteChunk) {
+            mWriteChunk = null;
+        }
+    }
+
+    // Waits until the spill writer has room for more evicted chunks. Called without holding the append lock, so tx appends and clear() don't wait for the disk
+    private void awaitPendingSpillChunks() {
+        if (mSpillFile == null || mPendingSpillChunks.size() < kMaxPendingSpillChunks) {
+            return;
+        }
+
+        synchronized (mPendingSpillRemovedLock) {
+            while (mSpillFile != null && mPendingSpillChunks.size() >= kMaxPendingSpillChunks) {
+                try {
+                    mPendingSpillRemovedLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void notifyPendingSpillChunksRemoved() {
+        synchronized (mPendingSpillRemovedLock) {
+            mPendingSpillRemovedLock.notifyAll();
+        }
+    }
+
+    // Spill writer thread. It is the only one that writes, resets or closes the spill file
+    private void processPendingSpillChunks(@NonNull UartPacketSpillFile spillFile) {
+        int spilledClearsCount = 0;
+        boolean isSpillEnabled = true;
+        while (!mIsReleased) {
+            try {
+                mPendingSpillSignal.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            // Remove the packets cleared since the last chunk written
+            final int clearsCount = mClearsCount;
+            if (clearsCount != spilledClearsCount) {
+                spilledClearsCount = clearsCount;
+                if (isSpillEnabled) {
+                    try {
+                        spillFile.reset(mClearedSequence);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Error resetting spill file. Spill disabled: " + e.toString());
+                        isSpillEnabled = false;
+                        mSpillFile = null;
+                        spillFile.close();
+                    }
+                }
+            }
+
+            final Chunk chunk = mPendingSpillChunks.peek();
+            if (chunk == null) {
+                continue;       // Removed by clear()
+            }
+            if (chunk.spillClearsCount != spilledClearsCount) {
+                if (chunk.spillClearsCount > spilledClearsCount) {
+                    mPendingSpillSignal.release();          // Evicted after a clear() not seen yet: reset the file before writing it
+                    continue;
+                }
+            } else if (isSpillEnabled) {
+                try {
+                    for (long sequence = chunk.spillStartSequence; sequence < chunk.spillEndSequence; sequence++) {
+                        final int index = (int) (sequence & kChunkMask);
+                        final int dataOffset = chunk.dataOffsets[index];
+                        spillFile.append(sequence, peripheralId(chunk.peripheralIndices[index]), chunk.timestamps[index], chunk.modes[index], chunk.arena, dataOffset, chunk.dataOffsets[index + 1] - dataOffset);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Error spilling packets. Spill disabled: " + e.toString());
+                    isSpillEnabled = false;
+                    mSpillFile = null;
+                    spillFile.close();
+                }
+            }
+
+            mPendingSpillChunks.remove(chunk);         // Removed after writing it, so readers find its packets in the chunk or in the file. Not polled: clear() could have removed it meanwhile
+            notifyPendingSpillChunksRemoved();
+        }
+
+        if (isSpillEnabled) {
+            spillFile.close();
+        }
+    }
+
+    public void clear() {
+        synchronized (mAppendLock) {
+            final long tailSequence = mTailSequence;
+            mClearedSequence = tailSequence;            // Before moving the head, so readers that see any of the changes don't read the spill file before it
+            mHeadSequence = tailSequence;
+            for (int i = 0; i < mChunks.length(); i++) {
+                final Chunk chunk = mChunks.get(i);
+                if (chunk != null && chunk != mWriteChunk) {        // The chunk being written is kept (the head is already past its packets)
+                    mChunks.set(i, null);
+                }
+            }
+            mBytes = mWriteChunk != null ? mWriteChunk.getBytes() : 0;
+
+            mRxIndex.clear();
+            mTxIndex.clear();
+            for (Index peripheralIndex : mPeripheralIndexes) {
+                peripheralIndex.clear();
+            }
+
+            // The spill writer resets the file, once it has written the chunk it could be writing
+            mClearsCount++;
+            mPendingSpillChunks.clear();
+            mPendingSpillSignal.release();
+            notifyPendingSpillChunksRemoved();
+        }
+    }
+
+    // Disables the spill file (if any). The spill writer closes and deletes it. Packets already spilled are no longer readable
+    public void release() {
+        synchronized (mAppendLock) {
+            mSpillFile = null;
+            mIsReleased = true;
+            mPendingSpillChunks.clear();
+            mPendingSpillSignal.release();
+            notifyPendingSpillChunksRemoved();
+        }
+    }
+
+    // First sequence that can be read (from memory or from the spill file)
+    public long getHeadSequence() {
+        // Read in the order packets move (memory, pending, file), so packets moved meanwhile are not missed
+        long headSequence = mHeadSequence;
+        final Chunk pendingChunk = mPendingSpillChunks.peek();
+        if (pendingChunk != null) {
+            headSequence = Math.min(headSequence, pendingChunk.spillStartSequence);
+        }
+        final UartPacketSpillFile spillFile = mSpillFile;
+        if (spillFile != null && spillFile.getEndSequence() > spillFile.getFirstSequence()) {
+            headSequence = Math.min(headSequence, spillFile.getFirstSequence());
+        }
+        return Math.max(headSequence, mClearedSequence);        // Read last: it is set before any other change of clear()
+    }
+
+    public long getMemoryHeadSequence() {
+        return mHeadSequence;
+    }
+
+    public long getMemoryBytes() {
+        synchronized (mAppendLock) {
+            return mBytes;
+        }
+    }
+
+    public long getTailSequence() {
+        return mTailSequence;
+    }
+
+    // Indexes
+    public @NonNull
+    Index getRxIndex() {
+        return mRxIndex;
+    }
+
+    public @NonNull
+    Index getTxIndex() {
+        return mTxIndex;
+    }
+
+    // Returns null if no packets have been received from the peripheral
+    public @Nullable
+    Index getPeripheralIndex(@NonNull String peripheralId) {
+        final String[] peripheralIds = mPeripheralIds;
+        final Index[] peripheralIndexes = mPeripheralIndexes;
+        for (int i = 0; i < Math.min(peripheralIds.length, peripheralIndexes.length); i++) {
+            if (peripheralId.equals(peripheralIds[i])) {
+                return peripheralIndexes[i];
+            }
+        }
+        return null;
+    }
+
+    // Note: creates a UartPacket. Use a Cursor to read packets without allocations
+    public @Nullable
+    UartPacket get(long sequence) {
+        final Cursor cursor = new Cursor();
+        return cursor.moveTo(sequence) ? cursor.toPacket() : null;
+    }
+
+    public @NonNull
+    Snapshot snapshot() {
+        final long tailSequence = mTailSequence;
+        final long headSequence = Math.min(getHeadSequence(), tailSequence);       // The head could have been moved after reading the tail
+        return new Snapshot(headSequence, tailSequence);
+    }
+
+    private @Nullable
+    Chunk chunkForSequence(long sequence) {
+        final Chunk chunk = mChunks.get(chunkSlot(sequence));
+        return chunk != null && chunk.firstSequence == (sequence & ~kChunkMask) ? chunk : null;        // The slot could have been reused by a newer chunk
+    }
+
+    private int chunkSlot(long sequence) {
+        return (int) (chunkNumber(sequence) & mChunksMask);
+    }
+
+    private static long chunkNumber(long sequence) {
+        return sequence >> kChunkShift;
+    }
+
+    private int peripheralIndex(@Nullable String peripheralId) {
+        if (peripheralId == null) {
+            return kNoPeripheralIndex;
+        }
+
+        Integer peripheralIndex = mPeripheralIndices.get(peripheralId);
+        if (peripheralIndex == null) {
+            final String[] peripheralIds = Arrays.copyOf(mPeripheralIds, mPeripheralIds.length + 1);
+            peripheralIndex = peripheralIds.length - 1;
+            peripheralIds[peripheralIndex] = peripheralId;
+            final Index[] peripheralIndexes = Arrays.copyOf(mPeripheralIndexes, peripheralIds.length);
+            peripheralIndexes[peripheralIndex] = new Index();
+            mPeripheralIndexes = peripheralIndexes;
+            mPeripheralIds = peripheralIds;          // Published before the packet that uses it
+            mPeripheralIndices.put(peripheralId, peripheralIndex);
+        }
+        return peripheralIndex;
+    }
+
+    private @Nullable
+    String peripheralId(int peripheralIndex) {
+        return peripheralIndex == kNoPeripheralIndex ? null : mPeripheralIds[peripheralIndex];
+    }
+
+    private static class Chunk {
+        final long firstSequence;
+        final long[] timestamps = new long[kPacketsPerChunk];
+        final byte[] modes = new byte[kPacketsPerChunk];
+        final int[] peripheralIndices = new int[kPacketsPerChunk];
+        final int[] dataOffsets = new int[kPacketsPerChunk + 1];         // Data for packet i is in arena, from dataOffsets[i] to dataOffsets[i+1]
+        volatile byte[] arena;
+        long spillStartSequence, spillEndSequence;          // Packets to spill once evicted. Set before publishing it in the pending queue
+        int spillClearsCount;                               // Clears done before it was evicted
+
+        Chunk(long firstSequence, int arenaBytes) {
+            this.firstSequence = firstSequence;
+            this.arena = new byte[arenaBytes];
+        }
+
+        long getBytes() {
+            return estimatedBytes(arena.length);
+        }
+
+        static long estimatedBytes(int arenaBytes) {
+            return (long) kPacketsPerChunk * (8 + 1 + 4 + 4) + arenaBytes;
+        }
+    }
+
+    // Flyweight accessor: move it to a sequence and read the packet fields without creating objects.
+    // The packet data is in getDataArray(), from getDataOffset() to getDataOffset() + getDataLength()
+    public class Cursor {
+        private long mSequence = -1;
+        private Chunk mChunk;
+        private byte[] mArena;
+        private int mIndex;
+        private UartPacket mSpilledPacket;          // Packets read from the spill file are materialized
+
+        // Returns false if the packet is not stored (not appended yet, or evicted and not spilled)
+        public boolean moveTo(long sequence) {
+            if (moveToMemory(sequence)) {
+                return true;
+            }
+            if (sequence < mClearedSequence || sequence >= mTailSequence) {
+                return false;
+            }
+
+            final UartPacketSpillFile spillFile = mSpillFile;
+            if (spillFile != null) {
+                mSpilledPacket = spillFile.read(sequence);
+                if (mSpilledPacket != null) {
+                    mSequence = sequence;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Like moveTo, but returns false if the packet is only in the spill file (it never reads the disk)
+        public boolean moveToMemory(long sequence) {
+            mChunk = null;
+            mArena = null;
+            mSpilledPacket = null;
+            mSequence = -1;
+
+            if (sequence >= mHeadSequence && sequence < mTailSequence) {
+                final Chunk chunk = chunkForSequence(sequence);
+                if (chunk != null && sequence >= mHeadSequence) {       // Check the head again: if the chunk was evicted meanwhile the packet is pending to be spilled or in the spill file
+                    setChunk(chunk, sequence);
+                    return true;
+                }
+            }
+
+            // Evicted chunks are checked after the head (they are queued before moving it) and before the file (they are removed after being written)
+            if (sequence >= mClearedSequence && sequence < mTailSequence) {
+                for (Chunk chunk : mPendingSpillChunks) {
+                    if (sequence >= chunk.spillStartSequence && sequence < chunk.spillEndSequence) {
+                        setChunk(chunk, sequence);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void setChunk(@NonNull Chunk chunk, long sequence) {
+            mChunk = chunk;
+            mArena = chunk.arena;           // Read after the tail, so it contains the published data
+            mIndex = (int) (sequence & kChunkMask);
+            mSequence = sequence;
+        }
+
+        public long getSequence() {
+            return mSequence;
+        }
+
+        public long getTimestamp() {
+            return mChunk != null ? mChunk.timestamps[mIndex] : mSpilledPacket.getTimestamp();
+        }
+
+        public int getMode() {
+            return mChunk != null ? mChunk.modes[mIndex] : mSpilledPacket.getMode();
+        }
+
+        public @Nullable
+        String getPeripheralId() {
+            return mChunk != null ? peripheralId(mChunk.peripheralIndices[mIndex]) : mSpilledPacket.getPeripheralId();
+        }
+
+        public @NonNull
+        byte[] getDataArray() {
+            return mChunk != null ? mArena : mSpilledPacket.getData();
+        }
+
+        public int getDataOffset() {
+            return mChunk != null ? mChunk.dataOffsets[mIndex] : 0;
+        }
+
+        public int getDataLength() {
+            return mChunk != null ? mChunk.dataOffsets[mIndex + 1] - mChunk.dataOffsets[mIndex] : mSpilledPacket.getData().length;
+        }
+
+        public void copyData(@NonNull byte[] destination, int destinationOffset) {
+            System.arraycopy(getDataArray(), getDataOffset(), destination, destinationOffset, getDataLength());
+        }
+
+        public @NonNull
+        UartPacket toPacket() {
+            if (mSpilledPacket != null) {
+                return mSpilledPacket;
+            }
+            final int dataOffset = getDataOffset();
+            final byte[] data = Arrays.copyOfRange(mArena, dataOffset, dataOffset + getDataLength());
+            return new UartPacket(getPeripheralId(), getTimestamp(), getMode(), data);
+        }
+    }
+
+    // Sequences of the packets that match a filter, in order. Readers address them by position: positions only grow (like sequences), and [getStartPosition, getEndPosition) are the ones that can be read.
+    // It grows up to the store capacity, and then only the latest positions are kept. Single writer (the store append), lock-free readers
+    public class Index {
+        private final int mCapacity;
+        private volatile long[] mSequences = new long[kIndexInitialCapacity];         // Position p is at p % length. Replaced when it grows
+        private volatile long mEndPosition = 0;
+        private volatile long mClearedPosition = 0;                                     // Positions before it were removed by clear()
+
+        Index() {
+            int capacity = kIndexInitialCapacity;
+            while (capacity < getCapacity()) {
+                capacity <<= 1;
+            }
+            mCapacity = capacity;
+        }
+
+        // Only called by the producer
+        void add(long sequence) {
+            final long position = mEndPosition;
+            long[] sequences = mSequences;
+            if (position == sequences.length && sequences.length < mCapacity) {
+                sequences = Arrays.copyOf(sequences, sequences.length * 2);
+                mSequences = sequences;         // Published before the position that needs it
+            }
+            sequences[(int) (position & (sequences.length - 1))] = sequence;
+            mEndPosition = position + 1;
+        }
+
+        void clear() {
+            mClearedPosition = mEndPosition;
+        }
+
+        // First position whose packet is still stored (in memory or in the spill file)
+        public long getStartPosition() {
+            return startPosition(getHeadSequence());
+        }
+
+        // First position whose packet is still in memory
+        public long getMemoryStartPosition() {
+            return startPosition(getMemoryHeadSequence());
+        }
+
+        private long startPosition(long headSequence) {
+            final long endPosition = mEndPosition;
+            final long[] sequences = mSequences;           // Read after the end position, so it contains all the positions before it
+            final int mask = sequences.length - 1;
+
+            // Sequences are sorted: binary search the first one that has not been evicted
+            long low = Math.max(mClearedPosition, endPosition - sequences.length);
+            long high = endPosition;
+            while (low < high) {
+                final long middle = (low + high) >>> 1;
+                if (sequences[(int) (middle & mask)] < headSequence) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        public long getEndPosition() {
+            return mEndPosition;
+        }
+
+        // Returns the sequence of the packet at position, or -1 if the position is not kept
+        public long getSequence(long position) {
+            final long endPosition = mEndPosition;
+            final long[] sequences = mSequences;
+            if (position < 0 || position >= endPosition) {
+                return -1;
+            }
+            final long sequence = sequences[(int) (position & (sequences.length - 1))];
+            return position >= Math.max(mClearedPosition, mEndPosition - sequences.length) ? sequence : -1;     // Check again: it could have been overwritten while reading it
+        }
+    }
+
+    // Immutable view of the sequences stored when it was taken. Packets evicted after taking the snapshot are read from the spill file or returned as null
+    public class Snapshot extends AbstractList<UartPacket> {
+        private final long mStartSequence;
+        private final long mEndSequence;
+
+        Snapshot(long startSequence, long endSequence) {
+            mStartSequence = startSequence;
+            mEndSequence = endSequence;
+        }
+
+        public long getStartSequence() {
+            return mStartSequence;
+        }
+
+        public long getEndSequence() {
+            return mEndSequence;
+        }
+
+        @Override
+        public @Nullable
+        UartPacket get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return UartPacketStore.this.get(mStartSequence + index);
+        }
+
+        @Override
+        public int size() {
+            return (int) (mEndSequence - mStartSequence);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -59,6 +60,7 @@ public class BlePeripheral {
     private final static boolean kForceWriteWithResponse = false;                    // Possible Android bug?: writing without response still calls onCharacteristicWrite
     private final static boolean kForceWriteWithoutResponse = true;                  // Force without response, or take into account that write response (onCharacteristicWrite) could be reported AFTER onCharacteristicChanged on expecting a response
     private static boolean kHackToAvoidProblemsWhenWriteIsReceivedBeforeChangedOnWriteWithResponse = true;   // On Android when writing on a characteristic with writetype WRITE_TYPE_DEFAULT, onCharacteristicChanged (when a response is expected) can be called before onCharacteristicWrite. This weird behaviour has to be taken into account!!
+    private final static byte[] kEmptyValue = new byte[0];
 
     // Data
     private ScanResult mScanResult;
@@ -68,6 +70,7 @@ public class BlePeripheral {
     private int mConnectionState = STATE_DISCONNECTED;
     private CommandQueue mCommmandQueue = new CommandQueue();
     private Map<String, NotifyHandler> mNotifyHandlers = new HashMap<>();
+    private final RxPayloadPool mRxPayloadPool = new RxPayloadPool(RxPayloadPool.kDefaultPoolSize);
     private List<CaptureReadHandler> mCaptureReadHandlers = new ArrayList<>();
 
     private int mRssi = 0;
@@ -143,6 +146,8 @@ public class BlePeripheral {
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicChanged(gatt, characteristic);
+            final long timestamp = SystemClock.elapsedRealtimeNanos();
+            final byte[] value = characteristic.getValue();         // Read it only once: the characteristic value is replaced by the next notification
             Log.d(TAG, "onCharacteristicChanged. numCaptureReadHandlers: " + mCaptureReadHandlers.size());
 
             final String identifier = getCharacteristicIdentifier(characteristic);
@@ -166,7 +171,6 @@ public class BlePeripheral {
                     captureReadHandler.mTimeoutTimer = null;
                 }
                 // Send result
-                byte[] value = characteristic.getValue();
                 Log.d(TAG, "onCharacteristicChanged: send result to captureReadHandler:" + BleUtils.bytesToHex2(value));
                 captureReadHandler.mResult.read(status, value);
 
@@ -177,7 +181,9 @@ public class BlePeripheral {
             if (!isNotifyOmitted) {
                 NotifyHandler notifyHandler = mNotifyHandlers.get(identifier);
                 if (notifyHandler != null) {
-                    notifyHandler.notify(status);
+                    final RxPayloadPool.RxPayload payload = mRxPayloadPool.acquire(value != null ? value : kEmptyValue, status, timestamp);        // Handlers are called also without value, to receive the status
+                    notifyHandler.notify(status, payload);
+                    payload.release();
                 }
             }
 
@@ -535,6 +541,12 @@ public class BlePeripheral {
         mCommmandQueue.add(command);
     }
 
+    // Payload pool used to capture notifications (exposed for diagnostics)
+    public @NonNull
+    RxPayloadPool getRxPayloadPool() {
+        return mRxPayloadPool;
+    }
+
     public void characteristicUpdateNotify(@NonNull final BluetoothGattCharacteristic characteristic, NotifyHandler notifyHandler) {
         final String identifier = getCharacteristicIdentifier(characteristic);
         NotifyHandler previousNotifyHandler = mNotifyHandlers.put(identifier, notifyHandler);
@@ -707,7 +719,7 @@ public class BlePeripheral {
     }
 
     public interface NotifyHandler {
-        void notify(int status);
+        void notify(int status, @NonNull RxPayloadPool.RxPayload payload);        // payload is recycled after the call returns. Use payload.retain() to keep it (and release() when done)
     }
 
     public interface DataReadHandler {
@@ -68,7 +68,7 @@ public class BlePeripheralBattery {
         });
 
         // Enable notifications to receive value changes
-        mBlePeripheral.characteristicEnableNotify(batteryCharacteristic, status -> {
+        mBlePeripheral.characteristicEnableNotify(batteryCharacteristic, (status, payload) -> {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 mCurrentBatteryLevel = getBatteryLevel(batteryCharacteristic);
                 updateHandler.onBatteryLevelChanged(mCurrentBatteryLevel);
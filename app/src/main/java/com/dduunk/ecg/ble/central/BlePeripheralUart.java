@@ -9,7 +9,6 @@ import android.util.Log;
 
 import com.dduunk.ecg.ble.BleUtils;
 
-import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -29,7 +28,7 @@ public class BlePeripheralUart {
 
     // Interfaces
     public interface UartRxHandler {
-        void onRxDataReceived(@NonNull byte[] data, @Nullable String identifier, int status);
+        void onRxDataReceived(@NonNull byte[] data, int length, @Nullable String identifier, int status, long timestamp);        // Only the first length bytes of data are valid, and only during the call (the buffer is recycled). timestamp: SystemClock.elapsedRealtimeNanos() when the data was received
     }
 
     // Data
@@ -38,6 +37,7 @@ public class BlePeripheralUart {
     private BluetoothGattCharacteristic mUartTxCharacteristic;
     private BluetoothGattCharacteristic mUartRxCharacteristic;
     private int mUartTxCharacteristicWriteType;
+    private UartRxIngest mUartRxIngest;
 
     public BlePeripheralUart(@NonNull BlePeripheral blePeripheral) {
         super();
@@ -45,6 +45,11 @@ public class BlePeripheralUart {
     }
 
     public void uartEnable(@Nullable UartRxHandler uartRxHandler, @Nullable BlePeripheral.CompletionHandler completionHandler) {
+        uartEnable(uartRxHandler, UartRxIngest.kDefaultQueueCapacity, UartRxIngest.BACKPRESSURE_BLOCK, completionHandler);
+    }
+
+    // The rx handler is called from a worker thread. ingestQueueCapacity and backpressurePolicy (UartRxIngest.BACKPRESSURE_*) define what happens when the handler can't keep up with the data received
+    public void uartEnable(@Nullable UartRxHandler uartRxHandler, int ingestQueueCapacity, int backpressurePolicy, @Nullable BlePeripheral.CompletionHandler completionHandler) {
         // Get uart communications characteristic
         mUartTxCharacteristic = mBlePeripheral.getCharacteristic(kUartTxCharacteristicUUID, kUartServiceUUID);
         mUartRxCharacteristic = mBlePeripheral.getCharacteristic(kUartRxCharacteristicUUID, kUartServiceUUID);
@@ -52,24 +57,25 @@ public class BlePeripheralUart {
             Log.d(TAG, "Uart Enable for: " + getName());
             mUartTxCharacteristicWriteType = mUartTxCharacteristic.getWriteType();
             // Prepare notification handler
-            WeakReference<UartRxHandler> weakUartRxHandler = new WeakReference<>(uartRxHandler);
             final String identifier = mBlePeripheral.getIdentifier();
-            BlePeripheral.NotifyHandler notifyHandler = uartRxHandler == null ? null : status -> {
-                UartRxHandler handler = weakUartRxHandler.get();
-                if (handler != null) {
-                    byte[] data = mUartRxCharacteristic.getValue();
-                    handler.onRxDataReceived(data, identifier, status);
-                }
-            };
+            stopRxIngest();
+            final UartRxIngest uartRxIngest = uartRxHandler == null ? null : new UartRxIngest(identifier, uartRxHandler, ingestQueueCapacity, backpressurePolicy);        // Note: it keeps a weak reference to uartRxHandler
+            mUartRxIngest = uartRxIngest;
+            BlePeripheral.NotifyHandler notifyHandler = null;
+            if (uartRxIngest != null) {
+                uartRxIngest.start();
+                notifyHandler = (status, payload) -> uartRxIngest.onRxPayloadReceived(payload);
+            }
+            final BlePeripheral.NotifyHandler finalNotifyHandler = notifyHandler;
 
             // Check if already notifying (read client characteristic config descriptor to check it)
             mBlePeripheral.readDescriptor(mUartRxCharacteristic, BlePeripheral.kClientCharacteristicConfigUUID, status -> {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     // Enable notifications
                     if (!BlePeripheral.isCharacteristicNotifyingForCachedClientConfigDescriptor(mUartRxCharacteristic)) {
-                        mBlePeripheral.characteristicEnableNotify(mUartRxCharacteristic, notifyHandler, completionHandler);
+                        mBlePeripheral.characteristicEnableNotify(mUartRxCharacteristic, finalNotifyHandler, completionHandler);
                     } else {
-                        mBlePeripheral.characteristicUpdateNotify(mUartRxCharacteristic, notifyHandler);
+                        mBlePeripheral.characteristicUpdateNotify(mUartRxCharacteristic, finalNotifyHandler);
                         if (completionHandler != null) {
                             completionHandler.completion(BluetoothGatt.GATT_SUCCESS);
                         }
@@ -93,11 +99,26 @@ public class BlePeripheralUart {
             Log.d(TAG, "Uart Disable");
             mBlePeripheral.characteristicDisableNotify(mUartRxCharacteristic, null);
         }
+        stopRxIngest();
+
         // Clear all Uart specific data
         mUartRxCharacteristic = null;
         mUartTxCharacteristic = null;
     }
 
+    private void stopRxIngest() {
+        if (mUartRxIngest != null) {
+            mUartRxIngest.stop();
+            mUartRxIngest = null;
+        }
+    }
+
+    // Queue depth and drop counters for the rx data. null if uart is not enabled
+    public @Nullable
+    UartRxIngest getRxIngest() {
+        return mUartRxIngest;
+    }
+
     public void disconnect() {
         mBlePeripheral.disconnect();
     }
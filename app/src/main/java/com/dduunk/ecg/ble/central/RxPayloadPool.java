@@ -0,0 +1,117 @@
+package com.dduunk.ecg.ble.central;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Recycled buffers for notification payloads. Each notification value is copied once (in the gatt callback) into a payload taken from the pool.
+// Payloads are reference counted: consumers that keep a payload after the notify call has returned must retain() it and release() it when done. It goes back to the pool when the last reference is released
+public class RxPayloadPool {
+
+    // Log
+    private final static String TAG = RxPayloadPool.class.getSimpleName();
+
+    // Config
+    public final static int kDefaultPoolSize = 512;
+    private final static int kMinPayloadCapacity = 64;
+
+    // Data
+    private final ArrayBlockingQueue<RxPayload> mFreePayloads;
+    private final AtomicLong mAllocatedCount = new AtomicLong();
+    private final AtomicLong mAcquiredCount = new AtomicLong();
+
+    public RxPayloadPool(int poolSize) {
+        mFreePayloads = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    // Copies value into a payload with a reference count of 1
+    public @NonNull
+    RxPayload acquire(@NonNull byte[] value, int status, long timestamp) {
+        mAcquiredCount.incrementAndGet();
+        RxPayload payload = mFreePayloads.poll();
+        if (payload == null) {          // Pool exhausted: consumers are keeping more payloads than the pool size
+            mAllocatedCount.incrementAndGet();
+            payload = new RxPayload(this, Math.max(kMinPayloadCapacity, value.length));
+        }
+        payload.set(value, status, timestamp);
+        return payload;
+    }
+
+    // Number of payloads created (if it keeps growing, the pool is too small for the consumers)
+    public long getAllocatedCount() {
+        return mAllocatedCount.get();
+    }
+
+    public long getAcquiredCount() {
+        return mAcquiredCount.get();
+    }
+
+    public int getFreeCount() {
+        return mFreePayloads.size();
+    }
+
+    private void recycle(@NonNull RxPayload payload) {
+        mFreePayloads.offer(payload);       // If the pool is full, the payload is left to the garbage collector
+    }
+
+    public static class RxPayload {
+        private final RxPayloadPool mPool;
+        private final AtomicInteger mReferenceCount = new AtomicInteger();
+        private byte[] mData;
+        private int mLength;
+        private int mStatus;
+        private long mTimestamp;
+
+        RxPayload(@NonNull RxPayloadPool pool, int capacity) {
+            mPool = pool;
+            mData = new byte[capacity];
+        }
+
+        void set(@NonNull byte[] value, int status, long timestamp) {
+            if (mData.length < value.length) {
+                mData = new byte[value.length];
+            }
+            System.arraycopy(value, 0, mData, 0, value.length);
+            mLength = value.length;
+            mStatus = status;
+            mTimestamp = timestamp;
+            mReferenceCount.set(1);
+        }
+
+        // Valid bytes are from 0 to getLength(). The array is reused once the payload is released
+        public @NonNull
+        byte[] getData() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        public int getStatus() {
+            return mStatus;
+        }
+
+        // SystemClock.elapsedRealtimeNanos() when the notification was received
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public void retain() {
+            mReferenceCount.incrementAndGet();
+        }
+
+        public void release() {
+            final int referenceCount = mReferenceCount.decrementAndGet();
+            if (referenceCount == 0) {
+                mPool.recycle(this);
+            } else if (referenceCount < 0) {
+                Log.w(TAG, "RxPayload released more times than retained");
+                mReferenceCount.set(0);
+            }
+        }
+    }
+}
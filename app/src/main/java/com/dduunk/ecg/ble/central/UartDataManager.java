@@ -6,7 +6,9 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.Arrays;
+import com.dduunk.ecg.ble.ByteRingBuffer;
+import com.dduunk.ecg.utils.LatencyTracer;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
@@ -19,7 +21,7 @@ public class UartDataManager implements BlePeripheralUart.UartRxHandler {
 
     // Listener
     public interface UartDataManagerListener {
-        void onUartRx(@NonNull byte[] data, @Nullable String peripheralIdentifier);  // data contents depends on the isRxCacheEnabled flag
+        void onUartRx(@NonNull ByteRingBuffer rxData, @Nullable String peripheralIdentifier, long timestamp);  // rxData contents depends on the isRxCacheEnabled flag. It can be consumed directly (or with removeRxCacheFirst) and is only valid during the call. timestamp: SystemClock.elapsedRealtimeNanos() when the latest data was received
     }
 
     // Data
@@ -27,7 +29,7 @@ public class UartDataManager implements BlePeripheralUart.UartRxHandler {
 
     private UartDataManagerListener mListener;
 
-    private Map<String, byte[]> mRxDatas = new HashMap<>();
+    private Map<String, ByteRingBuffer> mRxDatas = new HashMap<>();
     private Semaphore mRxDataSemaphore = new Semaphore(1, true);
 
     public UartDataManager(@NonNull Context context, @Nullable UartDataManagerListener listener, boolean isRxCacheEnabled) {     // Is enabled automatically. Call setEnabled(false) to release internal receiver
@@ -51,25 +53,23 @@ public class UartDataManager implements BlePeripheralUart.UartRxHandler {
     }
 
     public void clearRxCache(@Nullable String peripheralIdentifier) {
-        mRxDatas.remove(peripheralIdentifier);
+        final ByteRingBuffer rxData = mRxDatas.get(peripheralIdentifier);
+        if (rxData != null) {
+            rxData.clear();
+        }
     }
 
     public void removeRxCacheFirst(int n, @Nullable String peripheralIdentifier) {
-        final byte[] rxData = mRxDatas.get(peripheralIdentifier);
+        final ByteRingBuffer rxData = mRxDatas.get(peripheralIdentifier);
         if (rxData != null) {
-            if (n < rxData.length) {
-                final byte[] data = Arrays.copyOfRange(rxData, n, rxData.length);
-                mRxDatas.put(peripheralIdentifier, data);
-            } else {
-                clearRxCache(peripheralIdentifier);
-            }
+            rxData.consume(n);
         }
     }
 
     @SuppressWarnings("unused")
     public void flushRxCache(@Nullable String peripheralIdentifier) {
-        final byte[] rxData = mRxDatas.get(peripheralIdentifier);
-        if (rxData != null && rxData.length > 0) {
+        final ByteRingBuffer rxData = mRxDatas.get(peripheralIdentifier);
+        if (rxData != null && rxData.size() > 0) {
             try {
                 mRxDataSemaphore.acquire();
             } catch (InterruptedException e) {
@@ -77,7 +77,7 @@ public class UartDataManager implements BlePeripheralUart.UartRxHandler {
             }
 
             if (mListener != null) {
-                mListener.onUartRx(rxData, peripheralIdentifier);
+                mListener.onUartRx(rxData, peripheralIdentifier, 0);          // No new data received: no timestamp
             }
             mRxDataSemaphore.release();
         }
@@ -88,37 +88,34 @@ public class UartDataManager implements BlePeripheralUart.UartRxHandler {
     }
 
     @Override
-    public void onRxDataReceived(@NonNull byte[] data, @Nullable String identifier, int status) {
+    public void onRxDataReceived(@NonNull byte[] data, int length, @Nullable String identifier, int status, long timestamp) {
         if (status != BluetoothGatt.GATT_SUCCESS) {
             return;
         }
 
-        if (mIsRxCacheEnabled) {
-            try {
-                mRxDataSemaphore.acquire();
-            } catch (InterruptedException e) {
-                Log.w(TAG, "InterruptedException: " + e.toString());
-            }
+        try {
+            mRxDataSemaphore.acquire();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "InterruptedException: " + e.toString());
+        }
 
-            // Append new data to previous data
-            final byte[] previousData = mRxDatas.get(identifier);
-            final int previousDataLength = previousData == null ? 0 : previousData.length;
-            byte[] destinationData = new byte[previousDataLength + data.length];
-            if (previousData != null) {
-                System.arraycopy(previousData, 0, destinationData, 0, previousDataLength);
-            }
-            System.arraycopy(data, 0, destinationData, previousDataLength, data.length);
-            mRxDatas.put(identifier, destinationData);
+        // Append new data to previous data
+        ByteRingBuffer rxData = mRxDatas.get(identifier);
+        if (rxData == null) {
+            rxData = new ByteRingBuffer();
+            mRxDatas.put(identifier, rxData);
+        }
+        rxData.append(data, 0, length);
+        LatencyTracer.getInstance().record(LatencyTracer.STAGE_INGEST, timestamp);
 
-            // Send data to delegate
-            if (mListener != null) {
-                mListener.onUartRx(destinationData, identifier);
-            }
-            mRxDataSemaphore.release();
-        } else {
-            if (mListener != null) {
-                mListener.onUartRx(data, identifier);
-            }
+        // Send data to delegate
+        if (mListener != null) {
+            mListener.onUartRx(rxData, identifier, timestamp);
+        }
+
+        if (!mIsRxCacheEnabled) {
+            rxData.clear();         // Only the latest data is sent if the cache is not enabled
         }
+        mRxDataSemaphore.release();
     }
 }
\ No newline at end of file
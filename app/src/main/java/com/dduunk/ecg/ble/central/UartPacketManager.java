@@ -3,7 +3,6 @@ package com.dduunk.ecg.ble.central;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 import com.dduunk.ecg.ble.UartPacket;
 import com.dduunk.ecg.ble.UartPacketManagerBase;
@@ -22,18 +21,28 @@ public class UartPacketManager extends UartPacketManagerBase {
 
     }
 
+    public UartPacketManager(@NonNull Context context, @Nullable UartPacketManagerBase.Listener listener, boolean isPacketCacheEnabled, @Nullable MqttManager mqttManager, long packetsCacheMaxBytes, boolean isPacketsCacheSpillEnabled) {
+        super(context, listener, isPacketCacheEnabled, mqttManager, packetsCacheMaxBytes, isPacketsCacheSpillEnabled);
+    }
+
     public void send(@NonNull BlePeripheralUart uartPeripheral, @NonNull byte[] data, BlePeripheral.CompletionHandler completionHandler) {
-        mSentBytes += data.length;
-        uartPeripheral.uartSend(data, completionHandler);
+        final String peripheralId = uartPeripheral.getIdentifier();
+        onTx(peripheralId, data.length, true);
+        uartPeripheral.uartSend(data, status -> {
+            onTxCompleted(peripheralId, data.length);
+            if (completionHandler != null) {
+                completionHandler.completion(status);
+            }
+        });
     }
 
     public void sendAndWaitReply(@NonNull BlePeripheralUart uartPeripheral, @NonNull byte[] data, @NonNull BlePeripheral.CaptureReadCompletionHandler readCompletionHandler) {
-        mSentBytes += data.length;
+        onTx(uartPeripheral.getIdentifier(), data.length, false);         // Not tracked as pending: the write completion can't be wrapped without changing how errors are reported to readCompletionHandler
         uartPeripheral.uartSendAndWaitReply(data, null, readCompletionHandler);
     }
 
     public void sendAndWaitReply(@NonNull BlePeripheralUart uartPeripheral, @NonNull byte[] data, @Nullable BlePeripheral.CompletionHandler writeCompletionHandler, int readTimeout, @NonNull BlePeripheral.CaptureReadCompletionHandler readCompletionHandler) {
-        mSentBytes += data.length;
+        onTx(uartPeripheral.getIdentifier(), data.length, false);
         uartPeripheral.uartSendAndWaitReply(data, writeCompletionHandler, readTimeout, readCompletionHandler);
     }
 
@@ -57,18 +66,8 @@ public class UartPacketManager extends UartPacketManagerBase {
         byte[] data = text.getBytes(Charset.forName("UTF-8"));
         UartPacket uartPacket = new UartPacket(uartPeripheral.getIdentifier(), UartPacket.TRANSFERMODE_TX, data);
 
-        try {
-            mPacketsSemaphore.acquire();        // don't append more data, till the delegate has finished processing it
-        } catch (InterruptedException e) {
-            Log.w(TAG, "InterruptedException: " + e.toString());
-        }
-        mPacketsSemaphore.release();
-
-        Listener listener = mWeakListener.get();
-        mPackets.add(uartPacket);
-        if (listener != null) {
-            mMainHandler.post(() -> listener.onUartPacket(uartPacket));
-        }
+        mPackets.append(uartPacket);
+        notifyPacket();
 
         final boolean isMqttEnabled = mMqttManager != null;
         final boolean shouldBeSent = !wasReceivedFromMqtt || (isMqttEnabled && MqttSettings.getSubscribeBehaviour(mContext) == MqttSettings.kSubscribeBehaviour_Transmit);
@@ -0,0 +1,148 @@
+package com.dduunk.ecg.ble.central;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Moves uart rx processing out of the bluetooth callback thread: each payload (already captured in a pooled buffer) is retained and queued to a worker thread (one per peripheral) that calls the downstream handler and releases it
+public class UartRxIngest {
+
+    // Log
+    private final static String TAG = UartRxIngest.class.getSimpleName();
+
+    // Constants
+    public final static int BACKPRESSURE_BLOCK = 0;             // Wait until there is space in the queue. Lossless, but the callback thread is delayed if the worker falls behind
+    public final static int BACKPRESSURE_DROP_OLDEST = 1;       // Discard the oldest queued payload to make room
+    public final static int BACKPRESSURE_DROP_NEWEST = 2;       // Discard the payload received
+
+    // Config
+    public final static int kDefaultQueueCapacity = 256;
+
+    // Data
+    private final ArrayBlockingQueue<RxPayloadPool.RxPayload> mQueue;
+    private final String mIdentifier;
+    private final int mBackpressurePolicy;
+    private final WeakReference<BlePeripheralUart.UartRxHandler> mWeakHandler;
+    private final Thread mWorkerThread;
+    private volatile boolean mIsRunning = false;
+
+    private final AtomicLong mReceivedCount = new AtomicLong();
+    private final AtomicLong mProcessedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private volatile int mMaxQueueDepth = 0;
+
+    public UartRxIngest(@NonNull String identifier, @NonNull BlePeripheralUart.UartRxHandler handler, int queueCapacity, int backpressurePolicy) {
+        mQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        mIdentifier = identifier;
+        mBackpressurePolicy = backpressurePolicy;
+        mWeakHandler = new WeakReference<>(handler);
+        mWorkerThread = new Thread(this::processQueue, "UartRxIngest-" + identifier);
+    }
+
+    public void start() {
+        mIsRunning = true;
+        mWorkerThread.start();
+    }
+
+    // Stops the worker. Payloads still queued are discarded
+    public void stop() {
+        mIsRunning = false;
+        mWorkerThread.interrupt();
+        RxPayloadPool.RxPayload payload;
+        while ((payload = mQueue.poll()) != null) {
+            payload.release();
+        }
+    }
+
+    public int getBackpressurePolicy() {
+        return mBackpressurePolicy;
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public long getReceivedCount() {
+        return mReceivedCount.get();
+    }
+
+    public long getProcessedCount() {
+        return mProcessedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    // Called from the bluetooth callback thread
+    public void onRxPayloadReceived(@NonNull RxPayloadPool.RxPayload payload) {
+        if (!mIsRunning) {
+            return;
+        }
+
+        mReceivedCount.incrementAndGet();
+        payload.retain();           // Released by the worker (or when dropped)
+        switch (mBackpressurePolicy) {
+            case BACKPRESSURE_DROP_OLDEST:
+                while (!mQueue.offer(payload)) {
+                    final RxPayloadPool.RxPayload droppedPayload = mQueue.poll();
+                    if (droppedPayload != null) {
+                        droppedPayload.release();
+                        mDroppedCount.incrementAndGet();
+                    }
+                }
+                break;
+
+            case BACKPRESSURE_DROP_NEWEST:
+                if (!mQueue.offer(payload)) {
+                    payload.release();
+                    mDroppedCount.incrementAndGet();
+                }
+                break;
+
+            default:
+                try {
+                    mQueue.put(payload);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "InterruptedException: " + e.toString());
+                    payload.release();
+                    mDroppedCount.incrementAndGet();
+                }
+                break;
+        }
+
+        final int queueDepth = mQueue.size();
+        if (queueDepth > mMaxQueueDepth) {
+            mMaxQueueDepth = queueDepth;
+        }
+    }
+
+    private void processQueue() {
+        while (mIsRunning) {
+            final RxPayloadPool.RxPayload payload;
+            try {
+                payload = mQueue.take();
+            } catch (InterruptedException e) {
+                break;      // Stopped
+            }
+
+            try {
+                final BlePeripheralUart.UartRxHandler handler = mWeakHandler.get();
+                if (handler != null) {
+                    handler.onRxDataReceived(payload.getData(), payload.getLength(), mIdentifier, payload.getStatus(), payload.getTimestamp());
+                }
+            } finally {
+                payload.release();
+            }
+            mProcessedCount.incrementAndGet();
+        }
+        Log.d(TAG, "Worker finished: " + Thread.currentThread().getName());
+    }
+}
@@ -3,7 +3,6 @@ package com.dduunk.ecg.ble.peripheral;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
 import com.dduunk.ecg.ble.UartPacket;
 import com.dduunk.ecg.ble.UartPacketManagerBase;
@@ -21,8 +20,12 @@ public class UartPeripheralModePacketManager extends UartPacketManagerBase {
         super(context, listener, isPacketCacheEnabled, mqttManager);
     }
 
+    public UartPeripheralModePacketManager(@NonNull Context context, @Nullable Listener listener, boolean isPacketCacheEnabled, @Nullable MqttManager mqttManager, long packetsCacheMaxBytes, boolean isPacketsCacheSpillEnabled) {
+        super(context, listener, isPacketCacheEnabled, mqttManager, packetsCacheMaxBytes, isPacketsCacheSpillEnabled);
+    }
+
     public void send(@NonNull UartPeripheralService uartPeripheralService, @NonNull byte[] data/*, BlePeripheral.UpdateDatabaseCompletionHandler completionHandler*/) {
-        mSentBytes += data.length;
+        onTx(null, data.length, false);
         uartPeripheralService.setRx(data);
     }
 
@@ -42,18 +45,8 @@ public class UartPeripheralModePacketManager extends UartPacketManagerBase {
         byte[] data = text.getBytes(Charset.forName("UTF-8"));
         UartPacket uartPacket = new UartPacket(null, UartPacket.TRANSFERMODE_TX, data);
 
-        try {
-            mPacketsSemaphore.acquire();        // don't append more data, till the delegate has finished processing it
-        } catch (InterruptedException e) {
-            Log.w(TAG, "InterruptedException: " + e.toString());
-        }
-        mPackets.add(uartPacket);
-        mPacketsSemaphore.release();
-
-        Listener listener = mWeakListener.get();
-        if (listener != null) {
-            mMainHandler.post(() -> listener.onUartPacket(uartPacket));
-        }
+        mPackets.append(uartPacket);
+        notifyPacket();
 
         final boolean isMqttEnabled = mMqttManager != null;
         final boolean shouldBeSent = !wasReceivedFromMqtt || (isMqttEnabled && MqttSettings.getSubscribeBehaviour(mContext) == MqttSettings.kSubscribeBehaviour_Transmit);
@@ -0,0 +1,59 @@
+package com.dduunk.ecg.signal;
+
+// Coefficients of a second order IIR section (normalized so a0 = 1). Designed with the formulas of the RBJ Audio EQ Cookbook
+public class Biquad {
+
+    // Constants
+    private final static double kButterworthQ = 1 / Math.sqrt(2);
+
+    // Data
+    final double b0, b1, b2, a1, a2;
+
+    public Biquad(double b0, double b1, double b2, double a0, double a1, double a2) {
+        this.b0 = b0 / a0;
+        this.b1 = b1 / a0;
+        this.b2 = b2 / a0;
+        this.a1 = a1 / a0;
+        this.a2 = a2 / a0;
+    }
+
+    public static Biquad lowPass(double sampleRate, double cutoffFrequency) {
+        return lowPass(sampleRate, cutoffFrequency, kButterworthQ);
+    }
+
+    public static Biquad lowPass(double sampleRate, double cutoffFrequency, double q) {
+        final double w0 = 2 * Math.PI * cutoffFrequency / sampleRate;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return new Biquad((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    public static Biquad highPass(double sampleRate, double cutoffFrequency) {
+        return highPass(sampleRate, cutoffFrequency, kButterworthQ);
+    }
+
+    public static Biquad highPass(double sampleRate, double cutoffFrequency, double q) {
+        final double w0 = 2 * Math.PI * cutoffFrequency / sampleRate;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return new Biquad((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    // q: centerFrequency / bandwidth. Higher values give a narrower notch
+    public static Biquad notch(double sampleRate, double centerFrequency, double q) {
+        final double w0 = 2 * Math.PI * centerFrequency / sampleRate;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        return new Biquad(1, -2 * cos, 1, 1 + alpha, -2 * cos, 1 - alpha);
+    }
+
+    // Gain at frequency (for checking the design)
+    public double getMagnitude(double sampleRate, double frequency) {
+        final double w = 2 * Math.PI * frequency / sampleRate;
+        final double cos1 = Math.cos(w), sin1 = Math.sin(w);
+        final double cos2 = Math.cos(2 * w), sin2 = Math.sin(2 * w);
+        final double numeratorRe = b0 + b1 * cos1 + b2 * cos2, numeratorIm = -(b1 * sin1 + b2 * sin2);
+        final double denominatorRe = 1 + a1 * cos1 + a2 * cos2, denominatorIm = -(a1 * sin1 + a2 * sin2);
+        return Math.sqrt((numeratorRe * numeratorRe + numeratorIm * numeratorIm) / (denominatorRe * denominatorRe + denominatorIm * denominatorIm));
+    }
+}
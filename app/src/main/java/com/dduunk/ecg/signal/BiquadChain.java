@@ -0,0 +1,112 @@
+package com.dduunk.ecg.signal;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Cascade of biquad sections applied to several channels of a sample stream. Each channel keeps its own state (transposed direct form II) in a primitive array.
+// Blocks are filtered in place and no memory is allocated after creation. Not thread safe: use it from the thread that decodes the samples
+public class BiquadChain {
+
+    // Config
+    private final static double kNotchQ = 30;                       // ~1.7Hz bandwidth at 50Hz
+    private final static double kMaxCutoffFraction = 0.45;          // Sections with a frequency above this fraction of the sample rate are skipped
+
+    // Data
+    private final int mChannelsCount;
+    private final int mSectionsCount;
+    private final double[] mCoefficients;       // b0, b1, b2, a1, a2 for each section
+    private final double[] mState;              // s1, s2 for each channel and section
+    private final boolean[] mIsChannelPrimed;   // The state of the channel has been initialized with its first sample
+
+    public BiquadChain(int channelsCount, @NonNull List<Biquad> sections) {
+        mChannelsCount = channelsCount;
+        mSectionsCount = sections.size();
+        mCoefficients = new double[mSectionsCount * 5];
+        for (int i = 0; i < mSectionsCount; i++) {
+            final Biquad section = sections.get(i);
+            mCoefficients[i * 5] = section.b0;
+            mCoefficients[i * 5 + 1] = section.b1;
+            mCoefficients[i * 5 + 2] = section.b2;
+            mCoefficients[i * 5 + 3] = section.a1;
+            mCoefficients[i * 5 + 4] = section.a2;
+        }
+        mState = new double[channelsCount * mSectionsCount * 2];
+        mIsChannelPrimed = new boolean[channelsCount];
+    }
+
+    // Ecg conditioning: high-pass to remove the baseline wander, notch for the power line interference and low-pass to remove the noise above the ecg band. Set a frequency to 0 to skip that stage
+    public static @NonNull
+    BiquadChain createEcgFilter(int channelsCount, double sampleRate, double highPassCutoff, double notchFrequency, double lowPassCutoff) {
+        final double maxFrequency = sampleRate * kMaxCutoffFraction;
+        List<Biquad> sections = new ArrayList<>();
+        if (highPassCutoff > 0 && highPassCutoff < maxFrequency) {
+            sections.add(Biquad.highPass(sampleRate, highPassCutoff));
+        }
+        if (notchFrequency > 0 && notchFrequency < maxFrequency) {
+            sections.add(Biquad.notch(sampleRate, notchFrequency, kNotchQ));
+        }
+        if (lowPassCutoff > 0 && lowPassCutoff < maxFrequency) {
+            sections.add(Biquad.lowPass(sampleRate, lowPassCutoff));
+        }
+        return new BiquadChain(channelsCount, sections);
+    }
+
+    public int getChannelsCount() {
+        return mChannelsCount;
+    }
+
+    public int getSectionsCount() {
+        return mSectionsCount;
+    }
+
+    // Filters samples[offset, offset + length) of a channel in place
+    public void process(int channel, @NonNull float[] samples, int offset, int length) {
+        final int end = offset + length;
+        if (length > 0 && !mIsChannelPrimed[channel]) {
+            prime(channel, samples[offset]);
+        }
+
+        for (int section = 0; section < mSectionsCount; section++) {
+            // Coefficients and state are kept in locals while the block is processed
+            final int coefficientsIndex = section * 5;
+            final double b0 = mCoefficients[coefficientsIndex], b1 = mCoefficients[coefficientsIndex + 1], b2 = mCoefficients[coefficientsIndex + 2];
+            final double a1 = mCoefficients[coefficientsIndex + 3], a2 = mCoefficients[coefficientsIndex + 4];
+            final int stateIndex = (channel * mSectionsCount + section) * 2;
+            double s1 = mState[stateIndex], s2 = mState[stateIndex + 1];
+            for (int i = offset; i < end; i++) {
+                final double x = samples[i];
+                final double y = b0 * x + s1;
+                s1 = b1 * x - a1 * y + s2;
+                s2 = b2 * x - a2 * y;
+                samples[i] = (float) y;
+            }
+            mState[stateIndex] = s1;
+            mState[stateIndex + 1] = s2;
+        }
+    }
+
+    // Sets the state as if the first sample had been received forever, so the dc offset of the input doesn't produce a long transient at the start
+    private void prime(int channel, double value) {
+        double x = value;
+        for (int section = 0; section < mSectionsCount; section++) {
+            final int coefficientsIndex = section * 5;
+            final double b0 = mCoefficients[coefficientsIndex], b1 = mCoefficients[coefficientsIndex + 1], b2 = mCoefficients[coefficientsIndex + 2];
+            final double a1 = mCoefficients[coefficientsIndex + 3], a2 = mCoefficients[coefficientsIndex + 4];
+            final double y = x * (b0 + b1 + b2) / (1 + a1 + a2);       // dc gain
+            final int stateIndex = (channel * mSectionsCount + section) * 2;
+            mState[stateIndex + 1] = b2 * x - a2 * y;
+            mState[stateIndex] = b1 * x - a1 * y + mState[stateIndex + 1];
+            x = y;
+        }
+        mIsChannelPrimed[channel] = true;
+    }
+
+    // Clears the state of all channels (i.e. after a gap in the samples)
+    public void reset() {
+        Arrays.fill(mState, 0);
+        Arrays.fill(mIsChannelPrimed, false);
+    }
+}
@@ -0,0 +1,46 @@
+package com.dduunk.ecg.signal;
+
+// Heart rate variability metrics of the beats in a time window
+public class HrvMetrics {
+
+    // Data
+    private final double mWindow;               // in seconds
+    private final int mBeatsCount;
+    private final double mMeanHeartRate;        // in bpm
+    private final double mSdnn;                 // in millis
+    private final double mRmssd;                // in millis
+    private final double mPnn50;                // in percent
+
+    HrvMetrics(double window, int beatsCount, double meanHeartRate, double sdnn, double rmssd, double pnn50) {
+        mWindow = window;
+        mBeatsCount = beatsCount;
+        mMeanHeartRate = meanHeartRate;
+        mSdnn = sdnn;
+        mRmssd = rmssd;
+        mPnn50 = pnn50;
+    }
+
+    public double getWindow() {
+        return mWindow;
+    }
+
+    public int getBeatsCount() {
+        return mBeatsCount;
+    }
+
+    public double getMeanHeartRate() {
+        return mMeanHeartRate;
+    }
+
+    public double getSdnn() {
+        return mSdnn;
+    }
+
+    public double getRmssd() {
+        return mRmssd;
+    }
+
+    public double getPnn50() {
+        return mPnn50;
+    }
+}
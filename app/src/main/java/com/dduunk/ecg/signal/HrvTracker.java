@@ -0,0 +1,59 @@
+package com.dduunk.ecg.signal;
+
+import android.arch.lifecycle.LiveData;
+import android.arch.lifecycle.MutableLiveData;
+import android.support.annotation.NonNull;
+
+// Hrv metrics of a beat stream (i.e. the R peaks of a QrsDetector) over several rolling windows.
+// Beats are added from the thread that detects them. The metrics are published with LiveData, so observers only receive the latest value on the main thread, however fast beats arrive
+public class HrvTracker {
+
+    // Config
+    public final static double kShortWindow = 30;               // in seconds
+    public final static double kLongWindow = 5 * 60;            // in seconds
+    private final static double kMinRrInterval = 0.2;           // in seconds. Intervals outside this range are ignored (missed beats, signal loss...)
+    private final static double kMaxRrInterval = 3;             // in seconds
+
+    // Data
+    private final HrvWindow[] mWindows;
+    private final MutableLiveData<HrvMetrics>[] mMetrics;
+    private double mLastBeatTime = -1;          // Time of the last beat added
+
+    public HrvTracker() {
+        this(kShortWindow, kLongWindow);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HrvTracker(double... windows) {
+        mWindows = new HrvWindow[windows.length];
+        mMetrics = new MutableLiveData[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            mWindows[i] = new HrvWindow(windows[i]);
+            mMetrics[i] = new MutableLiveData<>();
+        }
+    }
+
+    // time: of the R peak (in seconds, monotonic). rrInterval: in seconds since the previous R peak, or 0 if unknown
+    public void onBeat(double time, double rrInterval) {
+        if (rrInterval < kMinRrInterval || rrInterval > kMaxRrInterval) {
+            return;
+        }
+
+        // Consecutive if the last beat added is the one that started this interval
+        final boolean isConsecutive = mLastBeatTime >= 0 && Math.abs(time - rrInterval - mLastBeatTime) < 1e-6;
+        for (int i = 0; i < mWindows.length; i++) {
+            mWindows[i].add(time, rrInterval, isConsecutive);
+            mMetrics[i].postValue(mWindows[i].getMetrics());
+        }
+        mLastBeatTime = time;
+    }
+
+    public int getWindowsCount() {
+        return mWindows.length;
+    }
+
+    public @NonNull
+    LiveData<HrvMetrics> getMetrics(int windowIndex) {
+        return mMetrics[windowIndex];
+    }
+}
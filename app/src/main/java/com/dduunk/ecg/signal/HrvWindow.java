@@ -0,0 +1,134 @@
+package com.dduunk.ecg.signal;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+// RR intervals of the beats received during the last window seconds, with running sums so the hrv metrics are updated in constant (amortized) time for each beat.
+// Intervals are kept in circular buffers that grow if needed. Not thread safe
+public class HrvWindow {
+
+    // Config
+    private final static int kInitialCapacity = 64;
+    private final static double kNn50Threshold = 0.050;         // in seconds
+
+    // Data
+    private final double mWindow;               // in seconds
+    private double[] mTimes = new double[kInitialCapacity];        // Time of each beat (in seconds)
+    private double[] mRrIntervals = new double[kInitialCapacity];  // in seconds
+    private double[] mDifferences = new double[kInitialCapacity];  // Difference with the previous interval. NaN if the previous one is not in the window
+    private int mFirst = 0;
+    private int mCount = 0;
+
+    private double mRrSum, mRrSquaresSum;
+    private double mDifferencesSquaresSum;
+    private int mDifferencesCount;
+    private int mNn50Count;
+
+    public HrvWindow(double window) {
+        mWindow = window;
+    }
+
+    public double getWindow() {
+        return mWindow;
+    }
+
+    // time: when the beat ended (in seconds, monotonic). rrInterval: in seconds. isConsecutive: the previous interval added ends where this one starts (no beats were missed between them)
+    public void add(double time, double rrInterval, boolean isConsecutive) {
+        if (mCount == mRrIntervals.length) {
+            grow();
+        }
+
+        double difference = Double.NaN;
+        if (isConsecutive && mCount > 0) {
+            difference = rrInterval - mRrIntervals[index(mCount - 1)];
+        }
+        final int index = index(mCount);
+        mTimes[index] = time;
+        mRrIntervals[index] = rrInterval;
+        mDifferences[index] = difference;
+        mCount++;
+        mRrSum += rrInterval;
+        mRrSquaresSum += rrInterval * rrInterval;
+        addDifference(difference, 1);
+
+        // Remove the beats outside the window
+        while (mCount > 0 && mTimes[mFirst] <= time - mWindow) {
+            removeFirst();
+        }
+    }
+
+    public void clear() {
+        mFirst = 0;
+        mCount = 0;
+        mRrSum = 0;
+        mRrSquaresSum = 0;
+        mDifferencesSquaresSum = 0;
+        mDifferencesCount = 0;
+        mNn50Count = 0;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public @NonNull
+    HrvMetrics getMetrics() {
+        final double meanHeartRate = mRrSum > 0 ? 60 * mCount / mRrSum : 0;
+        final double variance = mCount > 1 ? (mRrSquaresSum - mRrSum * mRrSum / mCount) / (mCount - 1) : 0;
+        final double sdnn = Math.sqrt(Math.max(0, variance)) * 1000;
+        final double rmssd = mDifferencesCount > 0 ? Math.sqrt(Math.max(0, mDifferencesSquaresSum / mDifferencesCount)) * 1000 : 0;
+        final double pnn50 = mDifferencesCount > 0 ? 100.0 * mNn50Count / mDifferencesCount : 0;
+        return new HrvMetrics(mWindow, mCount, meanHeartRate, sdnn, rmssd, pnn50);
+    }
+
+    private void removeFirst() {
+        final double rrInterval = mRrIntervals[mFirst];
+        mRrSum -= rrInterval;
+        mRrSquaresSum -= rrInterval * rrInterval;
+        addDifference(mDifferences[mFirst], -1);
+        mFirst = index(1);
+        mCount--;
+
+        if (mCount == 0) {
+            clear();            // Also resets the rounding errors accumulated in the sums
+        } else {
+            // The difference of the new first interval was relative to the one removed
+            addDifference(mDifferences[mFirst], -1);
+            mDifferences[mFirst] = Double.NaN;
+        }
+    }
+
+    // sign: 1 to add, -1 to remove
+    private void addDifference(double difference, int sign) {
+        if (Double.isNaN(difference)) {
+            return;
+        }
+        mDifferencesSquaresSum += sign * difference * difference;
+        mDifferencesCount += sign;
+        if (Math.abs(difference) > kNn50Threshold) {
+            mNn50Count += sign;
+        }
+    }
+
+    private int index(int position) {
+        return (mFirst + position) % mRrIntervals.length;
+    }
+
+    private void grow() {
+        final int capacity = mRrIntervals.length * 2;
+        mTimes = unwrap(mTimes, capacity);
+        mRrIntervals = unwrap(mRrIntervals, capacity);
+        mDifferences = unwrap(mDifferences, capacity);
+        mFirst = 0;
+    }
+
+    private @NonNull
+    double[] unwrap(@NonNull double[] values, int capacity) {
+        double[] result = new double[capacity];
+        final int firstPart = Math.min(mCount, values.length - mFirst);
+        System.arraycopy(values, mFirst, result, 0, firstPart);
+        System.arraycopy(values, 0, result, firstPart, mCount - firstPart);
+        return result;
+    }
+}
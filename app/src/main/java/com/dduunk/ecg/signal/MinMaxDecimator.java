@@ -0,0 +1,98 @@
+package com.dduunk.ecg.signal;
+
+import android.support.annotation.NonNull;
+
+// Reduces a stream of (x, y) points to what can be seen on screen: x is divided in buckets (i.e. the x range of a pixel column) and only the first point and the min and max of each bucket are emitted, in x order.
+// The first point is emitted as soon as it arrives, so slow streams are not delayed. The min and max are emitted when the bucket is closed by a point in the next one.
+// Points must be added in increasing x order. Not thread safe
+public class MinMaxDecimator {
+
+    // Listener
+    public interface Listener {
+        void onPoint(float x, float y);
+    }
+
+    // Data
+    private final Listener mListener;
+    private float mBucketWidth;                 // 0 to emit all points
+    private float mCurrentBucketWidth;
+    private long mBucket;
+    private int mBucketCount = 0;               // Points added to the current bucket
+    private float mMinX, mMinY, mMaxX, mMaxY;
+    private int mMinOrdinal, mMaxOrdinal;       // Position of the min and max in the bucket (0 is the first one, already emitted)
+    private long mInputCount = 0;
+    private long mOutputCount = 0;
+
+    public MinMaxDecimator(float bucketWidth, @NonNull Listener listener) {
+        mBucketWidth = bucketWidth;
+        mListener = listener;
+    }
+
+    // Applied when the next bucket starts
+    public void setBucketWidth(float bucketWidth) {
+        mBucketWidth = bucketWidth;
+    }
+
+    public void add(float x, float y) {
+        mInputCount++;
+        final long bucket = mCurrentBucketWidth > 0 ? (long) Math.floor(x / mCurrentBucketWidth) : 0;
+        if (mBucketCount > 0 && mCurrentBucketWidth > 0 && bucket == mBucket) {
+            if (y < mMinY) {
+                mMinX = x;
+                mMinY = y;
+                mMinOrdinal = mBucketCount;
+            }
+            if (y > mMaxY) {
+                mMaxX = x;
+                mMaxY = y;
+                mMaxOrdinal = mBucketCount;
+            }
+            mBucketCount++;
+            return;
+        }
+
+        // New bucket
+        flush();
+        mCurrentBucketWidth = mBucketWidth;
+        mBucket = mCurrentBucketWidth > 0 ? (long) Math.floor(x / mCurrentBucketWidth) : 0;
+        mMinX = mMaxX = x;
+        mMinY = mMaxY = y;
+        mMinOrdinal = mMaxOrdinal = 0;
+        mBucketCount = 1;
+        emit(x, y);
+    }
+
+    // Emits the min and max of the current bucket, if they have not been emitted yet
+    public void flush() {
+        if (mBucketCount > 1) {
+            if (mMinOrdinal > 0 && mMaxOrdinal > 0) {
+                if (mMinOrdinal < mMaxOrdinal) {
+                    emit(mMinX, mMinY);
+                    emit(mMaxX, mMaxY);
+                } else {
+                    emit(mMaxX, mMaxY);
+                    emit(mMinX, mMinY);
+                }
+            } else if (mMinOrdinal > 0) {
+                emit(mMinX, mMinY);
+            } else if (mMaxOrdinal > 0) {
+                emit(mMaxX, mMaxY);
+            }
+        }
+        mBucketCount = 0;
+    }
+
+    // Stats
+    public long getInputCount() {
+        return mInputCount;
+    }
+
+    public long getOutputCount() {
+        return mOutputCount;
+    }
+
+    private void emit(float x, float y) {
+        mOutputCount++;
+        mListener.onPoint(x, y);
+    }
+}
@@ -0,0 +1,192 @@
+package com.dduunk.ecg.signal;
+
+import android.support.annotation.NonNull;
+
+// Multi-resolution min/max history of a stream of (x, y) points, to navigate long recordings.
+// Level 0 keeps the points, and each level above keeps the min and max of every kLevelFactor buckets of the level below (1x, 8x, 64x, 512x...). Each level is a fixed capacity ring, so memory is bounded and the higher levels cover a much longer time than the lower ones.
+// Queries read only the finest level that covers the requested range with the requested number of points. Points must be added in increasing x order. Thread safe
+public class MinMaxPyramid {
+
+    // Config
+    public final static int kLevelFactor = 8;
+    private final static int kDefaultLevelsCount = 4;
+    private final static int kDefaultLevelCapacity = 32 * 1024;
+
+    // Listener
+    public interface Listener {
+        void onPoint(float x, float y);
+    }
+
+    private static class Level {
+        final int mCapacity;
+        final float[] mX;           // Start of each bucket
+        final float[] mMin;
+        final float[] mMax;
+        long mTotalCount = 0;
+
+        // Bucket of the next level being accumulated
+        int mPendingCount = 0;
+        float mPendingX, mPendingMin, mPendingMax;
+
+        Level(int capacity) {
+            mCapacity = capacity;
+            mX = new float[capacity];
+            mMin = new float[capacity];
+            mMax = new float[capacity];
+        }
+
+        int size() {
+            return (int) Math.min(mTotalCount, mCapacity);
+        }
+
+        // index: 0 is the oldest bucket kept
+        int position(int index) {
+            return (int) ((Math.max(0, mTotalCount - mCapacity) + index) % mCapacity);
+        }
+
+        // Index of the last bucket that starts at or before x (-1 if none)
+        int floorIndex(float x) {
+            int low = 0, high = size() - 1, result = -1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (mX[position(middle)] <= x) {
+                    result = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return result;
+        }
+    }
+
+    // Data
+    private final Level[] mLevels;
+    private float mNewestX, mNewestMin, mNewestMax;          // Bucket with the points not added yet to the level queried. Only used by query
+
+    public MinMaxPyramid() {
+        this(kDefaultLevelsCount, kDefaultLevelCapacity);
+    }
+
+    public MinMaxPyramid(int levelsCount, int levelCapacity) {
+        mLevels = new Level[Math.max(1, levelsCount)];
+        for (int i = 0; i < mLevels.length; i++) {
+            mLevels[i] = new Level(Math.max(1, levelCapacity));
+        }
+    }
+
+    public synchronized void add(float x, float y) {
+        add(0, x, y, y);
+    }
+
+    public synchronized void clear() {
+        for (Level level : mLevels) {
+            level.mTotalCount = 0;
+            level.mPendingCount = 0;
+        }
+    }
+
+    // x of the oldest point in the history (NaN if empty)
+    public synchronized float getFirstX() {
+        for (int i = mLevels.length - 1; i >= 0; i--) {
+            final Level level = mLevels[i];
+            if (level.size() > 0) {
+                return level.mX[level.position(0)];
+            }
+        }
+        return Float.NaN;
+    }
+
+    // x of the newest point in the history (NaN if empty)
+    public synchronized float getLastX() {
+        final Level level = mLevels[0];
+        return level.size() > 0 ? level.mX[level.position(level.size() - 1)] : Float.NaN;
+    }
+
+    // Sends the points in [fromX, toX] (and the ones just outside, to draw the lines that cross the limits) from the finest level that covers the range with at most maxBuckets buckets. Levels above 0 send 2 points (min, max) for each bucket. Returns the level used, or -1 if there is no data
+    // Levels above 0 also send a last bucket with the newest points, not added yet to the level
+    public synchronized int query(float fromX, float toX, int maxBuckets, @NonNull Listener listener) {
+        for (int i = 0; i < mLevels.length; i++) {
+            final Level level = mLevels[i];
+            final int size = level.size();
+            if (size == 0) {
+                continue;
+            }
+
+            final boolean isLastLevel = i == mLevels.length - 1 || mLevels[i + 1].size() == 0;
+            final boolean isRangeCovered = level.mX[level.position(0)] <= fromX;
+            final int fromIndex = Math.max(0, level.floorIndex(fromX));
+            final int toIndex = Math.min(size - 1, level.floorIndex(toX) + 1);
+            final boolean hasNewestBucket = toIndex == level.floorIndex(toX) && updateNewestBucket(i);       // The range reaches the last bucket of the level
+            final int bucketsCount = toIndex - fromIndex + 1 + (hasNewestBucket ? 1 : 0);
+            if (isLastLevel || (isRangeCovered && bucketsCount <= maxBuckets)) {
+                // The last level is used anyway, merging the min and max of consecutive buckets if there are too many (so peaks are not lost)
+                final int step = Math.max(1, (bucketsCount + maxBuckets - 1) / Math.max(1, maxBuckets));
+                for (int j = 0; j < bucketsCount; j += step) {
+                    float x = 0, min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+                    for (int k = j; k < Math.min(j + step, bucketsCount); k++) {
+                        final boolean isNewestBucket = fromIndex + k == size;
+                        final int position = level.position(Math.min(fromIndex + k, size - 1));
+                        if (k == j) {
+                            x = isNewestBucket ? mNewestX : level.mX[position];
+                        }
+                        min = Math.min(min, isNewestBucket ? mNewestMin : level.mMin[position]);
+                        max = Math.max(max, isNewestBucket ? mNewestMax : level.mMax[position]);
+                    }
+
+                    listener.onPoint(x, min);
+                    if (i > 0 || step > 1) {
+                        listener.onPoint(x, max);
+                    }
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Merges the buckets pending to be added to levelIndex (accumulated by the levels below) in mNewestX, mNewestMin, mNewestMax. Returns false if there are none
+    private boolean updateNewestBucket(int levelIndex) {
+        boolean isEmpty = true;
+        for (int i = levelIndex - 1; i >= 0; i--) {
+            final Level level = mLevels[i];
+            if (level.mPendingCount > 0) {
+                if (isEmpty) {
+                    mNewestX = level.mPendingX;         // The oldest pending points are in the highest level
+                    mNewestMin = level.mPendingMin;
+                    mNewestMax = level.mPendingMax;
+                    isEmpty = false;
+                } else {
+                    mNewestMin = Math.min(mNewestMin, level.mPendingMin);
+                    mNewestMax = Math.max(mNewestMax, level.mPendingMax);
+                }
+            }
+        }
+        return !isEmpty;
+    }
+
+    private void add(int levelIndex, float x, float min, float max) {
+        final Level level = mLevels[levelIndex];
+        final int position = (int) (level.mTotalCount % level.mCapacity);
+        level.mX[position] = x;
+        level.mMin[position] = min;
+        level.mMax[position] = max;
+        level.mTotalCount++;
+
+        if (levelIndex + 1 < mLevels.length) {
+            if (level.mPendingCount == 0) {
+                level.mPendingX = x;
+                level.mPendingMin = min;
+                level.mPendingMax = max;
+            } else {
+                level.mPendingMin = Math.min(level.mPendingMin, min);
+                level.mPendingMax = Math.max(level.mPendingMax, max);
+            }
+            level.mPendingCount++;
+            if (level.mPendingCount == kLevelFactor) {
+                level.mPendingCount = 0;
+                add(levelIndex + 1, level.mPendingX, level.mPendingMin, level.mPendingMax);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.dduunk.ecg.signal;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+// Incremental QRS (R peak) detector based on the Pan-Tompkins algorithm: band-pass, derivative, squaring and moving window integration, followed by adaptive thresholds with search-back for missed beats.
+// Each sample is processed in constant time. The only lookback is a short history used to locate the R peak when a beat is detected.
+// Use one detector per ecg lead. Not thread safe
+public class QrsDetector {
+
+    // Listener
+    public interface Listener {
+        // sampleIndex: index of the R peak in the stream (counting from the first sample processed). rrInterval: seconds since the previous R peak (0 for the first one). heartRate: averaged, in bpm (0 until known). latency: seconds from the R peak to its detection
+        void onRPeak(long sampleIndex, double rrInterval, double heartRate, double latency);
+    }
+
+    // Config
+    private final static double kBandPassLowCutoff = 5;             // in Hz
+    private final static double kBandPassHighCutoff = 15;           // in Hz
+    private final static double kIntegrationWindow = 0.150;         // in seconds
+    private final static double kPeakConfirmDelay = 0.100;          // in seconds. A peak is evaluated when no higher value is found during this interval
+    private final static double kRefractoryPeriod = 0.200;          // in seconds
+    private final static double kLearningPeriod = 2;                // in seconds. Initial interval used to estimate the thresholds
+    private final static double kSearchBackFactor = 1.66;           // Search back for missed beats when no beat is found for this factor of the average rr interval
+    private final static double kMinRrInterval = 0.2;               // in seconds. RR intervals outside this range are not averaged (i.e. after a signal loss)
+    private final static double kMaxRrInterval = 3;                 // in seconds
+    private final static int kRrAveragedBeats = 8;
+
+    // Data
+    private final double mSampleRate;
+    private final BiquadChain mBandPass;
+    private final int mIntegrationLength;
+    private final int mPeakConfirmSamples;
+    private final int mRefractorySamples;
+    private final int mLearningSamples;
+
+    private float[] mBlock = new float[0];                  // Band-passed samples of the block being processed
+    private double mX1, mX2, mX3, mX4;                      // Previous band-passed samples (derivative)
+    private final float[] mIntegrationBuffer;               // Squared derivative over the integration window
+    private double mIntegrationSum;
+    private final float[] mHistory;                         // Band-passed samples (to locate the R peak)
+    private long mSampleIndex = 0;
+
+    private double mLearningMax, mLearningSum;
+    private double mSignalPeak, mNoisePeak;                 // SPKI, NPKI
+    private double mPreviousValue;
+    private boolean mIsRising = false;
+    private double mCandidateValue = -1;                    // Local maximum of the integrated signal being evaluated
+    private long mCandidateIndex;
+    private double mSearchBackValue = -1;                   // Biggest noise peak above the secondary threshold since the last beat
+    private long mSearchBackRPeakIndex;
+
+    private long mLastRPeakIndex = -1;
+    private final double[] mRrIntervals = new double[kRrAveragedBeats];
+    private int mRrIntervalsCount = 0;
+    private int mRrIntervalsPosition = 0;
+    private double mRrIntervalsSum = 0;
+    private long mBeatsCount = 0;
+
+    public QrsDetector(double sampleRate) {
+        mSampleRate = sampleRate;
+        mBandPass = new BiquadChain(1, Arrays.asList(Biquad.highPass(sampleRate, kBandPassLowCutoff), Biquad.lowPass(sampleRate, kBandPassHighCutoff)));
+        mIntegrationLength = Math.max(1, (int) Math.round(kIntegrationWindow * sampleRate));
+        mPeakConfirmSamples = Math.max(1, (int) Math.round(kPeakConfirmDelay * sampleRate));
+        mRefractorySamples = (int) Math.round(kRefractoryPeriod * sampleRate);
+        mLearningSamples = (int) Math.round(kLearningPeriod * sampleRate);
+        mIntegrationBuffer = new float[mIntegrationLength];
+        mHistory = new float[mIntegrationLength + mPeakConfirmSamples + 8];
+    }
+
+    // Processes samples[offset, offset + length) (they are not modified). Beats detected are sent to the listener
+    public void process(@NonNull float[] samples, int offset, int length, @NonNull Listener listener) {
+        if (mBlock.length < length) {
+            mBlock = new float[length];
+        }
+        System.arraycopy(samples, offset, mBlock, 0, length);
+        mBandPass.process(0, mBlock, 0, length);
+        for (int i = 0; i < length; i++) {
+            processSample(mBlock[i], listener);
+        }
+    }
+
+    public double getSampleRate() {
+        return mSampleRate;
+    }
+
+    // Averaged heart rate in bpm. 0 until known
+    public double getHeartRate() {
+        return mRrIntervalsCount > 0 ? 60 * mRrIntervalsCount / mRrIntervalsSum : 0;
+    }
+
+    public long getBeatsCount() {
+        return mBeatsCount;
+    }
+
+    private void processSample(float filtered, @NonNull Listener listener) {
+        final long index = mSampleIndex++;
+        mHistory[(int) (index % mHistory.length)] = filtered;
+
+        // Derivative (5 points), squaring and moving window integration
+        final double derivative = (2 * filtered + mX1 - mX3 - 2 * mX4) * mSampleRate / 8;
+        mX4 = mX3;
+        mX3 = mX2;
+        mX2 = mX1;
+        mX1 = filtered;
+        final float squared = (float) (derivative * derivative);
+        final int integrationPosition = (int) (index % mIntegrationLength);
+        mIntegrationSum += squared - mIntegrationBuffer[integrationPosition];
+        mIntegrationBuffer[integrationPosition] = squared;
+        if (integrationPosition == mIntegrationLength - 1) {            // Recompute the sum once per window to avoid accumulating rounding errors
+            double sum = 0;
+            for (float value : mIntegrationBuffer) {
+                sum += value;
+            }
+            mIntegrationSum = sum;
+        }
+        final double integrated = Math.max(0, mIntegrationSum / mIntegrationLength);
+
+        // Learning
+        if (index < mLearningSamples) {
+            mLearningMax = Math.max(mLearningMax, integrated);
+            mLearningSum += integrated;
+            mPreviousValue = integrated;
+            if (index == mLearningSamples - 1) {
+                mSignalPeak = mLearningMax / 3;
+                mNoisePeak = mLearningSum / mLearningSamples / 2;
+            }
+            return;
+        }
+
+        // Local maximum after a rise of the integrated signal
+        if (integrated > mPreviousValue) {
+            mIsRising = true;
+        }
+        if (mIsRising && integrated > mCandidateValue) {
+            mCandidateValue = integrated;
+            mCandidateIndex = index;
+        }
+        mPreviousValue = integrated;
+
+        if (mCandidateValue >= 0 && index - mCandidateIndex >= mPeakConfirmSamples) {
+            evaluatePeak(mCandidateValue, mCandidateIndex, index, listener);
+            mCandidateValue = -1;
+            mIsRising = false;
+        }
+
+        // Search back
+        if (mSearchBackValue >= 0 && mRrIntervalsCount > 0 && mLastRPeakIndex >= 0) {
+            final double averageRrSamples = mRrIntervalsSum / mRrIntervalsCount * mSampleRate;
+            if (index - mLastRPeakIndex > kSearchBackFactor * averageRrSamples) {
+                mSignalPeak = 0.25 * mSearchBackValue + 0.75 * mSignalPeak;
+                onBeat(mSearchBackRPeakIndex, index, listener);
+            }
+        }
+    }
+
+    private void evaluatePeak(double value, long peakIndex, long index, @NonNull Listener listener) {
+        final double threshold = mNoisePeak + 0.25 * (mSignalPeak - mNoisePeak);
+        final long rPeakIndex = findRPeak(peakIndex, index);
+        final boolean isRefractory = mLastRPeakIndex >= 0 && rPeakIndex - mLastRPeakIndex < mRefractorySamples;
+
+        if (value > threshold && !isRefractory) {
+            mSignalPeak = 0.125 * value + 0.875 * mSignalPeak;
+            onBeat(rPeakIndex, index, listener);
+        } else {
+            mNoisePeak = 0.125 * value + 0.875 * mNoisePeak;
+            if (!isRefractory && value > threshold / 2 && value > mSearchBackValue) {
+                mSearchBackValue = value;
+                mSearchBackRPeakIndex = rPeakIndex;
+            }
+        }
+    }
+
+    // The R peak is the maximum of the band-passed signal in the integration window that ends at the peak of the integrated signal (R waves are expected to be positive: negate the samples of leads with an inverted QRS)
+    private long findRPeak(long peakIndex, long index) {
+        final long start = Math.max(Math.max(0, peakIndex - mIntegrationLength), index - mHistory.length + 1);
+        long maxIndex = peakIndex;
+        float maxValue = -1;
+        for (long i = start; i <= peakIndex; i++) {
+            final float value = mHistory[(int) (i % mHistory.length)];
+            if (value > maxValue) {
+                maxValue = value;
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    private void onBeat(long rPeakIndex, long index, @NonNull Listener listener) {
+        double rrInterval = 0;
+        if (mLastRPeakIndex >= 0) {
+            rrInterval = (rPeakIndex - mLastRPeakIndex) / mSampleRate;
+            if (rrInterval >= kMinRrInterval && rrInterval <= kMaxRrInterval) {
+                mRrIntervalsSum += rrInterval - mRrIntervals[mRrIntervalsPosition];
+                mRrIntervals[mRrIntervalsPosition] = rrInterval;
+                mRrIntervalsPosition = (mRrIntervalsPosition + 1) % kRrAveragedBeats;
+                mRrIntervalsCount = Math.min(mRrIntervalsCount + 1, kRrAveragedBeats);
+            }
+        }
+        mLastRPeakIndex = rPeakIndex;
+        mSearchBackValue = -1;
+        mBeatsCount++;
+
+        listener.onRPeak(rPeakIndex, rrInterval, getHeartRate(), (index - rPeakIndex) / mSampleRate);
+    }
+}
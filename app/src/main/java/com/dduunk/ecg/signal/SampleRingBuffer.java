@@ -0,0 +1,124 @@
+package com.dduunk.ecg.signal;
+
+// Fixed capacity buffer of (x, y) points stored in primitive arrays. When it is full, adding a point drops the oldest one.
+// The min and max y of the points in the buffer are tracked with monotonic queues, so they are available in constant time (amortized) without scanning the buffer.
+// Single writer. Readers on other threads can read x, y and the min and max while points are added (they may see a point replaced by a newer one, but never an invalid index). The queues are only accessed by the writer
+public class SampleRingBuffer {
+
+    // Data
+    private final int mCapacity;
+    private final float[] mX;
+    private final float[] mY;
+    private volatile long mTotalCount = 0;          // Points added since the buffer was created or cleared. The point with sequence s is stored at s % capacity
+    private int mWriteIndex = 0;                    // mTotalCount % capacity
+
+    private final int[] mMinQueue;                  // Positions of the points that can become the min (increasing y)
+    private int mMinQueueHead = 0, mMinQueueSize = 0;
+    private final int[] mMaxQueue;                  // Positions of the points that can become the max (decreasing y)
+    private int mMaxQueueHead = 0, mMaxQueueSize = 0;
+    private volatile float mMinY, mMaxY;            // Front of the queues, published for the readers
+
+    public SampleRingBuffer(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mX = new float[mCapacity];
+        mY = new float[mCapacity];
+        mMinQueue = new int[mCapacity];
+        mMaxQueue = new int[mCapacity];
+    }
+
+    public void add(float x, float y) {
+        final long sequence = mTotalCount;
+        final int index = mWriteIndex;
+
+        // Remove the point that will be replaced from the queues
+        if (sequence >= mCapacity) {
+            if (mMinQueueSize > 0 && mMinQueue[mMinQueueHead] == index) {
+                mMinQueueHead = wrap(mMinQueueHead + 1);
+                mMinQueueSize--;
+            }
+            if (mMaxQueueSize > 0 && mMaxQueue[mMaxQueueHead] == index) {
+                mMaxQueueHead = wrap(mMaxQueueHead + 1);
+                mMaxQueueSize--;
+            }
+        }
+
+        mX[index] = x;
+        mY[index] = y;
+
+        // Points that can't be the min or max anymore are removed from the tail of the queues
+        while (mMinQueueSize > 0 && mY[mMinQueue[wrap(mMinQueueHead + mMinQueueSize - 1)]] >= y) {
+            mMinQueueSize--;
+        }
+        mMinQueue[wrap(mMinQueueHead + mMinQueueSize)] = index;
+        mMinQueueSize++;
+        while (mMaxQueueSize > 0 && mY[mMaxQueue[wrap(mMaxQueueHead + mMaxQueueSize - 1)]] <= y) {
+            mMaxQueueSize--;
+        }
+        mMaxQueue[wrap(mMaxQueueHead + mMaxQueueSize)] = index;
+        mMaxQueueSize++;
+
+        mMinY = mY[mMinQueue[mMinQueueHead]];
+        mMaxY = mY[mMaxQueue[mMaxQueueHead]];
+        mWriteIndex = wrap(index + 1);
+        mTotalCount = sequence + 1;
+    }
+
+    public void clear() {
+        mTotalCount = 0;
+        mWriteIndex = 0;
+        mMinQueueHead = mMinQueueSize = 0;
+        mMaxQueueHead = mMaxQueueSize = 0;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return (int) Math.min(mTotalCount, mCapacity);
+    }
+
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    // index: 0 is the oldest point in the buffer
+    public float getX(int index) {
+        return mX[physicalIndex(index)];
+    }
+
+    public float getY(int index) {
+        return mY[physicalIndex(index)];
+    }
+
+    // Values at a position returned by physicalIndex
+    public float getXAt(int position) {
+        return mX[position];
+    }
+
+    public float getYAt(int position) {
+        return mY[position];
+    }
+
+    // Position in the arrays of the point at index. Points at different indexes are always at different positions
+    public int physicalIndex(int index) {
+        final long totalCount = mTotalCount;
+        final long first = Math.max(0, totalCount - mCapacity);
+        final long sequence = Math.min(first + Math.max(0, index), Math.max(0, totalCount - 1));
+        return (int) (sequence % mCapacity);
+    }
+
+    // Min and max y. Only valid if the buffer is not empty
+    public float getMinY() {
+        return mMinY;
+    }
+
+    public float getMaxY() {
+        return mMaxY;
+    }
+
+    // position in [0, 2 * capacity)
+    private int wrap(int position) {
+        return position >= mCapacity ? position - mCapacity : position;
+    }
+}
@@ -0,0 +1,140 @@
+package com.dduunk.ecg.utils;
+
+import android.support.annotation.NonNull;
+
+// Bounded text store for a line based console. Text is appended as segments (a run of text with the same color and style) and split in lines, so a view only has to lay out the lines that are visible.
+// Lines and segments are kept in fixed capacity rings: when a ring is full the oldest lines are dropped. Lines longer than kMaxLineLength are wrapped, so a stream without line breaks (i.e. hex mode) still produces lines of bounded size.
+// Lines and segments are identified by sequences that only grow (also when the buffer is cleared), so a view can find what has changed since it was last updated. Not thread safe
+public class ConsoleBuffer {
+
+    // Config
+    public final static int kMaxLineLength = 256;           // in chars
+
+    // Data
+    private final int mLinesCapacity;
+    private final long[] mLineFirstSegment;                 // Sequence of the first segment of each line
+    private final int[] mLineLength;
+    private long mFirstLine = 0, mEndLine = 0;              // Sequences of the lines in the buffer: [mFirstLine, mEndLine)
+    private boolean mIsLastLineOpen = false;                // Text is added to the last line until a line break is found
+
+    private final int mSegmentsCapacity;
+    private final String[] mSegmentText;
+    private final int[] mSegmentColor;
+    private final boolean[] mSegmentIsBold;
+    private long mFirstSegment = 0, mEndSegment = 0;
+
+    public ConsoleBuffer(int maxLines) {
+        mLinesCapacity = Math.max(1, maxLines);
+        mLineFirstSegment = new long[mLinesCapacity];
+        mLineLength = new int[mLinesCapacity];
+
+        mSegmentsCapacity = Math.max(4 * mLinesCapacity, 2 * kMaxLineLength);      // A single line always fits
+        mSegmentText = new String[mSegmentsCapacity];
+        mSegmentColor = new int[mSegmentsCapacity];
+        mSegmentIsBold = new boolean[mSegmentsCapacity];
+    }
+
+    public void append(@NonNull String text, int color, boolean isBold) {
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if (!mIsLastLineOpen) {
+                startLine();
+            }
+            final int linePosition = (int) ((mEndLine - 1) % mLinesCapacity);
+            final int room = kMaxLineLength - mLineLength[linePosition];
+
+            final int lineBreak = text.indexOf('\n', start);
+            int end = lineBreak >= 0 ? lineBreak : length;
+            boolean isLineEnd = lineBreak >= 0;
+            if (end - start > room) {
+                end = start + room;         // Wrap
+                isLineEnd = true;
+            }
+
+            if (end > start) {
+                addSegment(text.substring(start, end), color, isBold);
+                mLineLength[linePosition] += end - start;
+            }
+            start = end == lineBreak ? end + 1 : end;
+            if (isLineEnd) {
+                mIsLastLineOpen = false;
+            }
+        }
+    }
+
+    public void clear() {
+        mFirstLine = mEndLine;
+        mFirstSegment = mEndSegment;
+        mIsLastLineOpen = false;
+    }
+
+    // Lines
+    public int getLinesCount() {
+        return (int) (mEndLine - mFirstLine);
+    }
+
+    public long getFirstLineSequence() {
+        return mFirstLine;
+    }
+
+    public long getEndLineSequence() {
+        return mEndLine;
+    }
+
+    // Changes each time text is added
+    public long getEndSegmentSequence() {
+        return mEndSegment;
+    }
+
+    // Segments of the line at index (0 is the oldest line in the buffer): [getLineFirstSegment, getLineEndSegment)
+    public long getLineFirstSegment(int index) {
+        return Math.max(mFirstSegment, mLineFirstSegment[(int) ((mFirstLine + index) % mLinesCapacity)]);
+    }
+
+    public long getLineEndSegment(int index) {
+        final long line = mFirstLine + index;
+        return line + 1 < mEndLine ? mLineFirstSegment[(int) ((line + 1) % mLinesCapacity)] : mEndSegment;
+    }
+
+    // Segments
+    public @NonNull
+    String getSegmentText(long segment) {
+        return mSegmentText[(int) (segment % mSegmentsCapacity)];
+    }
+
+    public int getSegmentColor(long segment) {
+        return mSegmentColor[(int) (segment % mSegmentsCapacity)];
+    }
+
+    public boolean isSegmentBold(long segment) {
+        return mSegmentIsBold[(int) (segment % mSegmentsCapacity)];
+    }
+
+    private void startLine() {
+        if (mEndLine - mFirstLine == mLinesCapacity) {
+            mFirstLine++;
+        }
+        final int position = (int) (mEndLine % mLinesCapacity);
+        mLineFirstSegment[position] = mEndSegment;
+        mLineLength[position] = 0;
+        mEndLine++;
+        mIsLastLineOpen = true;
+    }
+
+    private void addSegment(@NonNull String text, int color, boolean isBold) {
+        if (mEndSegment - mFirstSegment == mSegmentsCapacity) {
+            mFirstSegment++;
+
+            // Lines that have lost segments are dropped (the last one can't, because a line always fits in the ring)
+            while (mEndLine - mFirstLine > 1 && mLineFirstSegment[(int) (mFirstLine % mLinesCapacity)] < mFirstSegment) {
+                mFirstLine++;
+            }
+        }
+        final int position = (int) (mEndSegment % mSegmentsCapacity);
+        mSegmentText[position] = text;
+        mSegmentColor[position] = color;
+        mSegmentIsBold[position] = isBold;
+        mEndSegment++;
+    }
+}
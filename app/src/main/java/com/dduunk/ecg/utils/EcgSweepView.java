@@ -0,0 +1,315 @@
+package com.dduunk.ecg.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.dduunk.ecg.signal.SampleRingBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Ecg sweep display, like a bedside monitor: the trace is drawn from left to right and wraps around, erasing the previous sweep just ahead of the newest sample.
+// It is drawn on its own render thread, paced by the vsync of that thread Choreographer, so a busy main thread never stalls the trace. Each frame only draws the samples received since the previous one (into an offscreen bitmap that is copied to the surface).
+// Each channel is read from a SampleRingBuffer (x in seconds, y values) and drawn in its own lane. The y scale of each lane is adjusted at the start of every sweep
+public class EcgSweepView extends SurfaceView implements SurfaceHolder.Callback {
+
+    // Log
+    private final static String TAG = EcgSweepView.class.getSimpleName();
+
+    // Config
+    private final static float kEraseBarWidthDp = 12;
+    private final static float kLineWidthDp = 2;
+    private final static float kLaneMargin = 0.1f;                  // Fraction of the lane height left above and below the trace
+    private final static int kBackgroundColor = Color.WHITE;
+
+    // Channel (state only accessed from the render thread)
+    private static class Channel {
+        final SampleRingBuffer mBuffer;
+        final Paint mPaint;
+        long mDrawnCount;                   // Total count of the buffer when last drawn
+        long mScaleSweep = -1;              // Sweep where mMinY and mMaxY were calculated
+        float mMinY, mMaxY;
+        float mLastX = -1, mLastY;          // Last point drawn (in pixels)
+        long mLastSweep = -1;
+
+        Channel(@NonNull SampleRingBuffer buffer, int color, float lineWidth) {
+            mBuffer = buffer;
+            mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mPaint.setColor(color);
+            mPaint.setStrokeWidth(lineWidth);
+            mPaint.setStyle(Paint.Style.STROKE);
+            mPaint.setStrokeCap(Paint.Cap.ROUND);
+        }
+    }
+
+    // Data
+    private volatile List<Channel> mChannels = Collections.emptyList();
+    private volatile float mSweepDuration = 10;                     // in seconds
+    private volatile boolean mIsResetRequested = false;
+    private final float mEraseBarWidth;
+    private final float mLineWidth;
+    private final Paint mErasePaint = new Paint();
+
+    private HandlerThread mRenderThread;
+    private Handler mRenderHandler;
+
+    // Render thread only
+    private Choreographer mChoreographer;
+    private boolean mIsRendering = false;
+    private Bitmap mBitmap;
+    private Canvas mBitmapCanvas;
+    private int mWidth, mHeight;
+    private double mOriginX = Double.NaN;               // x of the first sample drawn (start of the first sweep)
+    private double mCursor = 0;                         // Unwrapped position (sweep * width + pixel) of the newest sample drawn
+    private boolean mIsPostRequested = false;           // Post the bitmap even if no samples are drawn (the surface contents are lost when it is created or changed)
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mIsRendering) {
+                return;
+            }
+            render();
+            mChoreographer.postFrameCallback(this);
+        }
+    };
+
+    public EcgSweepView(Context context) {
+        this(context, null);
+    }
+
+    public EcgSweepView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public EcgSweepView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mEraseBarWidth = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, kEraseBarWidthDp, getResources().getDisplayMetrics());
+        mLineWidth = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, kLineWidthDp, getResources().getDisplayMetrics());
+        mErasePaint.setColor(kBackgroundColor);
+        mErasePaint.setStyle(Paint.Style.FILL);
+        getHolder().addCallback(this);
+    }
+
+    // Can be called from any thread. The trace starts again
+    public void setChannels(@NonNull List<SampleRingBuffer> buffers, @NonNull List<Integer> colors) {
+        List<Channel> channels = new ArrayList<>(buffers.size());
+        for (int i = 0; i < buffers.size(); i++) {
+            channels.add(new Channel(buffers.get(i), i < colors.size() ? colors.get(i) : Color.BLACK, mLineWidth));
+        }
+        mChannels = channels;
+        mIsResetRequested = true;
+    }
+
+    // Can be called from any thread. The trace starts again
+    public void setSweepDuration(float seconds) {
+        if (seconds > 0 && seconds != mSweepDuration) {
+            mSweepDuration = seconds;
+            mIsResetRequested = true;
+        }
+    }
+
+    // SurfaceHolder.Callback
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        mRenderThread = new HandlerThread("EcgSweepRender");
+        mRenderThread.start();
+        mRenderHandler = new Handler(mRenderThread.getLooper());
+        mRenderHandler.post(() -> {
+            mChoreographer = Choreographer.getInstance();           // Choreographer of the render thread
+            mIsRendering = true;
+            mIsPostRequested = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        });
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        if (mRenderHandler != null) {
+            mRenderHandler.post(() -> {
+                setSize(width, height);
+                mIsPostRequested = true;
+            });
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // The surface can't be used after returning, so wait until the render thread stops
+        if (mRenderHandler != null) {
+            mRenderHandler.post(() -> {
+                mIsRendering = false;
+                if (mChoreographer != null) {
+                    mChoreographer.removeFrameCallback(mFrameCallback);
+                }
+            });
+        }
+        if (mRenderThread != null) {
+            mRenderThread.quitSafely();
+            try {
+                mRenderThread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "surfaceDestroyed interrupted: " + e.toString());
+            }
+        }
+        mRenderThread = null;
+        mRenderHandler = null;
+    }
+
+    // Render thread
+    private void setSize(int width, int height) {
+        if (width <= 0 || height <= 0 || (width == mWidth && height == mHeight && mBitmap != null)) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        if (mBitmap != null) {
+            mBitmap.recycle();
+        }
+        mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mBitmapCanvas = new Canvas(mBitmap);
+        reset();
+    }
+
+    private void reset() {
+        if (mBitmapCanvas != null) {
+            mBitmapCanvas.drawColor(kBackgroundColor);
+            mIsPostRequested = true;
+        }
+        mOriginX = Double.NaN;
+        mCursor = 0;
+        for (Channel channel : mChannels) {
+            channel.mDrawnCount = channel.mBuffer.getTotalCount();          // Start with the samples received from now on
+            channel.mScaleSweep = -1;
+            channel.mLastX = -1;
+            channel.mLastSweep = -1;
+        }
+    }
+
+    private void render() {
+        if (mIsResetRequested) {
+            mIsResetRequested = false;
+            reset();
+        }
+        if (mBitmap == null) {
+            return;
+        }
+
+        final boolean isChanged = drawNewSamples();
+        if (isChanged || mIsPostRequested) {
+            final SurfaceHolder holder = getHolder();
+            final Canvas canvas = holder.lockCanvas();
+            if (canvas != null) {
+                canvas.drawBitmap(mBitmap, 0, 0, null);
+                holder.unlockCanvasAndPost(canvas);
+                mIsPostRequested = false;
+            }
+        }
+    }
+
+    // Returns true if something was drawn
+    private boolean drawNewSamples() {
+        final List<Channel> channels = mChannels;
+        if (channels.isEmpty()) {
+            return false;
+        }
+        final double sweepDuration = mSweepDuration;
+
+        // Position of the newest sample. The previous sweep is erased up to a bar ahead of it
+        double newestX = Double.NaN;
+        for (Channel channel : channels) {
+            final SampleRingBuffer buffer = channel.mBuffer;
+            final int size = buffer.size();
+            if (buffer.getTotalCount() > channel.mDrawnCount && size > 0) {
+                final float x = buffer.getX(size - 1);
+                if (Double.isNaN(newestX) || x > newestX) {
+                    newestX = x;
+                }
+            }
+        }
+        if (Double.isNaN(newestX)) {
+            return false;
+        }
+        if (Double.isNaN(mOriginX)) {
+            mOriginX = newestX;
+        }
+        final double newCursor = Math.max(mCursor, (newestX - mOriginX) / sweepDuration * mWidth);
+        erase(mCursor, newCursor + mEraseBarWidth);
+        mCursor = newCursor;
+
+        // Samples
+        final float laneHeight = mHeight / (float) channels.size();
+        for (int i = 0; i < channels.size(); i++) {
+            drawChannel(channels.get(i), i * laneHeight, laneHeight, sweepDuration);
+        }
+        return true;
+    }
+
+    private void drawChannel(@NonNull Channel channel, float laneTop, float laneHeight, double sweepDuration) {
+        final SampleRingBuffer buffer = channel.mBuffer;
+        final long totalCount = buffer.getTotalCount();
+        final int size = buffer.size();
+        if (totalCount < channel.mDrawnCount) {         // Buffer cleared
+            channel.mDrawnCount = 0;
+        }
+        final long first = Math.max(channel.mDrawnCount, totalCount - size);
+        final int capacity = buffer.capacity();
+
+        for (long sequence = first; sequence < totalCount; sequence++) {
+            final int position = (int) (sequence % capacity);
+            final double t = buffer.getXAt(position) - mOriginX;
+            if (t < 0) {
+                continue;           // Received before the sweep started
+            }
+            final long sweep = (long) (t / sweepDuration);
+            final float x = (float) ((t - sweep * sweepDuration) / sweepDuration * mWidth);
+
+            // The scale is fixed during each sweep
+            if (channel.mScaleSweep != sweep) {
+                channel.mScaleSweep = sweep;
+                channel.mMinY = buffer.getMinY();
+                channel.mMaxY = buffer.getMaxY();
+            }
+            final float range = channel.mMaxY - channel.mMinY;
+            final float normalized = range > 0 ? (buffer.getYAt(position) - channel.mMinY) / range : 0.5f;
+            final float y = laneTop + laneHeight * (1 - kLaneMargin - Math.max(0, Math.min(1, normalized)) * (1 - 2 * kLaneMargin));
+
+            if (channel.mLastSweep == sweep && channel.mLastX >= 0 && x >= channel.mLastX) {
+                mBitmapCanvas.drawLine(channel.mLastX, channel.mLastY, x, y, channel.mPaint);
+            }
+            channel.mLastX = x;
+            channel.mLastY = y;
+            channel.mLastSweep = sweep;
+        }
+        channel.mDrawnCount = totalCount;
+    }
+
+    // Erases the unwrapped positions [from, to)
+    private void erase(double from, double to) {
+        if (to - from >= mWidth) {
+            mBitmapCanvas.drawColor(kBackgroundColor);
+            return;
+        }
+        final float start = (float) (from % mWidth);
+        final float end = (float) (to % mWidth);
+        if (start <= end) {
+            mBitmapCanvas.drawRect(start, 0, end, mHeight, mErasePaint);
+        } else {
+            mBitmapCanvas.drawRect(start, 0, mWidth, mHeight, mErasePaint);
+            mBitmapCanvas.drawRect(0, 0, end, mHeight, mErasePaint);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.dduunk.ecg.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs a task on the main thread at most once per display frame (aligned with Choreographer vsync), no matter how many times it is requested.
+// schedule() can be called from any thread. Requests received while the task is running schedule it again for the next frame
+public class FrameCoalescer {
+
+    // Data
+    private final Runnable mTask;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mIsScheduled = new AtomicBoolean(false);
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mRunCount = new AtomicLong();
+    private Choreographer mChoreographer;          // Only accessed from the main thread
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mIsScheduled.set(false);
+            mRunCount.incrementAndGet();
+            mTask.run();
+        }
+    };
+
+    private final Runnable mPostFrameCallbackRunnable = this::postFrameCallback;
+
+    public FrameCoalescer(@NonNull Runnable task) {
+        mTask = task;
+    }
+
+    public void schedule() {
+        mRequestCount.incrementAndGet();
+        if (mIsScheduled.compareAndSet(false, true)) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                postFrameCallback();
+            } else {
+                mMainHandler.post(mPostFrameCallbackRunnable);
+            }
+        }
+    }
+
+    public void cancel() {
+        mMainHandler.removeCallbacks(mPostFrameCallbackRunnable);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            getChoreographer().removeFrameCallback(mFrameCallback);
+        } else {
+            mMainHandler.post(() -> getChoreographer().removeFrameCallback(mFrameCallback));
+        }
+        mIsScheduled.set(false);
+    }
+
+    // Number of times schedule() has been called
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    // Number of times the task has been run
+    public long getRunCount() {
+        return mRunCount.get();
+    }
+
+    // Number of requests that didn't need a run of their own
+    public long getCoalescedCount() {
+        return Math.max(0, mRequestCount.get() - mRunCount.get());
+    }
+
+    private void postFrameCallback() {
+        getChoreographer().postFrameCallback(mFrameCallback);
+    }
+
+    private Choreographer getChoreographer() {
+        if (mChoreographer == null) {
+            mChoreographer = Choreographer.getInstance();       // Choreographer is thread-local: get the main thread instance
+        }
+        return mChoreographer;
+    }
+}
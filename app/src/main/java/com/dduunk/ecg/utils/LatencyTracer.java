@@ -0,0 +1,175 @@
+package com.dduunk.ecg.utils;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.dduunk.ecg.BuildConfig;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Measures the latency from the reception of uart data (SystemClock.elapsedRealtimeNanos() taken in the gatt callback) to each processing stage.
+// Each stage keeps a histogram with logarithmic buckets (8 sub-buckets per power of two, so percentiles have a max error of 12.5%). Recording is lock-free and can be done from any thread
+public class LatencyTracer {
+
+    // Constants
+    public final static int STAGE_INGEST = 0;           // Appended to the rx buffer of the uart data manager
+    public final static int STAGE_PARSE = 1;            // Parsed by the consumer (i.e. plotter values)
+    public final static int STAGE_MQTT = 2;             // Handed over to the mqtt client
+    public final static int STAGE_RENDER = 3;           // Displayed on screen
+    public final static int STAGE_STORE = 4;            // Stored in the packets cache of the uart packet manager
+    private final static String[] kStageNames = {"ingest", "parse", "mqtt", "render", "store"};
+
+    private final static int kSubBucketBits = 3;
+    private final static int kSubBuckets = 1 << kSubBucketBits;
+    private final static int kLinearBuckets = kSubBuckets * 2;          // Values (in micros) smaller than this have their own bucket
+    private final static int kMaxExponent = 36;                         // ~19 hours in micros
+    private final static int kBucketsCount = kLinearBuckets + (kMaxExponent - kSubBucketBits) * kSubBuckets;
+
+    // Data
+    private static LatencyTracer mInstance = null;
+    private volatile boolean mIsEnabled = BuildConfig.DEBUG;
+    private final Histogram[] mHistograms = new Histogram[kStageNames.length];
+
+    public static synchronized LatencyTracer getInstance() {
+        if (mInstance == null) {
+            mInstance = new LatencyTracer();
+        }
+        return mInstance;
+    }
+
+    private LatencyTracer() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mIsEnabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mIsEnabled = enabled;
+    }
+
+    // receivedTimestampNanos: SystemClock.elapsedRealtimeNanos() when the data was received
+    public void record(int stage, long receivedTimestampNanos) {
+        if (!mIsEnabled || receivedTimestampNanos <= 0) {
+            return;
+        }
+        mHistograms[stage].record(SystemClock.elapsedRealtimeNanos() - receivedTimestampNanos);
+    }
+
+    public @NonNull
+    Stats getStats(int stage) {
+        return mHistograms[stage].getStats();
+    }
+
+    public void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    // One line per stage with the number of samples, p50, p99 and max (in millis)
+    public @NonNull
+    String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < mHistograms.length; i++) {
+            final Stats stats = mHistograms[i].getStats();
+            if (i > 0) {
+                summary.append("\n");
+            }
+            summary.append(String.format(Locale.ENGLISH, "%-6s n:%d p50:%.1fms p99:%.1fms max:%.1fms", kStageNames[i], stats.count, stats.p50Nanos / 1e6, stats.p99Nanos / 1e6, stats.maxNanos / 1e6));
+        }
+        return summary.toString();
+    }
+
+    public static class Stats {
+        public final long count;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        Stats(long count, long p50Nanos, long p99Nanos, long maxNanos) {
+            this.count = count;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+    }
+
+    private static class Histogram {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(kBucketsCount);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long latencyNanos) {
+            final long latency = Math.max(0, latencyNanos);
+            mBuckets.incrementAndGet(bucketIndex(latency / 1000));
+            mCount.incrementAndGet();
+
+            long max = mMax.get();
+            while (latency > max && !mMax.compareAndSet(max, latency)) {
+                max = mMax.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < kBucketsCount; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mMax.set(0);
+        }
+
+        @NonNull
+        Stats getStats() {
+            // Buckets are read without stopping the writers, so the result is approximate while recording
+            final long[] buckets = new long[kBucketsCount];
+            long count = 0;
+            for (int i = 0; i < kBucketsCount; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            final long max = mMax.get();
+            return new Stats(count, Math.min(max, percentile(buckets, count, 0.50)), Math.min(max, percentile(buckets, count, 0.99)), max);
+        }
+
+        private static long percentile(@NonNull long[] buckets, long count, double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long target = Math.max(1, (long) Math.ceil(count * percentile));
+            long accumulated = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                accumulated += buckets[i];
+                if (accumulated >= target) {
+                    return bucketUpperBound(i) * 1000;
+                }
+            }
+            return bucketUpperBound(buckets.length - 1) * 1000;
+        }
+
+        private static int bucketIndex(long micros) {
+            if (micros < kLinearBuckets) {
+                return (int) micros;
+            }
+            final int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), kMaxExponent);
+            final int subBucket = (int) ((micros >>> (exponent - kSubBucketBits)) & (kSubBuckets - 1));
+            return Math.min(kLinearBuckets + (exponent - kSubBucketBits - 1) * kSubBuckets + subBucket, kBucketsCount - 1);
+        }
+
+        // Largest value (in micros) that falls in the bucket
+        private static long bucketUpperBound(int index) {
+            if (index < kLinearBuckets) {
+                return index;
+            }
+            final int exponent = (index - kLinearBuckets) / kSubBuckets + kSubBucketBits + 1;
+            final int subBucket = (index - kLinearBuckets) % kSubBuckets;
+            final long width = 1L << (exponent - kSubBucketBits);
+            return (1L << exponent) + (subBucket + 1) * width - 1;
+        }
+    }
+}
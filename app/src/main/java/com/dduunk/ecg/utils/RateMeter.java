@@ -0,0 +1,49 @@
+package com.dduunk.ecg.utils;
+
+// Exponentially decayed rate (units per second) of a monotonic total.
+// The total is sampled by the reader (i.e. when the ui polls it), so updating the counted value has no extra cost. Samples can be taken at irregular intervals
+public class RateMeter {
+
+    // Config
+    private final static long kMinSampleIntervalNanos = 100 * 1000000L;        // Samples taken closer than this reuse the previous rate
+
+    // Data
+    private final double mTimeConstantNanos;
+    private long mLastTotal;
+    private long mLastTimestamp = -1;
+    private double mRate = 0;
+
+    // timeConstantMillis: time for a change in the rate to be reflected by ~63%
+    public RateMeter(long timeConstantMillis) {
+        mTimeConstantNanos = Math.max(1, timeConstantMillis) * 1e6;
+    }
+
+    // Returns the rate after adding the sample. timestamp in nanos (i.e. SystemClock.elapsedRealtimeNanos)
+    public synchronized double sample(long total, long timestamp) {
+        if (mLastTimestamp < 0 || total < mLastTotal) {        // First sample or counter reset
+            mLastTotal = total;
+            mLastTimestamp = timestamp;
+            mRate = 0;
+            return mRate;
+        }
+
+        final long elapsed = timestamp - mLastTimestamp;
+        if (elapsed >= kMinSampleIntervalNanos) {
+            final double instantRate = (total - mLastTotal) * 1e9 / elapsed;
+            final double alpha = 1 - Math.exp(-elapsed / mTimeConstantNanos);
+            mRate += alpha * (instantRate - mRate);
+            mLastTotal = total;
+            mLastTimestamp = timestamp;
+        }
+        return mRate;
+    }
+
+    public synchronized double getRate() {
+        return mRate;
+    }
+
+    public synchronized void reset() {
+        mLastTimestamp = -1;
+        mRate = 0;
+    }
+}
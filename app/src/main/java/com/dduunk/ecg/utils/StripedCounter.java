@@ -0,0 +1,44 @@
+package com.dduunk.ecg.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counter for values updated from several threads (similar to LongAdder, which is not available before API 24).
+// Each thread updates one of several stripes (padded to different cache lines), so writers don't contend. Reading sums all the stripes
+public class StripedCounter {
+
+    // Config
+    private final static int kStripes = 8;                          // Power of two
+    private final static int kPadding = 8;                          // longs per stripe (64 bytes cache line)
+
+    // Data
+    private final AtomicLongArray mCells = new AtomicLongArray(kStripes * kPadding);
+
+    public void add(long value) {
+        mCells.addAndGet(stripeIndex(), value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < kStripes; i++) {
+            sum += mCells.get(i * kPadding);
+        }
+        return sum;
+    }
+
+    // Note: not atomic with concurrent updates
+    public void reset() {
+        for (int i = 0; i < kStripes; i++) {
+            mCells.set(i * kPadding, 0);
+        }
+    }
+
+    private static int stripeIndex() {
+        final long threadId = Thread.currentThread().getId();
+        final int hash = (int) (threadId ^ (threadId >>> 16)) * 0x9E3779B9;         // Spread consecutive thread ids
+        return ((hash >>> 16) & (kStripes - 1)) * kPadding;
+    }
+}
@@ -0,0 +1,35 @@
+package com.dduunk.ecg;
+
+// Helpers for the benchmarks in the unit tests. Benchmarks are skipped unless enabled with: ./gradlew testDebugUnitTest -Pbenchmark
+public class Benchmarks {
+
+    // Config
+    private final static int kWarmUpRounds = 20;
+    private final static int kRounds = 10;
+
+    public interface Task {
+        void run(int operations);
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("benchmark");
+    }
+
+    // Runs task (after some warm up rounds) and returns the best time per operation, in nanoseconds
+    public static double nanosPerOperation(int operations, Task task) {
+        for (int i = 0; i < kWarmUpRounds; i++) {
+            task.run(operations);
+        }
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < kRounds; i++) {
+            final long startNanos = System.nanoTime();
+            task.run(operations);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+        }
+        return (double) bestNanos / operations;
+    }
+
+    public static void print(String name, double nanosPerOperation) {
+        System.out.println(String.format(java.util.Locale.US, "%-50s %10.1f ns", name, nanosPerOperation));
+    }
+}
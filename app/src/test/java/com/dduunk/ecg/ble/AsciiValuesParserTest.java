@@ -0,0 +1,143 @@
+package com.dduunk.ecg.ble;
+
+import com.dduunk.ecg.Benchmarks;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsciiValuesParserTest {
+
+    private final static Charset kAsciiCharset = Charset.forName("US-ASCII");
+
+    private final AsciiValuesParser mParser = new AsciiValuesParser();
+    private float mBenchmarkResult;         // So the benchmarked code is not optimized out
+
+    @Test
+    public void parsesValuesSeparatedByAnySeparator() {
+        assertValues("512,-12.34;87 0.5\t-3e2\r\n", 512, -12.34f, 87, 0.5f, -300);
+    }
+
+    @Test
+    public void skipsInvalidTokens() {
+        assertValues("1,abc,,2;;--3, 4e,.,5.5.5, 6", 1, 2, 6);
+        assertValues("");
+        assertValues(" ,;\t");
+    }
+
+    @Test
+    public void parsesSpecialValuesAndSuffixes() {
+        assertValues("NaN,-Infinity,+Infinity,1.5f,2d,-0,+7", Float.NaN, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, 1.5f, 2, -0.f, 7);
+    }
+
+    @Test
+    public void matchesParseFloatForHardValues() {
+        final String[] tokens = {
+                "16777216", "16777217", "16777218", "0.1", "0.3", "1e10", "1e11", "1e-10", "1e-11",
+                "3.4028235e38", "3.4028236e38", "3.5e38", "1.4e-45", "7e-46", "8e-46", "1e-50", "1e39",
+                "1.00000017881393432617187499", "1.000000178813934326171875", "1.00000017881393432617187501",
+                "123456789012345678901234567890", "0.000000000000000000000000000001234567",
+                "9999999999999999999e-19", "4.9406564584124654e-324", "2.2250738585072014E-308", "1.1754944e-38",
+        };
+        for (String token : tokens) {
+            assertMatchesParseFloat(token);
+            assertMatchesParseFloat("-" + token);
+        }
+    }
+
+    @Test
+    public void matchesParseFloatForRandomValues() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 200000; i++) {
+            assertMatchesParseFloat(randomToken(random));
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        Assume.assumeTrue(Benchmarks.isEnabled());
+
+        final byte[] line = "512,-12.34,87\r\n".getBytes(kAsciiCharset);
+        Benchmarks.print("AsciiValuesParser", Benchmarks.nanosPerOperation(200000, operations -> {
+            float sum = 0;
+            for (int i = 0; i < operations; i++) {
+                final int count = mParser.parse(line, 0, line.length);
+                sum += mParser.getValues()[count - 1];
+            }
+            mBenchmarkResult = sum;
+        }));
+        Benchmarks.print("String.split + Float.parseFloat", Benchmarks.nanosPerOperation(200000, operations -> {
+            float sum = 0;
+            for (int i = 0; i < operations; i++) {
+                final String[] tokens = new String(line, kAsciiCharset).replace("\r", "").replace("\n", "").split("[,; \t]");
+                for (String token : tokens) {
+                    try {
+                        sum += Float.parseFloat(token);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            mBenchmarkResult = sum;
+        }));
+    }
+
+    private void assertValues(String line, float... expectedValues) {
+        final byte[] data = line.getBytes(kAsciiCharset);
+        final int count = mParser.parse(data, 0, data.length);
+        assertEquals(line, expectedValues.length, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(line, Float.floatToIntBits(expectedValues[i]), Float.floatToIntBits(mParser.getValues()[i]));
+        }
+    }
+
+    private void assertMatchesParseFloat(String token) {
+        final byte[] data = ("0," + token + ",0").getBytes(kAsciiCharset);       // Also checks the value offset in the line
+        final int count = mParser.parse(data, 0, data.length);
+        Float expectedValue;
+        try {
+            expectedValue = Float.parseFloat(token);
+        } catch (NumberFormatException e) {
+            expectedValue = null;
+        }
+        if (expectedValue == null) {
+            assertEquals(token, 2, count);
+        } else {
+            assertEquals(token, 3, count);
+            assertEquals(token, Float.floatToIntBits(expectedValue), Float.floatToIntBits(mParser.getValues()[1]));
+        }
+    }
+
+    // Decimal numbers with any number of digits and exponents (some of them invalid)
+    private static String randomToken(Random random) {
+        final StringBuilder token = new StringBuilder();
+        if (random.nextInt(4) == 0) {
+            token.append(random.nextBoolean() ? '-' : '+');
+        }
+        final int integerDigits = random.nextInt(4) == 0 ? random.nextInt(25) : random.nextInt(5);
+        for (int i = 0; i < integerDigits; i++) {
+            token.append((char) ('0' + random.nextInt(10)));
+        }
+        if (random.nextBoolean()) {
+            token.append('.');
+            final int fractionDigits = random.nextInt(4) == 0 ? random.nextInt(25) : random.nextInt(5);
+            for (int i = 0; i < fractionDigits; i++) {
+                token.append((char) ('0' + random.nextInt(10)));
+            }
+        }
+        if (random.nextInt(3) == 0) {
+            token.append(random.nextBoolean() ? 'e' : 'E');
+            if (random.nextBoolean()) {
+                token.append(random.nextBoolean() ? '-' : '+');
+            }
+            token.append(random.nextBoolean() ? random.nextInt(12) : random.nextInt(60));
+        }
+        if (random.nextInt(10) == 0) {
+            token.append("fFdD".charAt(random.nextInt(4)));
+        }
+        return token.toString();
+    }
+}
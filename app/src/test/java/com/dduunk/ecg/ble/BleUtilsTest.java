@@ -0,0 +1,183 @@
+package com.dduunk.ecg.ble;
+
+import com.dduunk.ecg.Benchmarks;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BleUtilsTest {
+
+    private final static Charset kUtf8Charset = Charset.forName("UTF-8");
+
+    private int mBenchmarkResult;           // So the benchmarked code is not optimized out
+
+    @Test
+    public void formatsHexLikeStringFormat() {
+        final byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        assertEquals(referenceHex2(bytes, "%02X "), BleUtils.bytesToHex2(bytes));
+        assertEquals(referenceHex2(bytes, "%02X ").trim(), BleUtils.bytesToHexWithSpaces(bytes));
+        assertEquals(referenceHex2(bytes, "%02x"), BleUtils.getUuidStringFromByteArray(bytes));
+        assertEquals("", BleUtils.bytesToHex2(new byte[0]));
+        assertEquals("", BleUtils.bytesToHexWithSpaces(new byte[0]));
+    }
+
+    @Test
+    public void formatsHexOfByteRanges() {
+        final byte[] bytes = {0x00, 0x1f, (byte) 0xa0, 0x7f, (byte) 0xff};
+        assertEquals("1F A0 7F ", BleUtils.bytesToHex2(bytes, 1, 3));
+
+        final StringBuilder text = new StringBuilder("> ");
+        BleUtils.appendHex2(bytes, 3, 2, new char[64], text);
+        assertEquals("> 7F FF ", text.toString());
+
+        // Ranges longer than the buffer are appended in blocks
+        text.setLength(0);
+        BleUtils.appendHex2(bytes, 0, bytes.length, new char[6], text);
+        assertEquals("00 1F A0 7F FF ", text.toString());
+
+        final char[] chars = "..........".toCharArray();
+        assertEquals(6, BleUtils.bytesToHex2(bytes, 0, 2, chars, 2));
+        assertEquals("..00 1F ..", new String(chars));
+    }
+
+    @Test
+    public void decodesUtf8Text() {
+        final String[] texts = {"", "ascii only", "caf\u00e9", "\u20ac 10", "emoji \ud83d\ude00 and more", "\u00e9\u00e8 mixed ascii \u4e2d\u6587"};
+        for (String text : texts) {
+            assertEquals(text, BleUtils.bytesToText(text.getBytes(kUtf8Charset), false));
+        }
+
+        final byte[] invalidBytes = {'a', (byte) 0xc3, 'b', (byte) 0xff};
+        assertEquals(new String(invalidBytes, kUtf8Charset), BleUtils.bytesToText(invalidBytes, false));
+    }
+
+    @Test
+    public void normalizesNewLines() {
+        assertEquals("a\nb\nc\nd\n\n", BleUtils.bytesToText("a\r\nb\rc\nd\r\r".getBytes(kUtf8Charset), true));
+        assertEquals("a\r\nb\rc", BleUtils.bytesToText("a\r\nb\rc".getBytes(kUtf8Charset), false));
+        assertEquals("\u00e9\n\u00e9\n", BleUtils.bytesToText("\u00e9\r\n\u00e9\r".getBytes(kUtf8Charset), true));
+    }
+
+    @Test
+    public void normalizesNewLinesSplitBetweenPackets() {
+        final BleUtils.NewLineNormalizer normalizer = new BleUtils.NewLineNormalizer();
+        final StringBuilder text = new StringBuilder();
+        appendText("a\r", normalizer, text);
+        appendText("\nb\r", normalizer, text);
+        appendText("\r", normalizer, text);
+        appendText("\n", normalizer, text);
+        appendText("\n", normalizer, text);
+        assertEquals("a\nb\n\n\n", text.toString());
+
+        // reset forgets a pending \r
+        text.setLength(0);
+        appendText("a\r", normalizer, text);
+        normalizer.reset();
+        appendText("\nb", normalizer, text);
+        assertEquals("a\n\nb", text.toString());
+    }
+
+    @Test
+    public void normalizesRandomTextSplitAtAnyPosition() {
+        final Random random = new Random(1);
+        final String alphabet = "ab\r\n\u00e9";
+        for (int i = 0; i < 2000; i++) {
+            final StringBuilder original = new StringBuilder();
+            final int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                original.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            final byte[] bytes = original.toString().getBytes(kUtf8Charset);
+
+            // Packets are split at random positions, but never inside a multibyte character
+            final BleUtils.NewLineNormalizer normalizer = new BleUtils.NewLineNormalizer();
+            final StringBuilder text = new StringBuilder();
+            int offset = 0;
+            while (offset < bytes.length) {
+                int end = Math.min(bytes.length, offset + 1 + random.nextInt(6));
+                while (end < bytes.length && (bytes[end] & 0xc0) == 0x80) {
+                    end++;
+                }
+                BleUtils.appendText(bytes, offset, end - offset, normalizer, text);
+                offset = end;
+            }
+            assertEquals(original.toString(), referenceText(bytes), text.toString());
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        Assume.assumeTrue(Benchmarks.isEnabled());
+
+        final byte[] packet = "512,-12.34,87\r\n".getBytes(kUtf8Charset);
+        final StringBuilder text = new StringBuilder();
+        final char[] hexBuffer = new char[3 * 256];
+        final BleUtils.NewLineNormalizer normalizer = new BleUtils.NewLineNormalizer();
+        Benchmarks.print("hex: String.format", Benchmarks.nanosPerOperation(20000, operations -> {
+            for (int i = 0; i < operations; i++) {
+                mBenchmarkResult += referenceHex2(packet, "%02X ").length();
+            }
+        }));
+        Benchmarks.print("hex: bytesToHex2", Benchmarks.nanosPerOperation(20000, operations -> {
+            for (int i = 0; i < operations; i++) {
+                mBenchmarkResult += BleUtils.bytesToHex2(packet).length();
+            }
+        }));
+        Benchmarks.print("hex: appendHex2 (reused builder)", Benchmarks.nanosPerOperation(20000, operations -> {
+            for (int i = 0; i < operations; i++) {
+                text.setLength(0);
+                BleUtils.appendHex2(packet, 0, packet.length, hexBuffer, text);
+                mBenchmarkResult += text.length();
+            }
+        }));
+        final UartPacketStore store = new UartPacketStore(UartPacketStore.kPacketsPerChunk);
+        store.append(null, 0, UartPacket.TRANSFERMODE_RX, packet, 0, packet.length);
+        final UartPacketStore.Cursor cursor = store.new Cursor();
+        Benchmarks.print("hex: appendHex2 of a store packet (consoles)", Benchmarks.nanosPerOperation(20000, operations -> {
+            for (int i = 0; i < operations; i++) {
+                text.setLength(0);
+                cursor.moveToMemory(0);
+                BleUtils.appendHex2(cursor.getDataArray(), cursor.getDataOffset(), cursor.getDataLength(), hexBuffer, text);
+                mBenchmarkResult += text.length();
+            }
+        }));
+        Benchmarks.print("text: new String + replaceAll", Benchmarks.nanosPerOperation(20000, operations -> {
+            for (int i = 0; i < operations; i++) {
+                mBenchmarkResult += referenceText(packet).length();
+            }
+        }));
+        Benchmarks.print("text: appendText (reused builder)", Benchmarks.nanosPerOperation(20000, operations -> {
+            for (int i = 0; i < operations; i++) {
+                text.setLength(0);
+                BleUtils.appendText(packet, 0, packet.length, normalizer, text);
+                mBenchmarkResult += text.length();
+            }
+        }));
+    }
+
+    private static void appendText(String packet, BleUtils.NewLineNormalizer normalizer, StringBuilder text) {
+        final byte[] bytes = packet.getBytes(kUtf8Charset);
+        BleUtils.appendText(bytes, 0, bytes.length, normalizer, text);
+    }
+
+    // Previous implementations
+    private static String referenceHex2(byte[] bytes, String byteFormat) {
+        StringBuilder text = new StringBuilder();
+        for (byte aByte : bytes) {
+            text.append(String.format(byteFormat, aByte));
+        }
+        return text.toString();
+    }
+
+    private static String referenceText(byte[] bytes) {
+        return new String(bytes, kUtf8Charset).replaceAll("(\\r\\n|\\r)", "\n");
+    }
+}
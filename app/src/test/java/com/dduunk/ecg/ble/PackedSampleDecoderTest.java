@@ -0,0 +1,225 @@
+package com.dduunk.ecg.ble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackedSampleDecoderTest {
+
+    private final static SampleFormat kFormat = new SampleFormat(2, 2, false, 250, 0.5f);
+
+    private final ByteRingBuffer mBuffer = new ByteRingBuffer(16);
+
+    // Blocks decoded (copied, as the decoder reuses them)
+    private final List<int[][]> mBlocksSamples = new ArrayList<>();
+    private final List<Integer> mBlocksSequences = new ArrayList<>();
+    private final List<Integer> mBlocksLostFrames = new ArrayList<>();
+
+    @Test
+    public void decodesSamplesFramesAfterTheFormatFrame() {
+        final PackedSampleDecoder decoder = new PackedSampleDecoder(null);
+
+        // Samples without a format are discarded
+        append(samplesFrame(0, kFormat, new int[][]{{1, 2}}));
+        assertEquals(0, process(decoder));
+        assertEquals(1, decoder.getInvalidFramesCount());
+
+        append(formatFrame(kFormat));
+        append(samplesFrame(1, kFormat, new int[][]{{1, -2}, {0, 300}, {-32768, 32767}}));
+        assertEquals(1, process(decoder));
+        assertEquals(kFormat, decoder.getFormat());
+        assertArrayEquals(new int[]{1, 0, -32768}, mBlocksSamples.get(0)[0]);
+        assertArrayEquals(new int[]{-2, 300, 32767}, mBlocksSamples.get(0)[1]);
+        assertEquals(1, (int) mBlocksSequences.get(0));
+        assertEquals(0, (int) mBlocksLostFrames.get(0));
+    }
+
+    @Test
+    public void decodesFramesSplitInAnyPart() {
+        final PackedSampleDecoder decoder = new PackedSampleDecoder(kFormat);
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            final byte[] frame = samplesFrame(i, kFormat, new int[][]{{i, 0}, {0, -i}, {256 * i, 1}});        // Samples with 0 bytes, encoded by cobs
+            stream.write(frame, 0, frame.length);
+        }
+
+        final byte[] data = stream.toByteArray();
+        for (int i = 0; i < data.length; i += 7) {
+            mBuffer.append(data, i, Math.min(7, data.length - i));
+            process(decoder);
+        }
+        assertEquals(20, mBlocksSamples.size());
+        assertEquals(0, mBuffer.size());
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(new int[]{i, 0, 256 * i}, mBlocksSamples.get(i)[0]);
+            assertArrayEquals(new int[]{0, -i, 1}, mBlocksSamples.get(i)[1]);
+        }
+        assertEquals(0, decoder.getLostFramesCount());
+    }
+
+    @Test
+    public void countsLostFramesAcrossTheSequenceWrap() {
+        final PackedSampleDecoder decoder = new PackedSampleDecoder(kFormat);
+        final int[] sequences = {65533, 65534, 65535, 0, 3, 4, 65530, 5};           // 65530: late frame, after the wrap
+        for (int sequence : sequences) {
+            append(samplesFrame(sequence, kFormat, new int[][]{{1, 1}}));
+        }
+        assertEquals(7, process(decoder));
+        assertEquals(1, decoder.getDuplicatedFramesCount());
+        assertEquals(2, decoder.getLostFramesCount());          // 1 and 2
+        assertEquals(0, (int) mBlocksSequences.get(3));
+        assertEquals(0, (int) mBlocksLostFrames.get(3));
+        assertEquals(3, (int) mBlocksSequences.get(4));
+        assertEquals(2, (int) mBlocksLostFrames.get(4));
+        assertEquals(5, (int) mBlocksSequences.get(6));
+        assertEquals(0, (int) mBlocksLostFrames.get(6));
+
+        // After a reset any sequence is accepted
+        decoder.reset();
+        append(samplesFrame(100, kFormat, new int[][]{{1, 1}}));
+        assertEquals(1, process(decoder));
+        assertEquals(0, (int) mBlocksLostFrames.get(7));
+    }
+
+    @Test
+    public void discardsFramesWithInvalidLengthOrType() {
+        final PackedSampleDecoder decoder = new PackedSampleDecoder(kFormat);
+        append(cobsFrame(new byte[]{PackedSampleDecoder.kFrameTypeSamples, 0, 0, 1, 2, 3}));          // Not a multiple of a sample set
+        append(cobsFrame(new byte[]{'X', 1, 2}));
+        append(cobsFrame(new byte[]{PackedSampleDecoder.kFrameTypeFormat, 9, 9}));                   // Invalid descriptor
+        append(samplesFrame(0, kFormat, new int[][]{{5, 6}}));
+        assertEquals(1, process(decoder));
+        assertEquals(3, decoder.getInvalidFramesCount());
+        assertEquals(kFormat, decoder.getFormat());
+    }
+
+    @Test
+    public void detectsAStreamOnlyByAValidFormatFrame() {
+        // A text stream with a stray 0 byte is not a packed stream
+        append("12,34\n56".getBytes(Charset.forName("US-ASCII")));
+        mBuffer.append(new byte[]{0});
+        append("78\n".getBytes(Charset.forName("US-ASCII")));
+        assertFalse(PackedSampleDecoder.containsFormatFrame(mBuffer, 0));
+        append(samplesFrame(0, kFormat, new int[][]{{1, 2}}));
+        assertFalse(PackedSampleDecoder.containsFormatFrame(mBuffer, 0));
+
+        // A format frame, after other text and frames
+        final int checkedBytes = mBuffer.size();
+        final byte[] formatFrame = formatFrame(kFormat);
+        mBuffer.append(formatFrame, 0, formatFrame.length - 1);
+        assertFalse(PackedSampleDecoder.containsFormatFrame(mBuffer, checkedBytes));           // Not complete yet
+        mBuffer.append(new byte[]{0});
+        assertTrue(PackedSampleDecoder.containsFormatFrame(mBuffer, checkedBytes));
+        assertFalse(PackedSampleDecoder.containsFormatFrame(mBuffer, mBuffer.size()));         // Already checked
+    }
+
+    @Test
+    public void sampleFormatDescriptorRoundTrips() {
+        final SampleFormat[] formats = {kFormat, new SampleFormat(1, 3, true, 0, 1e-3f), new SampleFormat(16, 2, true, 65535, -2)};
+        for (SampleFormat format : formats) {
+            final byte[] descriptor = format.toDescriptor();
+            assertEquals(SampleFormat.kDescriptorLength, descriptor.length);
+            assertEquals(format, SampleFormat.fromDescriptor(descriptor, 0, descriptor.length));
+        }
+
+        final byte[] descriptor = kFormat.toDescriptor();
+        assertNull(SampleFormat.fromDescriptor(descriptor, 0, descriptor.length - 1));          // Too short
+        descriptor[0] = 2;
+        assertNull(SampleFormat.fromDescriptor(descriptor, 0, descriptor.length));              // Unknown version
+        descriptor[0] = 1;
+        descriptor[2] = 4;
+        assertNull(SampleFormat.fromDescriptor(descriptor, 0, descriptor.length));              // Bytes per sample
+    }
+
+    @Test
+    public void sampleFormatReadsSignedSamples() {
+        final byte[] data = {(byte) 0xfe, (byte) 0xff, 0x12, 0x34, (byte) 0x80, 0x00, 0x00, (byte) 0xff, (byte) 0xff, (byte) 0x7f};
+        final SampleFormat littleEndian16 = new SampleFormat(1, 2, false, 0, 1);
+        assertEquals(-2, littleEndian16.readSample(data, 0));
+        assertEquals(0x3412, littleEndian16.readSample(data, 2));
+        final SampleFormat bigEndian16 = new SampleFormat(1, 2, true, 0, 1);
+        assertEquals(0x1234, bigEndian16.readSample(data, 2));
+        assertEquals(-32768, bigEndian16.readSample(data, 4));
+        final SampleFormat littleEndian24 = new SampleFormat(1, 3, false, 0, 1);
+        assertEquals(0x7fffff, littleEndian24.readSample(data, 7));
+        assertEquals(-0x800000 + 0x003412, littleEndian24.readSample(new byte[]{0x12, 0x34, (byte) 0x80}, 0));
+        final SampleFormat bigEndian24 = new SampleFormat(1, 3, true, 0, 1);
+        assertEquals(-0x800000, bigEndian24.readSample(data, 4));
+        assertEquals(-1, bigEndian24.readSample(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff}, 0));
+    }
+
+    private int process(PackedSampleDecoder decoder) {
+        return decoder.process(mBuffer, block -> {
+            final int[][] samples = new int[block.getChannelsCount()][block.getSamplesCount()];
+            for (int channel = 0; channel < block.getChannelsCount(); channel++) {
+                System.arraycopy(block.getSamples(channel), 0, samples[channel], 0, block.getSamplesCount());
+            }
+            mBlocksSamples.add(samples);
+            mBlocksSequences.add(block.getSequence());
+            mBlocksLostFrames.add(block.getLostFramesCount());
+        });
+    }
+
+    private void append(byte[] data) {
+        mBuffer.append(data);
+    }
+
+    private static byte[] formatFrame(SampleFormat format) {
+        final byte[] descriptor = format.toDescriptor();
+        final byte[] payload = new byte[1 + descriptor.length];
+        payload[0] = PackedSampleDecoder.kFrameTypeFormat;
+        System.arraycopy(descriptor, 0, payload, 1, descriptor.length);
+        return cobsFrame(payload);
+    }
+
+    // sampleSets: the samples of all channels for each instant (16 bit, little endian)
+    private static byte[] samplesFrame(int sequence, SampleFormat format, int[][] sampleSets) {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(PackedSampleDecoder.kFrameTypeSamples);
+        payload.write(sequence & 0xff);
+        payload.write((sequence >> 8) & 0xff);
+        for (int[] sampleSet : sampleSets) {
+            assertEquals(format.getChannelsCount(), sampleSet.length);
+            for (int sample : sampleSet) {
+                payload.write(sample & 0xff);
+                payload.write((sample >> 8) & 0xff);
+            }
+        }
+        return cobsFrame(payload.toByteArray());
+    }
+
+    // Cobs encoded payload followed by the 0 delimiter
+    private static byte[] cobsFrame(byte[] payload) {
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int codeIndex = 0;
+        final byte[] block = new byte[255];
+        int blockLength = 1;
+        for (byte value : payload) {
+            if (value == 0) {
+                block[codeIndex] = (byte) blockLength;
+                frame.write(block, 0, blockLength);
+                blockLength = 1;
+            } else {
+                block[blockLength++] = value;
+                if (blockLength == 0xff) {
+                    block[codeIndex] = (byte) blockLength;
+                    frame.write(block, 0, blockLength);
+                    blockLength = 1;
+                }
+            }
+        }
+        block[codeIndex] = (byte) blockLength;
+        frame.write(block, 0, blockLength);
+        frame.write(0);
+        return frame.toByteArray();
+    }
+}
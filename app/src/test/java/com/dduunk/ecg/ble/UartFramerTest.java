@@ -0,0 +1,228 @@
+package com.dduunk.ecg.ble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class UartFramerTest {
+
+    private final static Charset kAsciiCharset = Charset.forName("US-ASCII");
+
+    private final ByteRingBuffer mBuffer = new ByteRingBuffer(16);
+    private final List<byte[]> mFrames = new ArrayList<>();
+
+    @Test
+    public void delimiterFramerSplitsLines() {
+        final UartFramer framer = new UartFramer.DelimiterFramer();
+        assertEquals(3, process(framer, "first\r\nsecond\n\nlast"));
+        assertFrames("first", "second", "");
+        assertEquals("last", new String(mBuffer.toByteArray(), kAsciiCharset));        // Incomplete line kept
+
+        mFrames.clear();
+        assertEquals(1, process(framer, " line\r\n"));
+        assertFrames("last line");
+        assertEquals(0, mBuffer.size());
+    }
+
+    @Test
+    public void delimiterFramerKeepsCarriageReturnIfNotStripped() {
+        final UartFramer framer = new UartFramer.DelimiterFramer((byte) ';', false);
+        process(framer, "a\r;b;");
+        assertFrames("a\r", "b");
+    }
+
+    @Test
+    public void delimiterFramerGivesTheSameFramesForAnySplit() {
+        final String text = "12,34\r\n\n-5.5;6\r\nno end";
+        final UartFramer wholeFramer = new UartFramer.DelimiterFramer();
+        process(wholeFramer, text);
+        final List<byte[]> expectedFrames = new ArrayList<>(mFrames);
+
+        final Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            mBuffer.clear();
+            mFrames.clear();
+            processInRandomParts(new UartFramer.DelimiterFramer(), text.getBytes(kAsciiCharset), random);
+            assertFrames(expectedFrames);
+        }
+    }
+
+    @Test
+    public void framerResetsIfTheBufferIsCleared() {
+        final UartFramer framer = new UartFramer.DelimiterFramer();
+        process(framer, "incomplete line");
+        mBuffer.clear();
+        process(framer, "ab\n");
+        assertFrames("ab");
+    }
+
+    @Test
+    public void lengthPrefixedFramerDecodesAllHeaderLengths() {
+        final byte[] payload = {1, 0, 2};
+        final byte[][] headers = {{3}, {0, 3}, {3, 0}, {0, 0, 0, 3}, {3, 0, 0, 0}};
+        final int[] headerLengths = {1, 2, 2, 4, 4};
+        final boolean[] isBigEndian = {true, true, false, true, false};
+        for (int i = 0; i < headers.length; i++) {
+            mBuffer.clear();
+            mFrames.clear();
+            final UartFramer framer = new UartFramer.LengthPrefixedFramer(headerLengths[i], isBigEndian[i], 16);
+            process(framer, concat(headers[i], payload, headers[i]));
+            assertEquals(1, mFrames.size());
+            assertArrayEquals(payload, mFrames.get(0));
+            assertEquals(headers[i].length, mBuffer.size());          // Waits for the next frame
+        }
+    }
+
+    @Test
+    public void lengthPrefixedFramerResyncsOnInvalidLengths() {
+        final UartFramer framer = new UartFramer.LengthPrefixedFramer(1, true, 4);
+        process(framer, new byte[]{(byte) 200, 9, 2, 7, 8, 0, 1, 5});
+        assertEquals(2, framer.getErrorsCount());          // 200 and 9 are discarded
+        assertEquals(3, mFrames.size());
+        assertArrayEquals(new byte[]{7, 8}, mFrames.get(0));
+        assertArrayEquals(new byte[0], mFrames.get(1));
+        assertArrayEquals(new byte[]{5}, mFrames.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengthPrefixedFramerRejectsInvalidHeaderLengths() {
+        new UartFramer.LengthPrefixedFramer(3, true, 16);
+    }
+
+    @Test
+    public void cobsFramerDecodesFramesWithZeros() {
+        final byte[][] payloads = {{1}, {0}, {0, 0}, {1, 0, 0, 2, 0}, {0x11, 0x22, 0x00, 0x33}};
+        final UartFramer framer = new UartFramer.CobsFramer(512);
+        for (byte[] payload : payloads) {
+            process(framer, cobsFrame(payload));
+        }
+        assertFrames(Arrays.asList(payloads));
+        assertEquals(0, framer.getErrorsCount());
+    }
+
+    @Test
+    public void cobsFramerDecodesLongZeroFreeRuns() {
+        // 254 non zero bytes need a 0xff block code (with no implicit zero after it)
+        for (int length : new int[]{253, 254, 255, 508, 509, 600}) {
+            final byte[] payload = new byte[length];
+            Arrays.fill(payload, (byte) 7);
+            if (length % 2 != 0) {
+                payload[length / 2] = 0;
+            }
+            mBuffer.clear();
+            mFrames.clear();
+            process(new UartFramer.CobsFramer(1024), cobsFrame(payload));
+            assertEquals(1, mFrames.size());
+            assertArrayEquals("length: " + length, payload, mFrames.get(0));
+        }
+    }
+
+    @Test
+    public void cobsFramerGivesTheSameFramesForAnySplit() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            final List<byte[]> payloads = new ArrayList<>();
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            final int framesCount = 1 + random.nextInt(5);
+            for (int j = 0; j < framesCount; j++) {
+                final byte[] payload = new byte[1 + random.nextInt(random.nextBoolean() ? 10 : 600)];
+                for (int k = 0; k < payload.length; k++) {
+                    payload[k] = random.nextInt(4) == 0 ? 0 : (byte) random.nextInt(256);
+                }
+                payloads.add(payload);
+                final byte[] frame = cobsFrame(payload);
+                stream.write(frame, 0, frame.length);
+            }
+
+            mBuffer.clear();
+            mFrames.clear();
+            final UartFramer framer = new UartFramer.CobsFramer(1024);
+            processInRandomParts(framer, stream.toByteArray(), random);
+            assertFrames(payloads);
+            assertEquals(0, framer.getErrorsCount());
+        }
+    }
+
+    @Test
+    public void cobsFramerSkipsEmptyAndInvalidFrames() {
+        final UartFramer framer = new UartFramer.CobsFramer(4);
+        final byte[] truncatedFrame = {5, 1, 2, 0};                 // The block code says 4 more bytes
+        final byte[] tooLongFrame = cobsFrame(new byte[]{1, 2, 3, 4, 5});
+        process(framer, concat(new byte[]{0, 0}, truncatedFrame, tooLongFrame, cobsFrame(new byte[]{9, 0})));
+        assertFrames(Arrays.asList(new byte[][]{{9, 0}}));
+        assertEquals(2, framer.getErrorsCount());
+    }
+
+    private int process(UartFramer framer, String text) {
+        return process(framer, text.getBytes(kAsciiCharset));
+    }
+
+    private int process(UartFramer framer, byte[] data) {
+        mBuffer.append(data);
+        return framer.process(mBuffer, (frame, length) -> mFrames.add(Arrays.copyOf(frame, length)));
+    }
+
+    private void processInRandomParts(UartFramer framer, byte[] data, Random random) {
+        int offset = 0;
+        while (offset < data.length) {
+            final int length = Math.min(data.length - offset, 1 + random.nextInt(20));
+            process(framer, Arrays.copyOfRange(data, offset, offset + length));
+            offset += length;
+        }
+    }
+
+    private void assertFrames(String... expectedFrames) {
+        final List<byte[]> frames = new ArrayList<>();
+        for (String frame : expectedFrames) {
+            frames.add(frame.getBytes(kAsciiCharset));
+        }
+        assertFrames(frames);
+    }
+
+    private void assertFrames(List<byte[]> expectedFrames) {
+        assertEquals(expectedFrames.size(), mFrames.size());
+        for (int i = 0; i < expectedFrames.size(); i++) {
+            assertArrayEquals("frame " + i, expectedFrames.get(i), mFrames.get(i));
+        }
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            stream.write(array, 0, array.length);
+        }
+        return stream.toByteArray();
+    }
+
+    // Reference cobs encoder. Returns the encoded payload followed by the 0 delimiter
+    private static byte[] cobsFrame(byte[] payload) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (byte value : payload) {
+            if (value == 0) {
+                stream.write(block.size() + 1);
+                stream.write(block.toByteArray(), 0, block.size());
+                block.reset();
+            } else {
+                block.write(value);
+                if (block.size() == 254) {
+                    stream.write(0xff);
+                    stream.write(block.toByteArray(), 0, block.size());
+                    block.reset();
+                }
+            }
+        }
+        stream.write(block.size() + 1);
+        stream.write(block.toByteArray(), 0, block.size());
+        stream.write(0);
+        return stream.toByteArray();
+    }
+}
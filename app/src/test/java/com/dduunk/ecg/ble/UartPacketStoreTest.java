@@ -0,0 +1,247 @@
+package com.dduunk.ecg.ble;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UartPacketStoreTest {
+
+    private final static int kCapacity = 2 * UartPacketStore.kPacketsPerChunk;         // The minimum: 2 chunks
+
+    private final List<UartPacketStore> mStores = new ArrayList<>();
+
+    @After
+    public void releaseStores() {
+        for (UartPacketStore store : mStores) {
+            store.release();
+        }
+    }
+
+    @Test
+    public void evictedPacketsAreDroppedWithoutSpillFile() {
+        final UartPacketStore store = new UartPacketStore(kCapacity);
+        append(store, 0, 5 * UartPacketStore.kPacketsPerChunk);
+        final long headSequence = store.getHeadSequence();
+        assertTrue(headSequence > 0);
+        assertEquals(headSequence, store.getMemoryHeadSequence());
+        assertNull(store.get(headSequence - 1));
+        assertPacket(store.new Cursor(), headSequence);
+    }
+
+    @Test
+    public void evictedPacketsAreSpilledAndReadBack() throws IOException {
+        final UartPacketSpillFile spillFile = createSpillFile();
+        final UartPacketStore store = createStore(spillFile);
+        final long packetsCount = 10 * UartPacketStore.kPacketsPerChunk + 100;
+        append(store, 0, packetsCount);
+        awaitSpilled(spillFile, store.getMemoryHeadSequence());
+
+        assertEquals(0, store.getHeadSequence());
+        assertTrue(store.getMemoryHeadSequence() >= packetsCount - kCapacity);
+        final UartPacketStore.Cursor cursor = store.new Cursor();
+        for (long sequence = 0; sequence < packetsCount; sequence++) {
+            assertEquals(sequence >= store.getMemoryHeadSequence(), cursor.moveToMemory(sequence));         // Spilled packets are never read from memory
+            assertPacket(cursor, sequence);
+        }
+        assertFalse(cursor.moveTo(packetsCount));
+
+        // Packets read from the file and from memory are the same
+        final UartPacket packet = store.get(1);
+        assertEquals("B", packet.getPeripheralId());
+        assertEquals(3, packet.getTimestamp());
+        assertEquals(UartPacket.TRANSFERMODE_RX, packet.getMode());
+        assertEquals(1, ByteBuffer.wrap(packet.getData()).getLong());
+    }
+
+    @Test
+    public void clearRemovesSpilledPackets() throws IOException {
+        final UartPacketSpillFile spillFile = createSpillFile();
+        final UartPacketStore store = createStore(spillFile);
+        append(store, 0, 5 * UartPacketStore.kPacketsPerChunk);
+        store.clear();
+        final long clearedSequence = store.getTailSequence();
+        assertEquals(clearedSequence, store.getHeadSequence());         // Right away, although the spill writer has not reset the file yet
+        assertFalse(store.new Cursor().moveTo(0));
+        assertEquals(0, store.getRxIndex().getEndPosition() - store.getRxIndex().getStartPosition());
+
+        // Packets appended after clear are spilled and read from the cleared sequence
+        append(store, clearedSequence, 5 * UartPacketStore.kPacketsPerChunk);
+        awaitSpilled(spillFile, store.getMemoryHeadSequence());
+        assertEquals(clearedSequence, store.getHeadSequence());
+        assertEquals(clearedSequence, spillFile.getFirstSequence());
+        final UartPacketStore.Cursor cursor = store.new Cursor();
+        for (long sequence = clearedSequence; sequence < store.getTailSequence(); sequence++) {
+            assertPacket(cursor, sequence);
+        }
+        assertFalse(cursor.moveTo(clearedSequence - 1));
+    }
+
+    @Test(timeout = 10000)
+    public void txAppendsAndClearDontWaitForTheSpillWriter() throws Exception {
+        // The spill writer is blocked in the first chunk
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        final UartPacketSpillFile spillFile = new UartPacketSpillFile(File.createTempFile("uartpackets", ".spill")) {
+            @Override
+            void append(long sequence, String peripheralId, long timestamp, int mode, byte[] data, int offset, int length) throws IOException {
+                try {
+                    writeLatch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.append(sequence, peripheralId, timestamp, mode, data, offset, length);
+            }
+        };
+        final UartPacketStore store = createStore(spillFile);
+
+        // More evicted chunks than the pending limit
+        append(store, 0, 10 * UartPacketStore.kPacketsPerChunk, UartPacket.TRANSFERMODE_TX);
+        assertPacket(store.new Cursor(), 0);          // Still pending
+        store.clear();
+        assertEquals(store.getTailSequence(), store.getHeadSequence());
+
+        writeLatch.countDown();
+        final long clearedSequence = store.getTailSequence();
+        append(store, clearedSequence, 3 * UartPacketStore.kPacketsPerChunk);
+        awaitSpilled(spillFile, store.getMemoryHeadSequence());
+        assertEquals(clearedSequence, spillFile.getFirstSequence());
+        assertPacket(store.new Cursor(), clearedSequence);
+    }
+
+    @Test
+    public void headNeverMovesBackwardsAndStoredPacketsCanBeRead() throws Exception {
+        final UartPacketSpillFile spillFile = createSpillFile();
+        final UartPacketStore store = createStore(spillFile);
+        final AtomicBoolean isDone = new AtomicBoolean(false);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Random random = new Random(i);
+            final Thread reader = new Thread(() -> {
+                final UartPacketStore.Cursor cursor = store.new Cursor();
+                long previousHeadSequence = 0;
+                while (!isDone.get() && error.get() == null) {
+                    final long headSequence = store.getHeadSequence();
+                    final long tailSequence = store.getTailSequence();
+                    if (headSequence < previousHeadSequence) {
+                        error.set("Head moved from " + previousHeadSequence + " to " + headSequence);
+                    }
+                    previousHeadSequence = headSequence;
+                    if (tailSequence > headSequence) {
+                        final long sequence = headSequence + (long) (random.nextDouble() * (tailSequence - headSequence));
+                        if (!cursor.moveTo(sequence) || readSequence(cursor) != sequence) {
+                            error.set("Packet " + sequence + " not found between " + headSequence + " and " + tailSequence);
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        append(store, 0, 100000);
+        isDone.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    public void readsDuringClearsNeverGetWrongPackets() throws Exception {
+        final UartPacketSpillFile spillFile = createSpillFile();
+        final UartPacketStore store = createStore(spillFile);
+        final AtomicBoolean isDone = new AtomicBoolean(false);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Random random = new Random(i);
+            final Thread reader = new Thread(() -> {
+                final UartPacketStore.Cursor cursor = store.new Cursor();
+                while (!isDone.get() && error.get() == null) {
+                    final long tailSequence = store.getTailSequence();
+                    final long sequence = Math.max(0, tailSequence - random.nextInt(10 * UartPacketStore.kPacketsPerChunk));
+                    if (cursor.moveTo(sequence) && (readSequence(cursor) != sequence || cursor.getTimestamp() != sequence * 3)) {       // Cleared packets can be missing, but never replaced by others
+                        error.set("Wrong packet read for " + sequence);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        final Random random = new Random(10);
+        long sequence = 0;
+        for (int i = 0; i < 30; i++) {
+            final int count = random.nextInt(8 * UartPacketStore.kPacketsPerChunk);
+            append(store, sequence, count);
+            sequence += count;
+            store.clear();
+            assertEquals(sequence, store.getHeadSequence());
+        }
+        isDone.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+
+    private UartPacketStore createStore(UartPacketSpillFile spillFile) {
+        final UartPacketStore store = new UartPacketStore(kCapacity, Long.MAX_VALUE, spillFile);
+        mStores.add(store);
+        return store;
+    }
+
+    private static UartPacketSpillFile createSpillFile() throws IOException {
+        return new UartPacketSpillFile(File.createTempFile("uartpackets", ".spill"));
+    }
+
+    // Packet i has the sequence as data, timestamp 3 * i, and alternates two peripherals
+    private static void append(UartPacketStore store, long firstSequence, long count) {
+        append(store, firstSequence, count, UartPacket.TRANSFERMODE_RX);
+    }
+
+    private static void append(UartPacketStore store, long firstSequence, long count, int mode) {
+        final byte[] data = new byte[8];
+        for (long sequence = firstSequence; sequence < firstSequence + count; sequence++) {
+            ByteBuffer.wrap(data).putLong(sequence);
+            assertEquals(sequence, store.append(sequence % 2 == 0 ? "A" : "B", sequence * 3, mode, data, 0, data.length));
+        }
+    }
+
+    private static void assertPacket(UartPacketStore.Cursor cursor, long sequence) {
+        assertTrue("packet " + sequence, cursor.moveTo(sequence));
+        assertEquals(sequence, cursor.getSequence());
+        assertEquals(sequence, readSequence(cursor));
+        assertEquals(sequence * 3, cursor.getTimestamp());
+        assertEquals(sequence % 2 == 0 ? "A" : "B", cursor.getPeripheralId());
+    }
+
+    private static long readSequence(UartPacketStore.Cursor cursor) {
+        return cursor.getDataLength() == 8 ? ByteBuffer.wrap(cursor.getDataArray(), cursor.getDataOffset(), 8).getLong() : -1;
+    }
+
+    // Waits for the spill writer to write the packets evicted before sequence
+    private static void awaitSpilled(UartPacketSpillFile spillFile, long sequence) {
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (spillFile.getEndSequence() < sequence) {
+            assertTrue("Spill writer timeout", System.currentTimeMillis() < timeout);
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.dduunk.ecg.signal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BiquadTest {
+
+    private final static double kSampleRate = 500;          // in Hz
+
+    @Test
+    public void dcGainOfTheDesigns() {
+        assertEquals(1, Biquad.lowPass(kSampleRate, 40).getMagnitude(kSampleRate, 0), 1e-9);
+        assertEquals(0, Biquad.highPass(kSampleRate, 0.5).getMagnitude(kSampleRate, 0), 1e-9);
+        assertEquals(1, Biquad.notch(kSampleRate, 50, 30).getMagnitude(kSampleRate, 0), 1e-9);
+
+        // Butterworth: -3dB at the cutoff
+        assertEquals(1 / Math.sqrt(2), Biquad.lowPass(kSampleRate, 40).getMagnitude(kSampleRate, 40), 1e-6);
+        assertEquals(1 / Math.sqrt(2), Biquad.highPass(kSampleRate, 0.5).getMagnitude(kSampleRate, 0.5), 1e-6);
+    }
+
+    @Test
+    public void filteredDcMatchesTheDcGain() {
+        final BiquadChain lowPass = new BiquadChain(1, Collections.singletonList(Biquad.lowPass(kSampleRate, 40)));
+        final BiquadChain highPass = new BiquadChain(1, Collections.singletonList(Biquad.highPass(kSampleRate, 0.5)));
+        final float[] lowPassSamples = constant(10 * (int) kSampleRate, 1);
+        final float[] highPassSamples = constant(10 * (int) kSampleRate, 1);
+        lowPass.process(0, lowPassSamples, 0, lowPassSamples.length);
+        highPass.process(0, highPassSamples, 0, highPassSamples.length);
+        assertEquals(1, lowPassSamples[lowPassSamples.length - 1], 1e-5);
+        assertEquals(0, highPassSamples[highPassSamples.length - 1], 1e-5);
+    }
+
+    @Test
+    public void notchRemovesTheDesignFrequency() {
+        final Biquad notch = Biquad.notch(kSampleRate, 50, 30);
+        assertTrue(notch.getMagnitude(kSampleRate, 50) < 1e-6);
+        assertTrue(notch.getMagnitude(kSampleRate, 45) > 0.9);
+        assertTrue(notch.getMagnitude(kSampleRate, 55) > 0.9);
+
+        // 50Hz interference on a 5Hz signal: after the transient only the 5Hz signal remains
+        final BiquadChain chain = BiquadChain.createEcgFilter(1, kSampleRate, 0, 50, 0);
+        assertEquals(1, chain.getSectionsCount());
+        final int samplesCount = 4 * (int) kSampleRate;
+        final float[] samples = new float[samplesCount];
+        for (int i = 0; i < samplesCount; i++) {
+            samples[i] = (float) (Math.sin(2 * Math.PI * 5 * i / kSampleRate) + Math.sin(2 * Math.PI * 50 * i / kSampleRate));
+        }
+        processInBlocks(chain, samples, 37);
+        double interferenceRe = 0, interferenceIm = 0;
+        final int from = samplesCount / 2;
+        for (int i = from; i < samplesCount; i++) {
+            interferenceRe += samples[i] * Math.cos(2 * Math.PI * 50 * i / kSampleRate);
+            interferenceIm += samples[i] * Math.sin(2 * Math.PI * 50 * i / kSampleRate);
+        }
+        final double interferenceAmplitude = 2 * Math.hypot(interferenceRe, interferenceIm) / (samplesCount - from);
+        assertTrue("50Hz amplitude " + interferenceAmplitude, interferenceAmplitude < 0.01);
+    }
+
+    @Test
+    public void primeAvoidsTheStepTransientOfTheDcOffset() {
+        // A constant input with a large dc offset (i.e. the raw adc values of an electrode) gives a constant output from the first sample
+        final BiquadChain chain = BiquadChain.createEcgFilter(2, kSampleRate, 0.5, 50, 40);
+        assertEquals(3, chain.getSectionsCount());
+        final float[] samples = constant((int) kSampleRate, 1000);
+        final float[] otherChannelSamples = constant((int) kSampleRate, -200);
+        processInBlocks(chain, samples, 10);
+        chain.process(1, otherChannelSamples, 0, otherChannelSamples.length);
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals("sample " + i, 0, samples[i], 1e-3);               // High-pass: dc gain 0
+            assertEquals("sample " + i, 0, otherChannelSamples[i], 1e-3);
+        }
+
+        // Without the high-pass the offset is kept
+        final BiquadChain noHighPassChain = BiquadChain.createEcgFilter(1, kSampleRate, 0, 50, 40);
+        final float[] noHighPassSamples = constant((int) kSampleRate, 1000);
+        processInBlocks(noHighPassChain, noHighPassSamples, 10);
+        for (int i = 0; i < noHighPassSamples.length; i++) {
+            assertEquals("sample " + i, 1000, noHighPassSamples[i], 1e-2);
+        }
+
+        // After reset the chain is primed again with the new offset
+        chain.reset();
+        final float[] resetSamples = constant(100, -5000);
+        chain.process(0, resetSamples, 0, resetSamples.length);
+        for (int i = 0; i < resetSamples.length; i++) {
+            assertEquals("sample " + i, 0, resetSamples[i], 1e-2);
+        }
+    }
+
+    @Test
+    public void skipsStagesAboveTheMaxFrequency() {
+        assertEquals(1, BiquadChain.createEcgFilter(1, 100, 0.5, 50, 150).getSectionsCount());
+        assertEquals(0, BiquadChain.createEcgFilter(1, kSampleRate, 0, 0, 0).getSectionsCount());
+    }
+
+    private static float[] constant(int length, float value) {
+        final float[] samples = new float[length];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+
+    private static void processInBlocks(BiquadChain chain, float[] samples, int blockLength) {
+        for (int offset = 0; offset < samples.length; offset += blockLength) {
+            chain.process(0, samples, offset, Math.min(blockLength, samples.length - offset));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.dduunk.ecg.signal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class HrvWindowTest {
+
+    private final static double kTolerance = 1e-9;
+
+    // Beats added, to recompute the metrics
+    private final List<Double> mTimes = new ArrayList<>();
+    private final List<Double> mRrIntervals = new ArrayList<>();
+    private final List<Boolean> mIsConsecutive = new ArrayList<>();
+
+    @Test
+    public void computesMetricsOfKnownIntervals() {
+        final HrvWindow window = new HrvWindow(60);
+        final double[] rrIntervals = {0.8, 0.9, 0.7, 0.8};
+        double time = 0;
+        for (double rrInterval : rrIntervals) {
+            time += rrInterval;
+            window.add(time, rrInterval, true);
+        }
+
+        final HrvMetrics metrics = window.getMetrics();
+        assertEquals(60, metrics.getWindow(), 0);
+        assertEquals(4, metrics.getBeatsCount());
+        assertEquals(60 / 0.8, metrics.getMeanHeartRate(), kTolerance);
+        assertEquals(Math.sqrt(0.02 / 3) * 1000, metrics.getSdnn(), kTolerance);          // Sample standard deviation
+        assertEquals(Math.sqrt(0.06 / 3) * 1000, metrics.getRmssd(), kTolerance);         // Differences: 0.1, -0.2, 0.1
+        assertEquals(100, metrics.getPnn50(), kTolerance);
+    }
+
+    @Test
+    public void returnsZerosWithoutEnoughBeats() {
+        final HrvWindow window = new HrvWindow(60);
+        assertMetrics(0, 0, 0, 0, 0, window.getMetrics());
+
+        window.add(1, 1, false);
+        assertMetrics(1, 60, 0, 0, 0, window.getMetrics());
+    }
+
+    @Test
+    public void ignoresDifferencesOfNonConsecutiveIntervals() {
+        final HrvWindow window = new HrvWindow(60);
+        window.add(1.0, 1.0, false);
+        window.add(2.0, 1.0, true);
+        window.add(4.5, 0.5, false);          // Beats missed before this one
+        window.add(5.0, 0.5, true);
+
+        final HrvMetrics metrics = window.getMetrics();
+        assertEquals(0, metrics.getRmssd(), kTolerance);
+        assertEquals(0, metrics.getPnn50(), kTolerance);
+    }
+
+    @Test
+    public void removesBeatsOutsideTheWindow() {
+        final HrvWindow window = new HrvWindow(2);
+        window.add(1.0, 1.0, false);
+        window.add(1.5, 0.5, true);           // Difference -0.5 with the first one
+        window.add(2.5, 1.0, true);
+        assertEquals(3, window.getCount());
+        assertEquals(100, window.getMetrics().getPnn50(), kTolerance);
+
+        // The first beat leaves the window, and the difference of the second one (relative to it) too
+        window.add(3.0, 0.5, true);
+        assertEquals(3, window.getCount());
+        final HrvMetrics metrics = window.getMetrics();
+        assertEquals(Math.sqrt(0.25) * 1000, metrics.getRmssd(), kTolerance);
+        assertEquals(100, metrics.getPnn50(), kTolerance);
+
+        // All beats leave the window
+        window.add(10, 1, false);
+        assertMetrics(1, 60, 0, 0, 0, window.getMetrics());
+    }
+
+    @Test
+    public void clearRemovesAllBeats() {
+        final HrvWindow window = new HrvWindow(60);
+        window.add(1.0, 1.0, false);
+        window.add(1.8, 0.8, true);
+        window.clear();
+        assertEquals(0, window.getCount());
+        assertMetrics(0, 0, 0, 0, 0, window.getMetrics());
+    }
+
+    @Test
+    public void runningSumsMatchARecomputationOfTheWindow() {
+        // Many beats (so the buffers grow and wrap), with gaps and missed beats, compared with the metrics computed from scratch after each beat
+        final Random random = new Random(1);
+        final HrvWindow window = new HrvWindow(30);
+        double time = 0;
+        for (int i = 0; i < 20000; i++) {
+            final double rrInterval = 0.4 + random.nextDouble() * 0.8;
+            boolean isConsecutive = i > 0;
+            if (random.nextInt(50) == 0) {
+                time += 0.5 + random.nextDouble() * (random.nextBoolean() ? 2 : 60);         // Missed beats or signal loss
+                isConsecutive = false;
+            }
+            time += rrInterval;
+
+            window.add(time, rrInterval, isConsecutive);
+            mTimes.add(time);
+            mRrIntervals.add(rrInterval);
+            mIsConsecutive.add(isConsecutive);
+            assertMetrics(referenceMetrics(window.getWindow(), time), window.getMetrics());
+        }
+    }
+
+    private HrvMetrics referenceMetrics(double window, double time) {
+        int first = mTimes.size();
+        while (first > 0 && mTimes.get(first - 1) > time - window) {
+            first--;
+        }
+        final int count = mTimes.size() - first;
+        double sum = 0;
+        for (int i = first; i < mTimes.size(); i++) {
+            sum += mRrIntervals.get(i);
+        }
+        final double mean = count > 0 ? sum / count : 0;
+        double squaresSum = 0;
+        for (int i = first; i < mTimes.size(); i++) {
+            squaresSum += (mRrIntervals.get(i) - mean) * (mRrIntervals.get(i) - mean);
+        }
+        double differencesSquaresSum = 0;
+        int differencesCount = 0;
+        int nn50Count = 0;
+        for (int i = first + 1; i < mTimes.size(); i++) {
+            if (mIsConsecutive.get(i)) {
+                final double difference = mRrIntervals.get(i) - mRrIntervals.get(i - 1);
+                differencesSquaresSum += difference * difference;
+                differencesCount++;
+                if (Math.abs(difference) > 0.050) {
+                    nn50Count++;
+                }
+            }
+        }
+
+        return new HrvMetrics(window, count,
+                sum > 0 ? 60 * count / sum : 0,
+                count > 1 ? Math.sqrt(squaresSum / (count - 1)) * 1000 : 0,
+                differencesCount > 0 ? Math.sqrt(differencesSquaresSum / differencesCount) * 1000 : 0,
+                differencesCount > 0 ? 100.0 * nn50Count / differencesCount : 0);
+    }
+
+    private static void assertMetrics(int beatsCount, double meanHeartRate, double sdnn, double rmssd, double pnn50, HrvMetrics metrics) {
+        assertMetrics(new HrvMetrics(metrics.getWindow(), beatsCount, meanHeartRate, sdnn, rmssd, pnn50), metrics);
+    }
+
+    private static void assertMetrics(HrvMetrics expectedMetrics, HrvMetrics metrics) {
+        assertEquals(expectedMetrics.getBeatsCount(), metrics.getBeatsCount());
+        assertEquals(expectedMetrics.getMeanHeartRate(), metrics.getMeanHeartRate(), kTolerance);
+        assertEquals(expectedMetrics.getSdnn(), metrics.getSdnn(), 1e-6);          // in millis
+        assertEquals(expectedMetrics.getRmssd(), metrics.getRmssd(), 1e-6);
+        assertEquals(expectedMetrics.getPnn50(), metrics.getPnn50(), kTolerance);
+    }
+}
@@ -0,0 +1,106 @@
+package com.dduunk.ecg.signal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MinMaxPyramidTest {
+
+    // Points sent by a query
+    private final List<float[]> mPoints = new ArrayList<>();
+
+    @Test
+    public void usesTheFinestLevelThatFits() {
+        final MinMaxPyramid pyramid = new MinMaxPyramid(3, 1024);
+        for (int i = 0; i < 640; i++) {
+            pyramid.add(i, i);
+        }
+
+        assertEquals(0, query(pyramid, 100, 199, 200));
+        assertEquals(101, mPoints.size());              // [100, 199] and the point just after
+        assertEquals(100, mPoints.get(0)[0], 0);
+        assertEquals(200, mPoints.get(100)[0], 0);
+
+        assertEquals(1, query(pyramid, 0, 639, 100));      // 80 buckets of 8 points: min and max of each
+        assertEquals(160, mPoints.size());
+        assertEquals(8, mPoints.get(2)[0], 0);
+        assertEquals(8, mPoints.get(2)[1], 0);
+        assertEquals(15, mPoints.get(3)[1], 0);
+    }
+
+    @Test
+    public void keepsThePeaksWhenTheLastLevelHasTooManyBuckets() {
+        // More buckets in the coarsest level than requested: consecutive buckets are merged, not skipped
+        final MinMaxPyramid pyramid = new MinMaxPyramid(2, 4096);
+        final Random random = new Random(1);
+        final int pointsCount = 8 * 4096;
+        final List<Integer> spikes = new ArrayList<>();
+        for (int i = 0; i < pointsCount; i++) {
+            float y = (float) random.nextGaussian() * 0.01f;
+            if (i % 997 == 500) {
+                spikes.add(i);
+                y = i % 2 == 0 ? 10 : -10;
+            }
+            pyramid.add(i, y);
+        }
+
+        assertEquals(1, query(pyramid, 0, pointsCount, 256));
+        assertTrue(mPoints.size() <= 2 * 256);
+        for (int spike : spikes) {
+            boolean isFound = false;
+            for (int i = 0; i + 1 < mPoints.size(); i += 2) {
+                final float nextX = i + 2 < mPoints.size() ? mPoints.get(i + 2)[0] : Float.MAX_VALUE;
+                if (mPoints.get(i)[0] <= spike && spike < nextX) {
+                    isFound = Math.abs(spike % 2 == 0 ? mPoints.get(i + 1)[1] : mPoints.get(i)[1]) == 10;
+                }
+            }
+            assertTrue("spike at " + spike, isFound);
+        }
+    }
+
+    @Test
+    public void includesTheNewestPointsInCoarseLevels() {
+        final MinMaxPyramid pyramid = new MinMaxPyramid(3, 1024);
+        final int pointsCount = 64 * 10 + 8 * 3 + 5;          // Partial buckets in levels 0 and 1
+        for (int i = 0; i < pointsCount; i++) {
+            pyramid.add(i, i);
+        }
+
+        assertEquals(2, query(pyramid, 0, pointsCount - 1, 20));
+        assertEquals(2 * 11, mPoints.size());           // 10 full buckets and the newest one
+        final float[] newestMin = mPoints.get(mPoints.size() - 2);
+        final float[] newestMax = mPoints.get(mPoints.size() - 1);
+        assertEquals(640, newestMin[0], 0);
+        assertEquals(640, newestMin[1], 0);
+        assertEquals(pointsCount - 1, newestMax[1], 0);
+
+        // A range that doesn't reach the newest bucket doesn't include it
+        assertEquals(1, query(pyramid, 0, 100, 20));
+        assertTrue(mPoints.get(mPoints.size() - 1)[0] <= 104);
+
+        // The newest bucket is merged with the others if there are too many
+        assertEquals(2, query(pyramid, 0, pointsCount - 1, 4));
+        assertEquals(pointsCount - 1, mPoints.get(mPoints.size() - 1)[1], 0);
+    }
+
+    @Test
+    public void clearRemovesAllLevels() {
+        final MinMaxPyramid pyramid = new MinMaxPyramid(3, 1024);
+        for (int i = 0; i < 1000; i++) {
+            pyramid.add(i, i);
+        }
+        pyramid.clear();
+        assertEquals(-1, query(pyramid, 0, 1000, 100));
+        assertTrue(Float.isNaN(pyramid.getFirstX()));
+    }
+
+    private int query(MinMaxPyramid pyramid, float fromX, float toX, int maxBuckets) {
+        mPoints.clear();
+        return pyramid.query(fromX, toX, maxBuckets, (x, y) -> mPoints.add(new float[]{x, y}));
+    }
+}
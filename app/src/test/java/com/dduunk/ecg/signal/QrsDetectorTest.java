@@ -0,0 +1,166 @@
+package com.dduunk.ecg.signal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QrsDetectorTest {
+
+    private final static double kSampleRate = 500;          // in Hz
+    private final static double kLearningPeriod = 2;        // in seconds. Beats during the detector learning period are not expected
+
+    private static class RPeak {
+        final long sampleIndex;
+        final double rrInterval;
+        final double heartRate;
+        final double latency;
+
+        RPeak(long sampleIndex, double rrInterval, double heartRate, double latency) {
+            this.sampleIndex = sampleIndex;
+            this.rrInterval = rrInterval;
+            this.heartRate = heartRate;
+            this.latency = latency;
+        }
+    }
+
+    // Synthetic ecg
+    private static class Ecg {
+        final float[] samples;
+        final List<Long> rPeakIndexes = new ArrayList<>();
+
+        Ecg(float[] samples) {
+            this.samples = samples;
+        }
+    }
+
+    @Test
+    public void detectsAllBeatsOfANoisyEcg() {
+        final Ecg ecg = syntheticEcg(120, 0.7, 1.0, 0.05, 1);
+        final List<RPeak> peaks = detect(ecg.samples, ecg.samples.length);
+
+        final List<Long> expectedIndexes = expectedRPeaks(ecg);
+        assertEquals(expectedIndexes.size(), peaks.size());
+        final long tolerance = Math.round(0.010 * kSampleRate);
+        for (int i = 0; i < peaks.size(); i++) {
+            assertTrue("beat " + i, Math.abs(peaks.get(i).sampleIndex - expectedIndexes.get(i)) <= tolerance);
+            assertTrue("beat " + i, peaks.get(i).latency > 0 && peaks.get(i).latency < 0.5);
+        }
+    }
+
+    @Test
+    public void reportsRrIntervalsAndHeartRate() {
+        final Ecg ecg = syntheticEcg(60, 0.8, 0.8, 0.01, 2);          // 75 bpm
+        final List<RPeak> peaks = detect(ecg.samples, ecg.samples.length);
+        assertTrue(peaks.size() > 60);
+
+        assertEquals(0, peaks.get(0).rrInterval, 0);
+        assertEquals(0, peaks.get(0).heartRate, 0);
+        for (int i = 1; i < peaks.size(); i++) {
+            final RPeak peak = peaks.get(i);
+            assertEquals((peak.sampleIndex - peaks.get(i - 1).sampleIndex) / kSampleRate, peak.rrInterval, 1e-9);
+            assertEquals("beat " + i, 75, peak.heartRate, 1);
+        }
+    }
+
+    @Test
+    public void givesTheSameBeatsForAnyBlockSize() {
+        final Ecg ecg = syntheticEcg(30, 0.6, 1.2, 0.05, 3);
+        final List<RPeak> expectedPeaks = detect(ecg.samples, ecg.samples.length);
+        for (int blockSize : new int[]{1, 7, 20, 333}) {
+            final List<RPeak> peaks = detect(ecg.samples, blockSize);
+            assertEquals(expectedPeaks.size(), peaks.size());
+            for (int i = 0; i < peaks.size(); i++) {
+                assertEquals(expectedPeaks.get(i).sampleIndex, peaks.get(i).sampleIndex);
+                assertEquals(expectedPeaks.get(i).heartRate, peaks.get(i).heartRate, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void searchesBackForAMissedSmallBeat() {
+        // A beat with 45% of the amplitude (20% of the energy) is below the detection threshold after the big ones, but is found by the search back
+        final Ecg ecg = syntheticEcg(40, 0.8, 0.8, 0.005, 4);
+        final int smallBeat = 30;
+        final long smallIndex = ecg.rPeakIndexes.get(smallBeat);
+        addQrs(ecg.samples, smallIndex, -0.55);
+
+        final List<RPeak> peaks = detect(ecg.samples, ecg.samples.length);
+        assertEquals(expectedRPeaks(ecg).size(), peaks.size());
+        RPeak smallPeak = null;
+        for (RPeak peak : peaks) {
+            if (Math.abs(peak.sampleIndex - smallIndex) <= Math.round(0.010 * kSampleRate)) {
+                smallPeak = peak;
+            }
+        }
+        assertTrue(smallPeak != null);
+        assertEquals(1.66 * 0.8 - 0.8, smallPeak.latency, 0.01);          // Found when no beat was detected for 1.66 rr intervals since the previous one
+    }
+
+    @Test
+    public void ignoresAFlatSignal() {
+        final List<RPeak> peaks = detect(new float[(int) (20 * kSampleRate)], 100);
+        assertEquals(0, peaks.size());
+    }
+
+    private static List<RPeak> detect(float[] samples, int blockSize) {
+        final QrsDetector detector = new QrsDetector(kSampleRate);
+        final List<RPeak> peaks = new ArrayList<>();
+        for (int offset = 0; offset < samples.length; offset += blockSize) {
+            detector.process(samples, offset, Math.min(blockSize, samples.length - offset), (sampleIndex, rrInterval, heartRate, latency) -> peaks.add(new RPeak(sampleIndex, rrInterval, heartRate, latency)));
+        }
+        assertEquals(peaks.size(), detector.getBeatsCount());
+        return peaks;
+    }
+
+    private static List<Long> expectedRPeaks(Ecg ecg) {
+        final List<Long> indexes = new ArrayList<>();
+        for (long index : ecg.rPeakIndexes) {
+            if (index >= kLearningPeriod * kSampleRate) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    // Beats with random rr intervals in [minRrInterval, maxRrInterval], with p and t waves, baseline wander, mains and white noise
+    private static Ecg syntheticEcg(double duration, double minRrInterval, double maxRrInterval, double noise, long seed) {
+        final Random random = new Random(seed);
+        final Ecg ecg = new Ecg(new float[(int) (duration * kSampleRate)]);
+        double time = 0.5;
+        while (time < duration - 0.5) {
+            final long index = Math.round(time * kSampleRate);
+            ecg.rPeakIndexes.add(index);
+            addQrs(ecg.samples, index, 1);
+            addWave(ecg.samples, index - Math.round(0.18 * kSampleRate), 0.15, 0.025);       // p
+            addWave(ecg.samples, index + Math.round(0.30 * kSampleRate), 0.30, 0.050);       // t
+            time += minRrInterval + random.nextDouble() * (maxRrInterval - minRrInterval);
+        }
+
+        for (int i = 0; i < ecg.samples.length; i++) {
+            final double t = i / kSampleRate;
+            ecg.samples[i] += 0.3 * Math.sin(2 * Math.PI * 0.3 * t) + 0.05 * Math.sin(2 * Math.PI * 50 * t) + noise * random.nextGaussian();
+        }
+        return ecg;
+    }
+
+    // q, r and s waves
+    private static void addQrs(float[] samples, long rPeakIndex, double amplitude) {
+        addWave(samples, rPeakIndex - Math.round(0.02 * kSampleRate), -0.1 * amplitude, 0.006);
+        addWave(samples, rPeakIndex, amplitude, 0.010);
+        addWave(samples, rPeakIndex + Math.round(0.02 * kSampleRate), -0.2 * amplitude, 0.006);
+    }
+
+    // Gaussian wave. width: standard deviation in seconds
+    private static void addWave(float[] samples, long centerIndex, double amplitude, double width) {
+        final long radius = Math.round(4 * width * kSampleRate);
+        for (long i = Math.max(0, centerIndex - radius); i <= Math.min(samples.length - 1, centerIndex + radius); i++) {
+            final double t = (i - centerIndex) / kSampleRate;
+            samples[(int) i] += amplitude * Math.exp(-t * t / (2 * width * width));
+        }
+    }
+}
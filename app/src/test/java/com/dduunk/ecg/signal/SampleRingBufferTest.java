@@ -0,0 +1,73 @@
+package com.dduunk.ecg.signal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleRingBufferTest {
+
+    @Test
+    public void keepsTheLatestPoints() {
+        final SampleRingBuffer buffer = new SampleRingBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i, 10 * i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(5, buffer.getTotalCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 2, buffer.getX(i), 0);
+            assertEquals(10 * (i + 2), buffer.getY(i), 0);
+            assertEquals(i + 2, buffer.getXAt(buffer.physicalIndex(i)), 0);
+        }
+        assertEquals(20, buffer.getMinY(), 0);
+        assertEquals(40, buffer.getMaxY(), 0);
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        buffer.add(7, -1);
+        assertEquals(7, buffer.getX(0), 0);
+        assertEquals(-1, buffer.getMinY(), 0);
+        assertEquals(-1, buffer.getMaxY(), 0);
+    }
+
+    @Test
+    public void minAndMaxMatchAScanOfThePoints() {
+        // Random walks, repeated values and monotonic runs (the worst cases of the monotonic queues), compared with a scan of the buffer after each point
+        final Random random = new Random(1);
+        for (int capacity : new int[]{1, 2, 7, 64, 1000}) {
+            final SampleRingBuffer buffer = new SampleRingBuffer(capacity);
+            float y = 0;
+            for (int i = 0; i < 20000; i++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        y += (float) random.nextGaussian();
+                        break;
+                    case 1:
+                        y = random.nextInt(3);
+                        break;
+                    case 2:
+                        y += 1;
+                        break;
+                    default:
+                        y -= 1;
+                        break;
+                }
+                buffer.add(i, y);
+                if (random.nextInt(5000) == 0) {
+                    buffer.clear();
+                    buffer.add(i, y);
+                }
+
+                float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+                for (int j = 0; j < buffer.size(); j++) {
+                    min = Math.min(min, buffer.getY(j));
+                    max = Math.max(max, buffer.getY(j));
+                }
+                assertEquals("capacity " + capacity + " point " + i, min, buffer.getMinY(), 0);
+                assertEquals("capacity " + capacity + " point " + i, max, buffer.getMaxY(), 0);
+            }
+        }
+    }
+}
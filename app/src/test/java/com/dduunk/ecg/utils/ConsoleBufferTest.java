@@ -0,0 +1,164 @@
+package com.dduunk.ecg.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConsoleBufferTest {
+
+    @Test
+    public void splitsTextInLines() {
+        final ConsoleBuffer buffer = new ConsoleBuffer(10);
+        buffer.append("first\nsec", 1, false);
+        buffer.append("ond\n\nlast", 2, true);
+        assertLines(buffer, "first", "second", "", "last");
+
+        // The second line has a segment of each append
+        assertEquals(2, buffer.getLineEndSegment(1) - buffer.getLineFirstSegment(1));
+        final long segment = buffer.getLineFirstSegment(1);
+        assertEquals("sec", buffer.getSegmentText(segment));
+        assertEquals(1, buffer.getSegmentColor(segment));
+        assertFalse(buffer.isSegmentBold(segment));
+        assertEquals("ond", buffer.getSegmentText(segment + 1));
+        assertEquals(2, buffer.getSegmentColor(segment + 1));
+        assertTrue(buffer.isSegmentBold(segment + 1));
+
+        // A line break at the end doesn't start a new line until more text is added
+        buffer.append(" line\n", 3, false);
+        assertLines(buffer, "first", "second", "", "last line");
+        buffer.append("x", 3, false);
+        assertLines(buffer, "first", "second", "", "last line", "x");
+    }
+
+    @Test
+    public void wrapsLongLines() {
+        final ConsoleBuffer buffer = new ConsoleBuffer(10);
+        final String longText = repeat('a', ConsoleBuffer.kMaxLineLength + 10);
+        buffer.append(longText.substring(0, 100), 0, false);
+        buffer.append(longText.substring(100) + "\nb", 0, false);
+        assertLines(buffer, repeat('a', ConsoleBuffer.kMaxLineLength), repeat('a', 10), "b");
+
+        // A line that ends exactly at the limit doesn't add an empty line
+        buffer.clear();
+        buffer.append(repeat('c', ConsoleBuffer.kMaxLineLength) + "\nd", 0, false);
+        assertLines(buffer, repeat('c', ConsoleBuffer.kMaxLineLength), "d");
+    }
+
+    @Test
+    public void dropsTheOldestLinesWhenFull() {
+        final ConsoleBuffer buffer = new ConsoleBuffer(3);
+        buffer.append("1\n2\n3\n4\n5", 0, false);
+        assertLines(buffer, "3", "4", "5");
+        assertEquals(2, buffer.getFirstLineSequence());
+        assertEquals(5, buffer.getEndLineSequence());
+    }
+
+    @Test
+    public void dropsLinesThatLoseSegments() {
+        // Room for 100 lines, but a ring of 2 * kMaxLineLength segments: lines made of single char segments evict the segments of the previous ones
+        final ConsoleBuffer buffer = new ConsoleBuffer(100);
+        buffer.append("first\nsecond\n", 0, false);
+        for (int i = 0; i < 2 * ConsoleBuffer.kMaxLineLength; i++) {
+            buffer.append("x", 0, false);
+        }
+        assertLines(buffer, repeat('x', ConsoleBuffer.kMaxLineLength), repeat('x', ConsoleBuffer.kMaxLineLength));
+        assertEquals(2, buffer.getFirstLineSequence());
+
+        buffer.append("y", 0, false);
+        assertLines(buffer, repeat('x', ConsoleBuffer.kMaxLineLength), "y");
+    }
+
+    @Test
+    public void clearKeepsTheSequencesGrowing() {
+        final ConsoleBuffer buffer = new ConsoleBuffer(10);
+        buffer.append("a\nb", 0, false);
+        final long endLine = buffer.getEndLineSequence();
+        final long endSegment = buffer.getEndSegmentSequence();
+        buffer.clear();
+        assertEquals(0, buffer.getLinesCount());
+        assertEquals(endLine, buffer.getFirstLineSequence());
+        assertEquals(endLine, buffer.getEndLineSequence());
+        assertEquals(endSegment, buffer.getEndSegmentSequence());
+
+        // Text after a clear starts a new line, although the last one was not finished
+        buffer.append("c", 0, false);
+        assertLines(buffer, "c");
+        assertEquals(endLine, buffer.getFirstLineSequence());
+        assertEquals(endSegment + 1, buffer.getEndSegmentSequence());
+    }
+
+    @Test
+    public void matchesAReferenceForRandomAppends() {
+        final Random random = new Random(1);
+        final ConsoleBuffer buffer = new ConsoleBuffer(20);
+        final List<String> referenceLines = new ArrayList<>();         // All lines, by sequence
+        boolean isReferenceLineOpen = false;
+        final String alphabet = "abc\n";
+        for (int i = 0; i < 20000; i++) {
+            if (random.nextInt(500) == 0) {
+                buffer.clear();
+                isReferenceLineOpen = false;
+                continue;
+            }
+
+            final StringBuilder text = new StringBuilder();
+            final int length = random.nextInt(10) == 0 ? random.nextInt(600) : random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            buffer.append(text.toString(), 0, false);
+
+            for (int j = 0; j < text.length(); j++) {
+                final char c = text.charAt(j);
+                if (!isReferenceLineOpen) {
+                    referenceLines.add("");
+                    isReferenceLineOpen = true;
+                }
+                if (c == '\n') {
+                    isReferenceLineOpen = false;
+                } else {
+                    final int last = referenceLines.size() - 1;
+                    referenceLines.set(last, referenceLines.get(last) + c);
+                    if (referenceLines.get(last).length() == ConsoleBuffer.kMaxLineLength) {
+                        isReferenceLineOpen = false;
+                    }
+                }
+            }
+
+            assertEquals(referenceLines.size(), buffer.getEndLineSequence());
+            assertTrue(buffer.getLinesCount() <= 20);
+            for (int j = 0; j < buffer.getLinesCount(); j++) {
+                assertEquals(referenceLines.get((int) buffer.getFirstLineSequence() + j), lineText(buffer, j));
+            }
+        }
+    }
+
+    private static void assertLines(ConsoleBuffer buffer, String... expectedLines) {
+        assertEquals(expectedLines.length, buffer.getLinesCount());
+        for (int i = 0; i < expectedLines.length; i++) {
+            assertEquals("line " + i, expectedLines[i], lineText(buffer, i));
+        }
+    }
+
+    private static String lineText(ConsoleBuffer buffer, int index) {
+        final StringBuilder text = new StringBuilder();
+        for (long segment = buffer.getLineFirstSegment(index); segment < buffer.getLineEndSegment(index); segment++) {
+            text.append(buffer.getSegmentText(segment));
+        }
+        return text.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}